@@ -0,0 +1,114 @@
+package seminar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+
+/**
+ * Shared setup of the benchmarks: clients, the Movies table and the sample data.
+ */
+final class BenchmarkSupport {
+
+	static final String MOVIES_FILE_NAME = "moviedata.json";
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Creates a client for DynamoDB Local at {@code endpoint} or an in-process fake if the endpoint is empty. The client
+	 * is not shared through {@code AwsClientFactory} because each trial shuts its client down.
+	 * @param endpoint Endpoint such as http://localhost:8000 or an empty string
+	 * @return Amazon DynamoDB client
+	 */
+	@Nonnull
+	static AmazonDynamoDB createClient(@Nonnull final String endpoint) {
+		if (endpoint.isEmpty()) {
+			return new InMemoryAmazonDynamoDB();
+		}
+
+		return AmazonDynamoDBClientBuilder.standard()
+				.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, Regions.US_EAST_1.getName()))
+				.withClientConfiguration(AwsClientFactory.createClientConfiguration(AwsClientFactory.DYNAMODB_BASE_DELAY_MILLIS))
+				.build();
+	}
+
+	/**
+	 * Create a Movies table with given {@code tableName} unless it exists and wait until it is active.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the table
+	 */
+	static void createMoviesTable(@Nonnull final AmazonDynamoDB client, @Nonnull final String tableName) throws InterruptedException {
+		final CreateTableRequest request = new CreateTableRequest()
+				.withTableName(tableName)
+				.withAttributeDefinitions(
+						new AttributeDefinition("year", ScalarAttributeType.N),
+						new AttributeDefinition("title", ScalarAttributeType.S)
+				)
+				.withKeySchema(
+						new KeySchemaElement("year", KeyType.HASH),
+						new KeySchemaElement("title", KeyType.RANGE)
+				)
+				.withProvisionedThroughput(new ProvisionedThroughput(10_000L, 10_000L));
+
+		TableUtils.createTableIfNotExists(client, request);
+		TableUtils.waitUntilActive(client, tableName);
+	}
+
+	/**
+	 * @return Raw bytes of the movies sample data
+	 */
+	@Nonnull
+	static byte[] readMoviesFile() throws IOException {
+		try (final InputStream input = BenchmarkSupport.class.getClassLoader().getResourceAsStream(MOVIES_FILE_NAME)) {
+			if (input == null) {
+				throw new IOException("Classpath resource " + MOVIES_FILE_NAME + " not found");
+			}
+
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int length;
+
+			while ((length = input.read(buffer)) != -1) {
+				output.write(buffer, 0, length);
+			}
+
+			return output.toByteArray();
+		}
+	}
+
+	/**
+	 * Load up to {@code limit} movies as low-level attribute maps.
+	 * @param limit Maximum number of movies
+	 * @return Movie items
+	 */
+	@Nonnull
+	static List<Map<String, AttributeValue>> loadMovies(final int limit) throws IOException {
+		final List<Map<String, AttributeValue>> movies = new ArrayList<>();
+
+		try (final MovieJsonReader reader = MovieJsonReader.fromClasspath(MOVIES_FILE_NAME)) {
+			while (reader.hasNext() && movies.size() < limit) {
+				movies.add(reader.next());
+			}
+		}
+
+		return movies;
+	}
+}
@@ -0,0 +1,96 @@
+package seminar;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Parse throughput of the movies file, which includes the conversion to low-level attribute values, compared to a
+ * round trip through the Document API {@code Item}. Run with {@code -prof gc} to see the bytes allocated per
+ * operation ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MovieParseBenchmark {
+
+	private byte[] moviesFile;
+	private List<Map<String, AttributeValue>> items;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		moviesFile = BenchmarkSupport.readMoviesFile();
+		items = new ArrayList<>();
+
+		try (final MovieJsonReader reader = new MovieJsonReader(new ByteArrayInputStream(moviesFile))) {
+			reader.forEachRemaining(items::add);
+		}
+	}
+
+	/**
+	 * Stream all records of the movies file. The score counts whole files per second, the {@code records} counter
+	 * records per second.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void parseMovies(final Blackhole blackhole, final RecordCounter counter) throws IOException {
+		try (final MovieJsonReader reader = new MovieJsonReader(new ByteArrayInputStream(moviesFile))) {
+			while (reader.hasNext()) {
+				blackhole.consume(reader.next());
+				counter.records++;
+			}
+		}
+	}
+
+	/**
+	 * Convert a single parsed movie to an {@code Item} and back to attribute values, the extra work each record
+	 * costs when it goes through the Document API.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object convertMovieThroughItem() {
+		final Map<String, AttributeValue> item = items.get(next);
+		next = (next + 1) % items.size();
+
+		return ItemUtils.toAttributeValues(ItemUtils.toItem(item));
+	}
+
+	/**
+	 * Parsed records, reported by JMH as a rate next to the score.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class RecordCounter {
+
+		public long records;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			records = 0;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Put throughput for several batch sizes and concurrency levels. A batch size of one uses {@code PutItem}, larger
+ * sizes use {@code BatchWriteItem}. The score is in items per second. Set {@code -p endpoint=http://localhost:8000}
+ * to run against DynamoDB Local instead of the in-process fake.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PutThroughputBenchmark {
+
+	private static final String TABLE_NAME = "MoviesPutBenchmark";
+	private static final int ITEMS = 1000;
+
+	@Param({"1", "5", "25"})
+	public int batchSize;
+
+	@Param({"1", "4", "16"})
+	public int concurrency;
+
+	@Param({""})
+	public String endpoint;
+
+	private AmazonDynamoDB client;
+	private ExecutorService executor;
+	private List<Callable<Void>> tasks;
+
+	@Setup
+	public void setup() throws Exception {
+		client = BenchmarkSupport.createClient(endpoint);
+		BenchmarkSupport.createMoviesTable(client, TABLE_NAME);
+		executor = Executors.newFixedThreadPool(concurrency);
+
+		final List<Map<String, AttributeValue>> movies = BenchmarkSupport.loadMovies(ITEMS);
+		tasks = new ArrayList<>();
+
+		for (int i = 0; i < movies.size(); i += batchSize) {
+			final List<Map<String, AttributeValue>> batch = movies.subList(i, Math.min(i + batchSize, movies.size()));
+			tasks.add(() -> {
+				write(batch);
+				return null;
+			});
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+		client.shutdown();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(ITEMS)
+	public void putMovies() throws Exception {
+		for (final Future<Void> future : executor.invokeAll(tasks)) {
+			future.get();
+		}
+	}
+
+	private void write(final List<Map<String, AttributeValue>> batch) {
+		if (batch.size() == 1) {
+			client.putItem(new PutItemRequest(TABLE_NAME, batch.get(0)));
+			return;
+		}
+
+		final List<WriteRequest> requests = new ArrayList<>(batch.size());
+
+		for (final Map<String, AttributeValue> item : batch) {
+			requests.add(new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+		}
+
+		Map<String, List<WriteRequest>> requestItems = Collections.singletonMap(TABLE_NAME, requests);
+
+		for (int attempt = 1; ; attempt++) {
+			final BatchWriteItemResult result = client.batchWriteItem(new BatchWriteItemRequest().withRequestItems(requestItems));
+			requestItems = result.getUnprocessedItems();
+
+			if (requestItems == null || requestItems.isEmpty()) {
+				return;
+			}
+
+			// Resend unprocessed items with the same backoff as the loaders, not in a tight loop.
+			BatchWriter.backoff(attempt);
+		}
+	}
+}
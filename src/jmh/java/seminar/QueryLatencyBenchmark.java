@@ -0,0 +1,95 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+/**
+ * Latency distribution of queries for a random year, uncached and through {@link MovieLookup}. Sample time mode
+ * reports the p50, p90, p99, p99.9 percentiles.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryLatencyBenchmark {
+
+	private static final String TABLE_NAME = "MoviesQueryBenchmark";
+	private static final int FIRST_YEAR = 1990;
+	private static final int LAST_YEAR = 2013;
+
+	@Param({""})
+	public String endpoint;
+
+	private AmazonDynamoDB client;
+	private MovieLookup lookup;
+
+	@Setup
+	public void setup() throws Exception {
+		client = BenchmarkSupport.createClient(endpoint);
+		BenchmarkSupport.createMoviesTable(client, TABLE_NAME);
+
+		try (final BatchWriter writer = new BatchWriter(client, TABLE_NAME, 8)) {
+			BenchmarkSupport.loadMovies(Integer.MAX_VALUE).forEach(writer::putItem);
+		}
+
+		lookup = new MovieLookup(new DynamoDB(client).getTable(TABLE_NAME), 10_000, Duration.ofMinutes(10));
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.shutdown();
+	}
+
+	@Benchmark
+	public int queryYear() {
+		final Map<String, AttributeValue> values =
+				Collections.singletonMap(":yyyy", new AttributeValue().withN(Integer.toString(randomYear())));
+		final QueryRequest request = new QueryRequest()
+				.withTableName(TABLE_NAME)
+				.withKeyConditionExpression("#yr = :yyyy")
+				.withExpressionAttributeNames(Collections.singletonMap("#yr", "year"))
+				.withExpressionAttributeValues(values);
+		int count = 0;
+
+		do {
+			final QueryResult result = client.query(request);
+			count += result.getCount();
+			request.setExclusiveStartKey(result.getLastEvaluatedKey());
+		} while (request.getExclusiveStartKey() != null);
+
+		return count;
+	}
+
+	@Benchmark
+	public int cachedQueryYear() {
+		return lookup.moviesByYear(randomYear()).size();
+	}
+
+	private static int randomYear() {
+		return ThreadLocalRandom.current().nextInt(FIRST_YEAR, LAST_YEAR + 1);
+	}
+}
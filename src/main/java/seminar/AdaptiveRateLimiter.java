@@ -0,0 +1,238 @@
+package seminar;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+/**
+ * Token bucket that limits the capacity units spent per second. Callers reserve an estimate before a request and
+ * settle it with the {@code ConsumedCapacity} DynamoDB reports afterwards. The fill rate adapts additive-increase /
+ * multiplicative-decrease style: it ramps up towards the provisioned limit while requests succeed and is halved on
+ * throttling. {@link #readPage(AdaptiveRateLimiter, Supplier, Function)} does all of this for a page of a query or
+ * scan.
+ */
+public class AdaptiveRateLimiter {
+
+	private static final double INITIAL_RATE_FRACTION = 0.5;
+	private static final double INCREASE_FRACTION = 0.05;
+	private static final double DECREASE_FACTOR = 0.5;
+	private static final double MIN_RATE_FRACTION = 0.05;
+	private static final int MAX_READ_ATTEMPTS = 10;
+
+	private final double maxRate;
+	private final double minRate;
+
+	private double rate;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+
+	/**
+	 * Creates a limiter that never exceeds {@code maxRate} capacity units per second.
+	 * @param maxRate Capacity units per second
+	 */
+	public AdaptiveRateLimiter(final double maxRate) {
+		if (maxRate <= 0) {
+			throw new IllegalArgumentException("Rate must be positive but was " + maxRate);
+		}
+
+		this.maxRate = maxRate;
+		this.minRate = maxRate * MIN_RATE_FRACTION;
+		this.rate = maxRate * INITIAL_RATE_FRACTION;
+	}
+
+	/**
+	 * Creates a limiter for the provisioned write capacity of given {@code description}.
+	 * @param description Table description
+	 * @return Rate limiter or {@code null} if the table has no provisioned write capacity (on-demand mode)
+	 */
+	@CheckForNull
+	public static AdaptiveRateLimiter forWriteCapacity(@Nonnull final TableDescription description) {
+		final ProvisionedThroughputDescription throughput = description.getProvisionedThroughput();
+
+		if (throughput == null || throughput.getWriteCapacityUnits() == null || throughput.getWriteCapacityUnits() <= 0) {
+			return null;
+		}
+
+		return new AdaptiveRateLimiter(throughput.getWriteCapacityUnits());
+	}
+
+	/**
+	 * Creates a limiter for the provisioned read capacity of given {@code description}.
+	 * @param description Table description
+	 * @return Rate limiter or {@code null} if the table has no provisioned read capacity (on-demand mode)
+	 */
+	@CheckForNull
+	public static AdaptiveRateLimiter forReadCapacity(@Nonnull final TableDescription description) {
+		final ProvisionedThroughputDescription throughput = description.getProvisionedThroughput();
+
+		if (throughput == null || throughput.getReadCapacityUnits() == null || throughput.getReadCapacityUnits() <= 0) {
+			return null;
+		}
+
+		return new AdaptiveRateLimiter(throughput.getReadCapacityUnits());
+	}
+
+	/**
+	 * Sum the capacity units charged to the provisioned throughput of the tables themselves, as returned with
+	 * {@code ReturnConsumedCapacity.INDEXES}: the table and its local indexes, which share the table's throughput.
+	 * Global indexes have throughput of their own and are left out, otherwise every write to a table with global
+	 * indexes would be charged several times against the table's limit. Without a breakdown the total is used.
+	 * @param consumedCapacity Consumed capacity per table, may be {@code null}
+	 * @return Capacity units of the tables and their local indexes
+	 */
+	public static double tableUnits(@CheckForNull final List<ConsumedCapacity> consumedCapacity) {
+		if (consumedCapacity == null) {
+			return 0;
+		}
+
+		double total = 0;
+
+		for (final ConsumedCapacity capacity : consumedCapacity) {
+			if (capacity.getTable() == null) {
+				total += capacity.getCapacityUnits() != null ? capacity.getCapacityUnits() : 0;
+				continue;
+			}
+
+			total += capacity.getTable().getCapacityUnits() != null ? capacity.getTable().getCapacityUnits() : 0;
+
+			if (capacity.getLocalSecondaryIndexes() != null) {
+				for (final Capacity index : capacity.getLocalSecondaryIndexes().values()) {
+					total += index.getCapacityUnits() != null ? index.getCapacityUnits() : 0;
+				}
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Read a page of a query or scan, paying for it with {@code rateLimiter} and adapting its rate: the rate ramps up
+	 * after the page was read and backs off if the read was throttled. Throttled reads are retried with the backoff
+	 * of {@code BatchWriter}.
+	 * @param rateLimiter Read capacity limiter, {@code null} for unlimited reads
+	 * @param read Reads the page, requesting {@code ReturnConsumedCapacity.TOTAL}
+	 * @param consumedCapacity Consumed capacity of a page, may return {@code null}
+	 * @return Page
+	 * @throws ProvisionedThroughputExceededException If the read is still throttled after {@code MAX_READ_ATTEMPTS}
+	 */
+	@Nonnull
+	public static <R> R readPage(
+			@CheckForNull final AdaptiveRateLimiter rateLimiter,
+			@Nonnull final Supplier<R> read,
+			@Nonnull final Function<R, ConsumedCapacity> consumedCapacity
+	) {
+		for (int attempt = 1; ; attempt++) {
+			// Page sizes are unknown up front, the consumed capacity is settled after each page.
+			if (rateLimiter != null) {
+				rateLimiter.acquire(1);
+			}
+
+			final R page;
+
+			try {
+				page = read.get();
+			} catch (final ProvisionedThroughputExceededException e) {
+				if (rateLimiter != null) {
+					rateLimiter.onThrottle();
+				}
+
+				if (attempt >= MAX_READ_ATTEMPTS) {
+					throw e;
+				}
+
+				BatchWriter.backoff(attempt);
+				continue;
+			}
+
+			if (rateLimiter != null) {
+				final ConsumedCapacity consumed = consumedCapacity.apply(page);
+
+				if (consumed != null && consumed.getCapacityUnits() != null) {
+					rateLimiter.settle(1, consumed.getCapacityUnits());
+				}
+
+				rateLimiter.onSuccess();
+			}
+
+			return page;
+		}
+	}
+
+	/**
+	 * Reserve {@code units} capacity units, blocking until the bucket can pay for them. A reservation may overdraw
+	 * the bucket, later callers then wait until the debt has been refilled.
+	 * @param units Estimated capacity units of the next request
+	 */
+	public void acquire(final double units) {
+		final long waitNanos;
+
+		synchronized (this) {
+			refill();
+			tokens -= units;
+			waitNanos = tokens < 0 ? (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1)) : 0;
+		}
+
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Correct an earlier reservation of {@code estimated} units by the {@code consumed} units actually reported.
+	 * @param estimated Units passed to {@link #acquire(double)}
+	 * @param consumed Units reported by DynamoDB
+	 */
+	public synchronized void settle(final double estimated, final double consumed) {
+		tokens += estimated - consumed;
+	}
+
+	/**
+	 * Ramp up the rate after a request succeeded without throttling.
+	 */
+	public synchronized void onSuccess() {
+		refill();
+		rate = Math.min(maxRate, rate + maxRate * INCREASE_FRACTION);
+	}
+
+	/**
+	 * Back off after a request was throttled or returned unprocessed items.
+	 */
+	public synchronized void onThrottle() {
+		refill();
+		rate = Math.max(minRate, rate * DECREASE_FACTOR);
+		tokens = Math.min(tokens, 0);
+	}
+
+	/**
+	 * @return Current rate in capacity units per second
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Add tokens for the time passed since the last refill. At most one second worth of tokens is kept, so idle
+	 * periods do not lead to bursts above the provisioned capacity.
+	 */
+	private void refill() {
+		final long now = System.nanoTime();
+		final double seconds = (now - lastRefillNanos) / 1e9;
+
+		lastRefillNanos = now;
+		tokens = Math.min(rate, tokens + seconds * rate);
+	}
+}
@@ -7,6 +7,7 @@ import java.io.FileWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -18,7 +19,6 @@ import javax.annotation.Nonnull;
 
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.AttachVolumeRequest;
 import com.amazonaws.services.ec2.model.AttachVolumeResult;
 import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressRequest;
@@ -29,13 +29,6 @@ import com.amazonaws.services.ec2.model.CreateSecurityGroupRequest;
 import com.amazonaws.services.ec2.model.CreateSecurityGroupResult;
 import com.amazonaws.services.ec2.model.CreateVolumeRequest;
 import com.amazonaws.services.ec2.model.CreateVolumeResult;
-import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesResult;
-import com.amazonaws.services.ec2.model.DescribeImagesRequest;
-import com.amazonaws.services.ec2.model.DescribeImagesResult;
-import com.amazonaws.services.ec2.model.DescribeKeyPairsRequest;
-import com.amazonaws.services.ec2.model.DescribeKeyPairsResult;
-import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
-import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Image;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceType;
@@ -61,72 +54,119 @@ public class Assignment04EC2 {
 	private static final String DEVICE_NAME = "/dev/sdi";
 	private static final String AVAILABILITY_ZONE = "us-east-1c";
 
+	// Launch a fleet of this many instances instead of a single one, 0 for a single instance.
+	private static final int FLEET_SIZE = Integer.getInteger("ec2.fleetSize", 0);
+	private static final int FLEET_PARALLELISM = Integer.getInteger("ec2.fleetParallelism", 16);
+
+	// Keep this many pre-provisioned instances in a warm pool and acquire one from it, 0 to launch a fresh instance.
+	private static final int WARM_POOL_SIZE = Integer.getInteger("ec2.warmPoolSize", 0);
+	private static final String WARM_POOL_NAME = System.getProperty("ec2.warmPoolName", SECURITY_GROUP_NAME);
+	// Keep idle pool instances running instead of stopped, for acquisition without boot time at full instance cost.
+	private static final boolean WARM_POOL_RUNNING = Boolean.getBoolean("ec2.warmPoolRunning");
+	private static final Duration WARM_POOL_REPLENISH_INTERVAL =
+			Duration.ofSeconds(Long.getLong("ec2.warmPoolReplenishSeconds", 30L));
+
+	// Endpoint override, i.e. for a local EC2 stand-in.
+	private static final String ENDPOINT = System.getProperty("ec2.endpoint");
+
+	private static final Duration METADATA_TTL = Duration.ofSeconds(Long.getLong("ec2.metadataTtlSeconds", 300L));
+
 	public static void main(String[] args) {
 
 		final AmazonEC2 ec2Client = createStandardEC2Client();
 
 		logger.log(Level.INFO, "EC2 client initialized");
 
-		listAllAvailabilityZones(ec2Client);
+		final Ec2MetadataCache metadata = new Ec2MetadataCache(ec2Client, METADATA_TTL);
+		metadata.warmUp(
+				Collections.singletonList(SECURITY_GROUP_NAME),
+				Collections.singletonList(KEY_PAIR_NAME),
+				Collections.singletonList(IMAGE_ID_UBUNTU)
+		);
+
+		listAllAvailabilityZones(metadata);
 
-		listAMIsFiltered(ec2Client);
+		listAMIsFiltered(metadata);
 
-		final String securityGroupId = ensureSecurityGroup(ec2Client);
+		final String securityGroupId = ensureSecurityGroup(ec2Client, metadata);
 		final List<IpPermission> permissions = Arrays.asList(
 				createIpPermission(22),
 				createIpPermission(80)
 		);
 		authorizeSecurityGroupIngressRequest(ec2Client, securityGroupId, permissions);
 
-		ensureKeyPair(ec2Client);
+		ensureKeyPair(ec2Client, metadata);
 
-		final Instance instance = launchInstance(ec2Client, securityGroupId);
+		if (FLEET_SIZE > 0) {
+			runFleet(ec2Client, securityGroupId);
+		} else if (WARM_POOL_SIZE > 0) {
+			runWarmPool(ec2Client, securityGroupId);
+		} else {
+			final Instance instance = launchInstance(ec2Client, securityGroupId);
 
-		waitSeconds(20);
+			printInstanceInfo(instance);
+			attachEbsVolume(ec2Client, instance);
 
-		printInstanceInfo(instance);
-		attachEbsVolume(ec2Client, instance);
-
-		waitSeconds(20);
+			stopInstance(ec2Client, instance);
+		}
 
-		stopInstance(ec2Client, instance);
+		AwsCallMetrics.shared().logSummary();
+	}
 
+	/**
+	 * Launch {@code FLEET_SIZE} instances, attach an EBS volume to each and terminate them again.
+	 * @param client Amazon EC2 client
+	 * @param securityGroupId Security group id
+	 */
+	private static void runFleet(@Nonnull final AmazonEC2 client, @Nonnull final String securityGroupId) {
+		try (final Ec2Fleet fleet = new Ec2Fleet(client, SECURITY_GROUP_NAME, FLEET_PARALLELISM)) {
+			final List<Instance> instances = fleet.launch(IMAGE_ID_UBUNTU, InstanceType.T2Nano, KEY_PAIR_NAME,
+					securityGroupId, FLEET_SIZE);
+
+			try {
+				instances.forEach(Assignment04EC2::printInstanceInfo);
+				fleet.attachEbsVolumes(instances, DEVICE_NAME, 8);
+			} finally {
+				fleet.terminate(instances);
+			}
+		}
 	}
 
 	/**
-	 * Wait for given period of seconds.
-	 * @param seconds Seconds to wait
+	 * Acquire an instance with attached EBS volume from a warm pool of {@code WARM_POOL_SIZE} instances and release
+	 * it again. The pool is filled in the background and kept for the next run.
+	 * @param client Amazon EC2 client
+	 * @param securityGroupId Security group id
 	 */
-	private static void waitSeconds(final long seconds) {
-		logger.log(Level.INFO, "Wait for {0} seconds", seconds);
+	private static void runWarmPool(@Nonnull final AmazonEC2 client, @Nonnull final String securityGroupId) {
+		try (final Ec2WarmPool pool = new Ec2WarmPool(client, WARM_POOL_NAME, WARM_POOL_SIZE, WARM_POOL_RUNNING,
+				IMAGE_ID_UBUNTU, InstanceType.T2Nano, KEY_PAIR_NAME, securityGroupId, DEVICE_NAME, 8, FLEET_PARALLELISM)) {
+			pool.start(WARM_POOL_REPLENISH_INTERVAL);
 
-		try {
-			Thread.sleep(seconds * 1000);
-		} catch (final Exception e) {
-			// ignore
+			final Instance instance = pool.acquire();
+
+			printInstanceInfo(instance);
+
+			pool.release(instance);
 		}
 	}
 
 	/**
-	 * Creates a default {@code AmazonEC2} client with {@code Regions.US_WEST_1} and
-	 * the standard credentials loaded from ~/.aws/credentials.
+	 * Creates an {@code AmazonEC2} client with {@code Regions.US_EAST_1} or {@code ENDPOINT}, the shared, tuned
+	 * client configuration of {@code AwsClientFactory} and the standard credentials loaded from ~/.aws/credentials.
 	 * @return Amazon EC2 client
 	 */
 	@Nonnull
 	private static AmazonEC2 createStandardEC2Client() {
-		return AmazonEC2ClientBuilder.standard()
-				.withRegion(Regions.US_EAST_1)
-				.build();
+		return AwsClientFactory.ec2(Regions.US_EAST_1, ENDPOINT);
 	}
 
 	/**
-	 * List all available zones for given EC2 {@code client}
-	 * @param client Amazon EC2 client
+	 * List all available zones of the client's region
+	 * @param metadata EC2 metadata cache
 	 */
-	private static void listAllAvailabilityZones(@Nonnull final AmazonEC2 client) {
-		final DescribeAvailabilityZonesResult result = client.describeAvailabilityZones();
-
-		for (final AvailabilityZone zone : result.getAvailabilityZones()) {
+	private static void listAllAvailabilityZones(@Nonnull final Ec2MetadataCache metadata) {
+		for (final AvailabilityZone zone : metadata.availabilityZones()) {
 			final String message = "Zone " +
 					zone.getZoneName() +
 					" with status " +
@@ -139,18 +179,15 @@ public class Assignment04EC2 {
 	}
 
 	/**
-	 * List all AMIs filterd by the windows platform.
-	 * @param client Amazon EC2 client
+	 * List the AMI with id {@code IMAGE_ID_UBUNTU}.
+	 * @param metadata EC2 metadata cache
 	 */
-	private static void listAMIsFiltered(@Nonnull final AmazonEC2 client) {
+	private static void listAMIsFiltered(@Nonnull final Ec2MetadataCache metadata) {
 		// Ubuntu Server 18.04 LTS (HVM), SSD Volume Type x64
-		final Filter amiFilter = new Filter("image-id", Collections.singletonList(IMAGE_ID_UBUNTU));
-		final DescribeImagesRequest request = new DescribeImagesRequest()
-				.withFilters(amiFilter);
-
-		final DescribeImagesResult result = client.describeImages(request);
+		final Optional<Image> result = metadata.findImage(IMAGE_ID_UBUNTU);
 
-		for (final Image image : result.getImages()) {
+		if (result.isPresent()) {
+			final Image image = result.get();
 			final String message = "Image " +
 					image.getName() +
 					" with id " +
@@ -165,16 +202,12 @@ public class Assignment04EC2 {
 	/**
 	 * Get or create a security group with name {@code SECURITY_GROUP}
 	 * @param client Amazon EC2 client
+	 * @param metadata EC2 metadata cache
 	 * @return Id of security group
 	 */
 	@Nonnull
-	private static String ensureSecurityGroup(@Nonnull final AmazonEC2 client) {
-		final DescribeSecurityGroupsResult result = client.describeSecurityGroups();
-
-		final Optional<SecurityGroup> group = result.getSecurityGroups()
-				.stream()
-				.filter(g -> SECURITY_GROUP_NAME.equals(g.getGroupName()))
-				.findFirst();
+	private static String ensureSecurityGroup(@Nonnull final AmazonEC2 client, @Nonnull final Ec2MetadataCache metadata) {
+		final Optional<SecurityGroup> group = metadata.findSecurityGroup(SECURITY_GROUP_NAME);
 
 		if (group.isPresent()) {
 			final String groupId = group.get().getGroupId();
@@ -187,6 +220,7 @@ public class Assignment04EC2 {
 				.withGroupName(SECURITY_GROUP_NAME)
 				.withDescription("Assignment 4 security group");
 		final CreateSecurityGroupResult createResult = client.createSecurityGroup(request);
+		metadata.invalidateSecurityGroup(SECURITY_GROUP_NAME);
 
 		logger.log(Level.INFO, "Created new security group with id {0}", createResult.getGroupId());
 
@@ -228,27 +262,24 @@ public class Assignment04EC2 {
 	/**
 	 * Get or create a new key-pair
 	 * @param client Amazon EC2 client
+	 * @param metadata EC2 metadata cache
 	 */
-	private static void ensureKeyPair(@Nonnull final AmazonEC2 client) {
-		final DescribeKeyPairsRequest request = new DescribeKeyPairsRequest()
-				.withKeyNames(KEY_PAIR_NAME);
+	private static void ensureKeyPair(@Nonnull final AmazonEC2 client, @Nonnull final Ec2MetadataCache metadata) {
+		final Optional<KeyPairInfo> keyPairInfo = metadata.findKeyPair(KEY_PAIR_NAME);
 
-		try {
-			final DescribeKeyPairsResult result = client.describeKeyPairs(request);
-			final KeyPairInfo keyPairInfo = result.getKeyPairs().iterator().next();
-
-			logger.log(Level.INFO, "Existing key-pair found {0}", keyPairInfo);
+		if (keyPairInfo.isPresent()) {
+			logger.log(Level.INFO, "Existing key-pair found {0}", keyPairInfo.get());
 
 			return;
-		} catch (final Exception e) {
-			// ignore
-			logger.log(Level.INFO, "Could not find existing key pair with name " + KEY_PAIR_NAME, e.fillInStackTrace());
 		}
 
+		logger.log(Level.INFO, "Could not find existing key pair with name {0}", KEY_PAIR_NAME);
+
 		final CreateKeyPairRequest createRequest = new CreateKeyPairRequest()
 				.withKeyName(KEY_PAIR_NAME);
 		final CreateKeyPairResult createResult = client.createKeyPair(createRequest);
 		final KeyPair keyPair =  createResult.getKeyPair();
+		metadata.invalidateKeyPair(KEY_PAIR_NAME);
 		logger.log(Level.INFO, "Created a new key-pair {0}", keyPair);
 
 		writeKeyPairToFileSystem(keyPair);
@@ -283,10 +314,10 @@ public class Assignment04EC2 {
 	}
 
 	/**
-	 * Launch an Ubuntu 18.04 x64 t2 nano instance
+	 * Launch an Ubuntu 18.04 x64 t2 nano instance and wait until it is running
 	 * @param client Amazon EC2 client
 	 * @param securityGroupId Security group id
-	 * @return Launched instance
+	 * @return Running instance
 	 */
 	private static Instance launchInstance(@Nonnull final AmazonEC2 client, @Nonnull final String securityGroupId) {
 		final RunInstancesRequest request = new RunInstancesRequest()
@@ -303,7 +334,7 @@ public class Assignment04EC2 {
 
 		logger.log(Level.INFO, "Started instance {0}", instance);
 
-		return instance;
+		return Ec2StateWaiter.awaitRunning(client, Collections.singletonList(instance.getInstanceId())).get(0);
 	}
 
 	/**
@@ -322,7 +353,7 @@ public class Assignment04EC2 {
 	}
 
 	/**
-	 * Stop given {@code instance}.
+	 * Stop given {@code instance} and wait until it is terminated.
 	 * @param client Amazon EC2 client
 	 * @param instance Running instance
 	 */
@@ -331,12 +362,13 @@ public class Assignment04EC2 {
 				.withInstanceIds(instance.getInstanceId());
 
 		client.terminateInstances(request);
+		Ec2StateWaiter.awaitTerminated(client, Collections.singletonList(instance.getInstanceId()));
 
 		logger.log(Level.INFO, "Terminated instance {0}", instance);
 	}
 
 	/**
-	 * Attach a new EBS volume standard with 8GiB to given {@code instance}.
+	 * Attach a new EBS volume standard with 8GiB to given {@code instance} and wait until it is in use.
 	 * @param client Amazon EC2 client
 	 * @param instance Running instance
 	 */
@@ -350,7 +382,8 @@ public class Assignment04EC2 {
 
 		logger.log(Level.INFO, "Volume created {0}", createVolumeRequest);
 
-		waitSeconds(20);
+		final List<String> volumeIds = Collections.singletonList(createVolumeResult.getVolume().getVolumeId());
+		Ec2StateWaiter.awaitVolumesAvailable(client, volumeIds);
 
 		final AttachVolumeRequest attachVolumeRequest = new AttachVolumeRequest()
 				.withInstanceId(instance.getInstanceId())
@@ -358,6 +391,7 @@ public class Assignment04EC2 {
 				.withDevice(DEVICE_NAME);
 
 		final AttachVolumeResult result = client.attachVolume(attachVolumeRequest);
+		Ec2StateWaiter.awaitVolumesInUse(client, volumeIds);
 
 		logger.log(Level.INFO, "Attached volume {0} to running instance", result.getAttachment());
 	}
@@ -1,102 +1,245 @@
 package seminar;
 
-import java.io.FileReader;
-import java.io.Reader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.ItemCollection;
-import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.document.TableCollection;
-import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
 import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
-import com.google.common.collect.ImmutableMap;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+import com.google.common.collect.Iterators;
 
 public class Assignment05DynamoDB {
 
 	private static final Logger logger = Logger.getLogger(Assignment05DynamoDB.class.getName());
 
 	private static final Regions REGION = Regions.US_EAST_1;
-	private static final String TABLE_NAME = "Movies";
+	private static final String TABLE_NAME = System.getProperty("movies.table", "Movies");
+
+	// Endpoint override, i.e. http://localhost:8000 for DynamoDB Local.
+	private static final String ENDPOINT = System.getProperty("dynamodb.endpoint");
+	// Use the async client and pipeline puts with at most MAX_IN_FLIGHT concurrent requests.
+	private static final boolean ASYNC = Boolean.getBoolean("dynamodb.async");
+	private static final int MAX_IN_FLIGHT = Integer.getInteger("dynamodb.maxInFlight", 32);
 
 	private static final String MOVIES_FILE_NAME = "moviedata.json";
 	private static final int MOVIES_LIMIT = 100;
+	// Log every n-th inserted movie, 0 to not log inserted movies at all.
+	private static final int LOG_EVERY_NTH_ITEM = Integer.getInteger("movies.logEveryNthItem", 0);
 
-	public static void main(final String[] args) {
-		final DynamoDB dbClient = createDynamoDbClient();
+	// Bulk-load the complete movies file instead of putting MOVIES_LIMIT items one by one.
+	private static final boolean BULK_LOAD = Boolean.getBoolean("movies.bulkLoad");
+	private static final int BULK_LOAD_WORKERS = Integer.getInteger("movies.bulkLoadWorkers", 8);
 
-		listTables(dbClient);
+	// Insert MOVIES_LIMIT movies through a write-behind buffer that coalesces repeated writes of the same movie.
+	private static final boolean WRITE_BEHIND = Boolean.getBoolean("movies.writeBehind");
+	private static final Duration WRITE_BEHIND_INTERVAL = Duration.ofMillis(Long.getLong("movies.writeBehindIntervalMillis", 100L));
 
-		final Table moviesTable = createMoviesTable(dbClient);
-		printTableInfo(moviesTable);
+	// Export year, title and rating of all movies with a parallel scan of this many segments, 0 to skip.
+	private static final int EXPORT_SEGMENTS = Integer.getInteger("movies.exportSegments", 0);
 
-		listTables(dbClient);
+	// Load the complete movies file resumably: checkpoint progress and skip movies unchanged since the last load.
+	// The table is kept at the end, so the next run only writes what changed.
+	private static final boolean RESUMABLE = Boolean.getBoolean("movies.resumable");
+	private static final Path CHECKPOINT_FILE = Paths.get(System.getProperty("movies.checkpointFile", "movies.checkpoint"));
+	private static final Path HASH_FILE = Paths.get(System.getProperty("movies.hashFile", "movies.hashes"));
+	private static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(Long.getLong("movies.checkpointIntervalSeconds", 5L));
 
-		final JSONArray movies = loadMoviesSampleData();
+	// Ingest all JSON or newline-delimited JSON shards below this directory instead of the sample data.
+	private static final String SHARD_DIRECTORY = System.getProperty("movies.shardDirectory");
+	private static final String SHARD_GLOB = System.getProperty("movies.shardGlob", "**.{json,ndjson}");
+	// Tables of the shards as comma-separated glob=table pairs, i.e. 2013/**=Movies2013,**=Movies. The first match wins.
+	private static final String TABLE_MAPPING = System.getProperty("movies.tableMapping", "**=" + TABLE_NAME);
+	private static final int SHARD_READERS = Integer.getInteger("movies.shardReaders", 4);
+	// Memory-map shards of at least this size and parse them in parallel chunks of this size.
+	private static final long MAPPED_SHARD_BYTES = Long.getLong("movies.mappedShardBytes", 64L * 1024 * 1024);
 
-		if (movies == null) {
-			logger.log(Level.INFO, "Skip inserting sample data");
-		} else {
-			insertMoviesDataInTable(moviesTable, movies);
-			printTableInfo(moviesTable);
+	// Load all movies into an in-process columnar snapshot with a parallel scan and log rating statistics from it.
+	private static final boolean SNAPSHOT = Boolean.getBoolean("movies.snapshot");
 
-			deleteMovieFromTable(moviesTable);
-			printTableInfo(moviesTable);
+	// Store the info fields that no query reads as one compressed binary attribute, see MovieInfoCodec.
+	private static final boolean COMPRESS_INFO = Boolean.getBoolean("movies.compressInfo");
 
-			queryMoviesTable(moviesTable);
-		}
+	// Bulk-delete the movies of a year range such as 1920-1929 after the single delete, unset to keep them.
+	private static final String PURGE_YEARS = System.getProperty("movies.purgeYears");
+
+	private static final long CACHE_SIZE = Long.getLong("movies.cacheSize", 10_000L);
+	private static final Duration CACHE_TTL = Duration.ofSeconds(Long.getLong("movies.cacheTtlSeconds", 60L));
 
-		logger.log(Level.INFO, "Press ENTER to delete the table");
-		new Scanner(System.in).nextLine();
+	public static void main(final String[] args) {
+		final AmazonDynamoDB amazonDynamoDB = createDynamoDbClient();
+		// Bulk operations are paced by rate limiters, which have to see every throttle instead of the SDK retrying it.
+		final AmazonDynamoDB pacedClient = AwsClientFactory.dynamoDbPaced(REGION, ENDPOINT);
+		final BoundedAsyncDynamoDB asyncClient = amazonDynamoDB instanceof AmazonDynamoDBAsync
+				? new BoundedAsyncDynamoDB((AmazonDynamoDBAsync) amazonDynamoDB, MAX_IN_FLIGHT)
+				: null;
+
+		try {
+			final DynamoDB dbClient = new DynamoDB(amazonDynamoDB);
+
+			listTables(dbClient);
 
-		deleteTable(moviesTable);
+			if (SHARD_DIRECTORY != null) {
+				ingestShards(amazonDynamoDB, pacedClient, dbClient);
+				return;
+			}
+
+			final Table moviesTable = createMoviesTable(amazonDynamoDB, dbClient, TABLE_NAME);
+			printTableInfo(moviesTable);
+
+			listTables(dbClient);
+
+			final MovieLookup lookup = new MovieLookup(moviesTable, CACHE_SIZE, CACHE_TTL);
+			final MovieJsonReader movies = openMoviesSampleData();
+
+			if (movies == null) {
+				logger.log(Level.INFO, "Skip inserting sample data");
+			} else {
+				try (final MovieJsonReader reader = movies) {
+					final Iterator<Map<String, AttributeValue>> denormalized = Iterators.transform(reader, Assignment05DynamoDB::toStoredItem);
+
+					if (RESUMABLE) {
+						resumableInsertMoviesDataInTable(pacedClient, moviesTable, denormalized);
+					} else if (BULK_LOAD) {
+						bulkInsertMoviesDataInTable(pacedClient, moviesTable, denormalized);
+					} else if (WRITE_BEHIND) {
+						writeBehindInsertMoviesDataInTable(pacedClient, moviesTable, denormalized);
+					} else if (asyncClient != null) {
+						asyncInsertMoviesDataInTable(asyncClient, moviesTable, denormalized);
+					} else {
+						insertMoviesDataInTable(lookup, denormalized);
+					}
+				} catch (final Exception e) {
+					logger.log(Level.SEVERE, "Could not insert sample data", e);
+				} finally {
+					lookup.invalidateAll();
+				}
+				printTableInfo(moviesTable);
+
+				// The content hashes of an incremental load would still list deleted movies, so they were never restored.
+				if (RESUMABLE) {
+					logger.log(Level.INFO, "Skip deleting movies from table {0} kept for the next incremental load", TABLE_NAME);
+				} else {
+					deleteMovieFromTable(lookup, asyncClient);
+
+					if (PURGE_YEARS != null) {
+						purgeMoviesFromTable(pacedClient, moviesTable);
+						lookup.invalidateAll();
+					}
+				}
+
+				printTableInfo(moviesTable);
+
+				final MovieQueryPlanner planner = new MovieQueryPlanner(amazonDynamoDB, TABLE_NAME);
+
+				if (asyncClient != null) {
+					queryMoviesTable(planner, asyncClient);
+				} else {
+					queryMoviesTable(lookup);
+					lookup.logStats();
+				}
+
+				queryMoviesByIndex(planner, asyncClient);
+				queryTopRatedMovies(pacedClient, moviesTable);
+				AwsCallMetrics.shared().logSummary();
+
+				if (EXPORT_SEGMENTS > 0) {
+					exportMoviesTable(pacedClient, moviesTable);
+				}
+
+				if (SNAPSHOT) {
+					analyzeMoviesSnapshot(pacedClient, moviesTable);
+				}
+			}
+
+			if (RESUMABLE) {
+				logger.log(Level.INFO, "Keep table {0} for the next incremental load", TABLE_NAME);
+				return;
+			}
+
+			logger.log(Level.INFO, "Press ENTER to delete the table");
+			new Scanner(System.in).nextLine();
+
+			deleteTable(moviesTable);
+		} finally {
+			AwsClientFactory.shutdown(amazonDynamoDB);
+			AwsClientFactory.shutdown(pacedClient);
+		}
 	}
 
+	/**
+	 * Creates a blocking or, if {@code ASYNC} is set, an async DynamoDB client for {@code REGION} or {@code ENDPOINT}
+	 * with the shared, tuned client configuration of {@code AwsClientFactory}.
+	 * @return Amazon DynamoDB client
+	 */
 	@Nonnull
-	private static DynamoDB createDynamoDbClient() {
-		final AmazonDynamoDB amazonDynamoDB = AmazonDynamoDBClientBuilder.standard()
-				.withRegion(REGION)
-				.build();
+	private static AmazonDynamoDB createDynamoDbClient() {
+		if (ASYNC) {
+			return AwsClientFactory.dynamoDbAsync(REGION, ENDPOINT, MAX_IN_FLIGHT);
+		}
 
-		return new DynamoDB(amazonDynamoDB);
+		return AwsClientFactory.dynamoDb(REGION, ENDPOINT);
 	}
 
 	/**
-	 * Creates a Movies table with title and year attributes.
+	 * Creates a movies table with title and year attributes and the secondary indexes of {@code MovieIndexes},
+	 * unless it already exists.
+	 * @param client Amazon DynamoDB client
 	 * @param dynamoDB DynamoDB client
+	 * @param tableName Name of the table
 	 * @return Movies table
 	 */
-	private static Table createMoviesTable(@Nonnull final DynamoDB dynamoDB) {
-		logger.log(Level.INFO, "Create movies table");
-
+	private static Table createMoviesTable(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final DynamoDB dynamoDB,
+			@Nonnull final String tableName
+	) {
+		logger.log(Level.INFO, "Create movies table {0}", tableName);
+
+		final ProvisionedThroughput throughput = new ProvisionedThroughput()
+				.withReadCapacityUnits(10L)
+				.withWriteCapacityUnits(10L);
 		final CreateTableRequest request = new CreateTableRequest()
-				.withTableName(TABLE_NAME)
+				.withTableName(tableName)
 				.withAttributeDefinitions(
 						new AttributeDefinition("year", ScalarAttributeType.N),
 						new AttributeDefinition("title", ScalarAttributeType.S)
@@ -105,23 +248,22 @@ public class Assignment05DynamoDB {
 						new KeySchemaElement("year", KeyType.HASH),
 						new KeySchemaElement("title", KeyType.RANGE)
 				)
-				.withProvisionedThroughput(
-						new ProvisionedThroughput()
-								.withReadCapacityUnits(10L)
-								.withWriteCapacityUnits(10L)
-				);
+				.withProvisionedThroughput(throughput);
 
-		final Table table = dynamoDB.createTable(request);
-		final TableDescription description = table.getDescription();
+		final boolean created = TableUtils.createTableIfNotExists(client, MovieIndexes.addTo(request, throughput));
+		final Table table = dynamoDB.getTable(tableName);
+		TableDescription description = null;
 
 		try {
-			table.waitForActive();
+			description = table.waitForActive();
 		} catch (final Exception e) {
 			logger.log(Level.WARNING, "Error waiting for table to be active", e.fillInStackTrace());
 		}
 
-		logger.log(Level.INFO, "Table {0} with id {1} created",
-				new Object[] {description.getTableName(), description.getTableId()});
+		if (description != null) {
+			logger.log(Level.INFO, "Table {0} with id {1} {2}",
+					new Object[] {description.getTableName(), description.getTableId(), created ? "created" : "already exists"});
+		}
 
 		return table;
 	}
@@ -156,83 +298,370 @@ public class Assignment05DynamoDB {
 	}
 
 	/**
-	 * Loads Movies sample data
-	 * @return Sample movies
+	 * Opens a streaming reader for the Movies sample data
+	 * @return Sample movies reader
 	 */
 	@CheckForNull
-	private static JSONArray loadMoviesSampleData() {
-		final URL moviesUrl = Assignment05DynamoDB.class.getClassLoader().getResource(MOVIES_FILE_NAME);
+	private static MovieJsonReader openMoviesSampleData() {
+		try {
+			return MovieJsonReader.fromClasspath(MOVIES_FILE_NAME);
+		} catch (final Exception e) {
+			logger.log(Level.SEVERE, "Could not read JSON from resource " + MOVIES_FILE_NAME, e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Convert a parsed movie to the stored item: denormalize the indexed attributes and, if {@code COMPRESS_INFO}
+	 * is set, compress the remaining info fields.
+	 * @param movie Parsed movie, modified in place
+	 * @return Stored item
+	 */
+	@Nonnull
+	private static Map<String, AttributeValue> toStoredItem(@Nonnull final Map<String, AttributeValue> movie) {
+		final Map<String, AttributeValue> item = MovieIndexes.denormalize(movie);
+
+		return COMPRESS_INFO ? MovieInfoCodec.encode(item) : item;
+	}
+
+	/**
+	 * Insert given {@code movies} data limited by {@code MOVIES_LIMIT} through given {@code lookup}.
+	 * @param lookup Movie lookup of a table
+	 * @param movies Movie items
+	 */
+	private static void insertMoviesDataInTable(
+			@Nonnull final MovieLookup lookup,
+			@Nonnull final Iterator<Map<String, AttributeValue>> movies
+	) {
+		final Iterator<Map<String, AttributeValue>> limited = Iterators.limit(movies, MOVIES_LIMIT);
+
+		for (int i = 0; limited.hasNext(); i++) {
+			final Item item = ItemUtils.toItem(limited.next());
+
+			lookup.putMovie(item);
+
+			if (isSampled(i)) {
+				logger.log(Level.INFO, "Put item {0} to table", item);
+			}
+		}
+	}
 
-		if (moviesUrl == null) {
-			return null;
+	/**
+	 * Insert given {@code movies} data limited by {@code MOVIES_LIMIT} to given {@code table} with pipelined async
+	 * puts, at most {@code MAX_IN_FLIGHT} at a time.
+	 * @param client Bounded async DynamoDB client
+	 * @param table A table
+	 * @param movies Movie items
+	 */
+	private static void asyncInsertMoviesDataInTable(
+			@Nonnull final BoundedAsyncDynamoDB client,
+			@Nonnull final Table table,
+			@Nonnull final Iterator<Map<String, AttributeValue>> movies
+	) {
+		final Iterator<Map<String, AttributeValue>> limited = Iterators.limit(movies, MOVIES_LIMIT);
+
+		for (int i = 0; limited.hasNext(); i++) {
+			final Map<String, AttributeValue> item = limited.next();
+			final PutItemRequest request = new PutItemRequest(table.getTableName(), item);
+			final boolean sampled = isSampled(i);
+
+			client.putItem(request).whenComplete((result, error) -> {
+				if (error == null) {
+					if (sampled) {
+						logger.log(Level.INFO, "Put item {0} to table", item);
+					}
+				} else {
+					logger.log(Level.SEVERE, "Could not put item " + item, error);
+				}
+			});
 		}
 
-		final String moviesPath = moviesUrl.getPath();
-		final JSONParser parser = new JSONParser();
+		client.awaitQuiescence();
+	}
 
-		try (final Reader reader = new FileReader(moviesPath)) {
-			return (JSONArray) parser.parse(reader);
-		} catch (final Exception e) {
-			logger.log(Level.SEVERE, "Could not parse JSON from file {0}", moviesPath);
+	/**
+	 * @param index Index of an inserted movie
+	 * @return Whether the movie is logged according to {@code LOG_EVERY_NTH_ITEM}
+	 */
+	private static boolean isSampled(final int index) {
+		return LOG_EVERY_NTH_ITEM > 0 && index % LOG_EVERY_NTH_ITEM == 0;
+	}
+
+	/**
+	 * Insert all given {@code movies} to given {@code table} with batched writes, resuming after the checkpoint of
+	 * an interrupted load and skipping movies that did not change since the last load.
+	 * @param client Amazon DynamoDB client
+	 * @param table A table
+	 * @param movies Movie items
+	 * @throws IOException If the checkpoint or the content hashes cannot be read or written
+	 */
+	private static void resumableInsertMoviesDataInTable(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final Table table,
+			@Nonnull final Iterator<Map<String, AttributeValue>> movies
+	) throws IOException {
+		final ResumableMovieLoader loader = new ResumableMovieLoader(client, table.getTableName(), BULK_LOAD_WORKERS,
+				AdaptiveRateLimiter.forWriteCapacity(table.describe()),
+				new IngestionCheckpoint(CHECKPOINT_FILE), new ContentHashStore(HASH_FILE), CHECKPOINT_INTERVAL);
+
+		loader.load(moviesSourceIdentity(), movies);
+	}
+
+	/**
+	 * @return Name, size and modification time of the movies file, changes whenever the file is replaced
+	 * @throws IOException If the movies file cannot be accessed
+	 */
+	@Nonnull
+	private static String moviesSourceIdentity() throws IOException {
+		final URL resource = Assignment05DynamoDB.class.getClassLoader().getResource(MOVIES_FILE_NAME);
+
+		if (resource == null) {
+			throw new FileNotFoundException("Classpath resource " + MOVIES_FILE_NAME + " not found");
 		}
 
-		return null;
+		final URLConnection connection = resource.openConnection();
+
+		return MOVIES_FILE_NAME + ":" + connection.getContentLengthLong() + ":" + connection.getLastModified();
 	}
 
 	/**
-	 * Insert given {@code movies} data limited by {@code MOVIES_LIMIT} to given {@code table}.
+	 * Insert all given {@code movies} to given {@code table} using batched writes from {@code BULK_LOAD_WORKERS}
+	 * parallel workers. Movies are consumed while they are read and written at the table's provisioned write
+	 * capacity.
+	 * @param client Amazon DynamoDB client
 	 * @param table A table
-	 * @param jsonMovies Movies json data
+	 * @param movies Movie items
 	 */
-	private static void insertMoviesDataInTable(@Nonnull final Table table, @Nonnull final JSONArray jsonMovies) {
-		final List<JSONObject> movies = Stream.of(jsonMovies.toArray())
-				.limit(MOVIES_LIMIT)
-				.filter(movie -> movie instanceof JSONObject)
-				.map(movie -> (JSONObject) movie)
-				.collect(Collectors.toList());
+	private static void bulkInsertMoviesDataInTable(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final Table table,
+			@Nonnull final Iterator<Map<String, AttributeValue>> movies
+	) {
+		logger.log(Level.INFO, "Bulk load movies with {0} workers", BULK_LOAD_WORKERS);
+
+		final AdaptiveRateLimiter rateLimiter = AdaptiveRateLimiter.forWriteCapacity(table.describe());
+
+		try (final BatchWriter writer = new BatchWriter(client, table.getTableName(), BULK_LOAD_WORKERS, rateLimiter)) {
+			while (movies.hasNext()) {
+				writer.putItem(movies.next());
+			}
+		}
+	}
 
-		for (final JSONObject movie : movies) {
-			final String title = (String) movie.get("title");
-			final long year = (long) movie.get("year");
-			final String info = movie.get("info").toString();
+	/**
+	 * Ingest the shards in {@code SHARD_DIRECTORY} concurrently into the tables of {@code TABLE_MAPPING}, creating
+	 * missing tables first. The tables are kept.
+	 * @param client Amazon DynamoDB client
+	 * @param pacedClient Amazon DynamoDB client without retries of throttling errors, used by the rate-limited writers
+	 * @param dynamoDB DynamoDB client
+	 */
+	private static void ingestShards(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final AmazonDynamoDB pacedClient,
+			@Nonnull final DynamoDB dynamoDB
+	) {
+		final Map<String, String> tableMapping = new LinkedHashMap<>();
+
+		for (final String pair : TABLE_MAPPING.split(",")) {
+			final int separator = pair.lastIndexOf('=');
+
+			if (separator <= 0) {
+				throw new IllegalArgumentException("Invalid table mapping " + pair + ", expected glob=table");
+			}
+
+			tableMapping.put(pair.substring(0, separator).trim(), pair.substring(separator + 1).trim());
+		}
+
+		new LinkedHashSet<>(tableMapping.values()).forEach(tableName -> createMoviesTable(client, dynamoDB, tableName));
+
+		final ShardedIngestionDriver driver = new ShardedIngestionDriver(pacedClient, tableMapping, SHARD_READERS,
+				BULK_LOAD_WORKERS, MAPPED_SHARD_BYTES, Assignment05DynamoDB::toStoredItem);
 
-			final Item item = new Item()
-					.withPrimaryKey("year", year, "title", title)
-					.withJSON("info", info);
+		try {
+			driver.ingest(Paths.get(SHARD_DIRECTORY), SHARD_GLOB);
+		} catch (final IOException e) {
+			logger.log(Level.SEVERE, "Could not ingest shards from " + SHARD_DIRECTORY, e);
+		}
+
+		AwsCallMetrics.shared().logSummary();
+	}
 
-			table.putItem(item);
-			logger.log(Level.INFO, "Put item {0} to table", item);
+	/**
+	 * Insert given {@code movies} data limited by {@code MOVIES_LIMIT} to given {@code table} through a write-behind
+	 * buffer that is flushed every {@code WRITE_BEHIND_INTERVAL} or whenever a batch is full.
+	 * @param client Amazon DynamoDB client
+	 * @param table A table
+	 * @param movies Movie items
+	 */
+	private static void writeBehindInsertMoviesDataInTable(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final Table table,
+			@Nonnull final Iterator<Map<String, AttributeValue>> movies
+	) {
+		try (final WriteBehindMovieWriter writer = new WriteBehindMovieWriter(client, table.getTableName(),
+				MOVIES_LIMIT, WRITE_BEHIND_INTERVAL, BULK_LOAD_WORKERS, AdaptiveRateLimiter.forWriteCapacity(table.describe()))) {
+			Iterators.limit(movies, MOVIES_LIMIT).forEachRemaining(writer::putItem);
 		}
 	}
 
 	/**
-	 * Delete a movie from given {@code table}.
-	 * @param table A Table
+	 * Delete a movie through given {@code lookup} or, if set, with {@code asyncClient} and invalidate it in the lookup.
+	 * @param lookup Movie lookup of a table
+	 * @param asyncClient Async client of the table or {@code null} for the blocking path
 	 */
-	private static void deleteMovieFromTable(@Nonnull final Table table) {
-		table.deleteItem("year", 2013L, "title", "12 Years a Slave");
+	private static void deleteMovieFromTable(@Nonnull final MovieLookup lookup, @CheckForNull final BoundedAsyncDynamoDB asyncClient) {
+		final long year = 2013L;
+		final String title = "12 Years a Slave";
+
+		if (asyncClient == null) {
+			lookup.deleteMovie(year, title);
+		} else {
+			final Map<String, AttributeValue> key = new HashMap<>();
+			key.put(MovieIndexes.YEAR, new AttributeValue().withN(Long.toString(year)));
+			key.put(MovieIndexes.TITLE, new AttributeValue(title));
+
+			asyncClient.deleteItem(new DeleteItemRequest(TABLE_NAME, key)).join();
+			lookup.invalidate(year, title);
+		}
+
 		logger.log(Level.INFO, "Deleted item from table");
 	}
 
 	/**
-	 * Query given {@code table}
+	 * Delete all movies of the year range {@code PURGE_YEARS} with batched deletes, keeping the table.
+	 * @param client Amazon DynamoDB client
 	 * @param table A table
 	 */
-	private static void queryMoviesTable(@Nonnull final Table table) {
-		logger.log(Level.INFO, "Query movies table for movies in year 2013");
+	private static void purgeMoviesFromTable(@Nonnull final AmazonDynamoDB client, @Nonnull final Table table) {
+		final String[] years = PURGE_YEARS.split("-", 2);
+		final long fromYear = Long.parseLong(years[0].trim());
+		final long toYear = years.length > 1 ? Long.parseLong(years[1].trim()) : fromYear;
+		final TableDescription description = table.describe();
+		final BulkMovieDeleter deleter = new BulkMovieDeleter(client, table.getTableName(), BULK_LOAD_WORKERS,
+				AdaptiveRateLimiter.forWriteCapacity(description), AdaptiveRateLimiter.forReadCapacity(description));
+
+		deleter.deleteYears(fromYear, toYear);
+	}
 
-		final QuerySpec querySpec = new QuerySpec()
-				.withKeyConditionExpression("#yr = :yyyy")
-				.withNameMap(ImmutableMap.of("#yr", "year"))
-				.withValueMap(ImmutableMap.of(":yyyy", 2013L));
-		final ItemCollection<QueryOutcome> items = table.query(querySpec);
+	/**
+	 * Query movies through given {@code lookup}
+	 * @param lookup Movie lookup of a table
+	 */
+	private static void queryMoviesTable(@Nonnull final MovieLookup lookup) {
+		logger.log(Level.INFO, "Query movies table for movies in year 2013");
 
-		for (final Item item : items) {
+		for (final Item item : lookup.moviesByYear(2013L)) {
 			logger.log(Level.INFO, "Item: {0}", item);
 		}
 	}
 
 
+	/**
+	 * Query the movies of 2013 with given {@code asyncClient}, bypassing the cache of the blocking path.
+	 * @param planner Query planner of the movies table
+	 * @param asyncClient Async client of the movies table
+	 */
+	private static void queryMoviesTable(@Nonnull final MovieQueryPlanner planner, @Nonnull final BoundedAsyncDynamoDB asyncClient) {
+		logger.log(Level.INFO, "Query movies table for movies in year 2013");
+
+		for (final Map<String, AttributeValue> item : planner.findAsync(asyncClient, new MovieQuery().withYear(2013L), Integer.MAX_VALUE).join()) {
+			logger.log(Level.INFO, "Item: {0}", ItemUtils.toItem(item));
+		}
+	}
+
+	/**
+	 * Query movies by non-key attributes through given {@code planner}. With an async client all queries are sent
+	 * at once and their results logged in order.
+	 * @param planner Query planner of the movies table
+	 * @param asyncClient Async client of the movies table or {@code null} to query one after the other
+	 */
+	private static void queryMoviesByIndex(@Nonnull final MovieQueryPlanner planner, @CheckForNull final BoundedAsyncDynamoDB asyncClient) {
+		final List<MovieQuery> queries = Arrays.asList(
+				new MovieQuery().withYear(2013L).withMinRating(new BigDecimal("7.5")),
+				new MovieQuery().withGenre("Drama").withMinRating(new BigDecimal("8")),
+				new MovieQuery().withDirector("Ron Howard"),
+				new MovieQuery().withActor("Daniel Bruhl")
+		);
+
+		final List<CompletableFuture<List<Map<String, AttributeValue>>>> results = new ArrayList<>(queries.size());
+
+		for (final MovieQuery query : queries) {
+			results.add(asyncClient != null
+					? planner.findAsync(asyncClient, query, MOVIES_LIMIT)
+					: CompletableFuture.completedFuture(planner.find(query, MOVIES_LIMIT)));
+		}
+
+		for (int i = 0; i < queries.size(); i++) {
+			final MovieQuery query = queries.get(i);
+			final List<Map<String, AttributeValue>> movies = results.get(i).join();
+			logger.log(Level.INFO, "{0}: {1} movies", new Object[]{planner.plan(query), movies.size()});
+
+			// The plot of compressed items is only decoded if it is actually logged.
+			if (!movies.isEmpty() && logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Plot of {0}: {1}", new Object[]{
+						movies.get(0).get(MovieIndexes.TITLE).getS(),
+						MovieInfoCodec.lazyInfo(movies.get(0)).get().get("plot")
+				});
+			}
+		}
+	}
+
+	/**
+	 * Query the best rated movies of a range of years with one concurrent query per year.
+	 * @param client Amazon DynamoDB client
+	 * @param table A table
+	 */
+	private static void queryTopRatedMovies(@Nonnull final AmazonDynamoDB client, @Nonnull final Table table) {
+		final MovieRangeQueryExecutor executor = new MovieRangeQueryExecutor(client, table.getTableName(),
+				BULK_LOAD_WORKERS, AdaptiveRateLimiter.forReadCapacity(table.describe()));
+
+		for (final Map<String, AttributeValue> item : executor.topRated(1990L, 2010L, 10)) {
+			logger.log(Level.INFO, "{0} ({1}): {2}", new Object[]{
+					item.get(MovieIndexes.TITLE).getS(),
+					item.get(MovieIndexes.YEAR).getN(),
+					item.get(MovieIndexes.RATING).getN()
+			});
+		}
+	}
+
+	/**
+	 * Export year, title and rating of all movies in given {@code table} with a parallel scan.
+	 * @param client Amazon DynamoDB client
+	 * @param table A table
+	 */
+	private static void exportMoviesTable(@Nonnull final AmazonDynamoDB client, @Nonnull final Table table) {
+		final ParallelScanExporter exporter = new ParallelScanExporter(client, table.getTableName(), EXPORT_SEGMENTS,
+				AdaptiveRateLimiter.forReadCapacity(table.describe()));
+
+		exporter.export(Arrays.asList("year", "title", "info.rating"),
+				item -> logger.log(Level.FINE, "Exported item: {0}", item));
+	}
+
+	/**
+	 * Build a columnar snapshot of all movies in given {@code table} and log rating statistics by genre.
+	 * @param client Amazon DynamoDB client
+	 * @param table A table
+	 */
+	private static void analyzeMoviesSnapshot(@Nonnull final AmazonDynamoDB client, @Nonnull final Table table) {
+		final MovieSnapshot snapshot = new MovieSnapshot();
+		final ParallelScanExporter exporter = new ParallelScanExporter(client, table.getTableName(), BULK_LOAD_WORKERS,
+				AdaptiveRateLimiter.forReadCapacity(table.describe()));
+
+		exporter.export(null, snapshot::upsert);
+
+		final long startNanos = System.nanoTime();
+		final Map<String, DoubleSummaryStatistics> byGenre = snapshot.ratingByGenre(new MovieQuery());
+
+		logger.log(Level.INFO, "Snapshot of {0} movies, rating by genre in {1} us", new Object[]{
+				snapshot.size(),
+				(System.nanoTime() - startNanos) / 1_000
+		});
+
+		byGenre.forEach((genre, statistics) -> logger.log(Level.INFO, "{0}: {1} movies, average rating {2}",
+				new Object[]{genre, statistics.getCount(), String.format("%.2f", statistics.getAverage())}));
+	}
+
 	/**
 	 * Delete the given {@code table}
 	 * @param table A table
@@ -0,0 +1,376 @@
+package seminar;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+
+/**
+ * Records latency, error, throttle and retry counts and consumed DynamoDB capacity per operation of every call made
+ * by a client this handler is registered with. Latency covers all attempts of a call including the retry backoff.
+ * DynamoDB requests that do not ask for consumed capacity are changed to return the total.
+ * <p>
+ * The {@code shared()} instance is registered with JMX and, unless {@code aws.metricsReportSeconds} is 0, logs a
+ * summary periodically (default every 60 seconds).
+ */
+public class AwsCallMetrics extends RequestHandler2 implements AwsCallMetricsMXBean {
+
+	private static final Logger logger = Logger.getLogger(AwsCallMetrics.class.getName());
+
+	private static final String OBJECT_NAME = "seminar:type=AwsCallMetrics";
+	private static final long REPORT_SECONDS = Long.getLong("aws.metricsReportSeconds", 60L);
+
+	private static final HandlerContextKey<Long> START_NANOS = new HandlerContextKey<>("seminar.StartNanos");
+	private static final HandlerContextKey<Integer> ATTEMPTS = new HandlerContextKey<>("seminar.Attempts");
+
+	private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+	/**
+	 * @return Metrics shared by all clients of {@code AwsClientFactory}, registered with JMX
+	 */
+	@Nonnull
+	public static AwsCallMetrics shared() {
+		return Shared.INSTANCE;
+	}
+
+	@Override
+	public AmazonWebServiceRequest beforeExecution(final AmazonWebServiceRequest request) {
+		if (request instanceof PutItemRequest && ((PutItemRequest) request).getReturnConsumedCapacity() == null) {
+			((PutItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof GetItemRequest && ((GetItemRequest) request).getReturnConsumedCapacity() == null) {
+			((GetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof DeleteItemRequest && ((DeleteItemRequest) request).getReturnConsumedCapacity() == null) {
+			((DeleteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof UpdateItemRequest && ((UpdateItemRequest) request).getReturnConsumedCapacity() == null) {
+			((UpdateItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof QueryRequest && ((QueryRequest) request).getReturnConsumedCapacity() == null) {
+			((QueryRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof ScanRequest && ((ScanRequest) request).getReturnConsumedCapacity() == null) {
+			((ScanRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof BatchWriteItemRequest && ((BatchWriteItemRequest) request).getReturnConsumedCapacity() == null) {
+			((BatchWriteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		} else if (request instanceof BatchGetItemRequest && ((BatchGetItemRequest) request).getReturnConsumedCapacity() == null) {
+			((BatchGetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+		}
+
+		return request;
+	}
+
+	@Override
+	public void beforeRequest(final Request<?> request) {
+		request.addHandlerContext(START_NANOS, System.nanoTime());
+	}
+
+	@Override
+	public void beforeAttempt(final HandlerBeforeAttemptContext context) {
+		final Request<?> request = context.getRequest();
+		final Integer attempts = request.getHandlerContext(ATTEMPTS);
+
+		if (attempts != null) {
+			stats(request).retries.increment();
+		}
+
+		request.addHandlerContext(ATTEMPTS, attempts == null ? 1 : attempts + 1);
+	}
+
+	@Override
+	public void afterAttempt(final HandlerAfterAttemptContext context) {
+		final Exception exception = context.getException();
+
+		if (exception instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) exception)) {
+			stats(context.getRequest()).throttles.increment();
+		}
+	}
+
+	@Override
+	public void afterResponse(final Request<?> request, final Response<?> response) {
+		final OperationStats stats = complete(request);
+
+		for (final ConsumedCapacity capacity : consumedCapacity(response.getAwsResponse())) {
+			if (capacity.getCapacityUnits() != null) {
+				stats.consumedCapacity.add(capacity.getCapacityUnits());
+			}
+		}
+	}
+
+	@Override
+	public void afterError(final Request<?> request, final Response<?> response, final Exception e) {
+		complete(request).errors.increment();
+	}
+
+	@Override
+	public List<OperationSnapshot> getOperations() {
+		return operations.entrySet().stream()
+				.sorted(Map.Entry.comparingByKey())
+				.map(entry -> new OperationSnapshot(entry.getKey(), entry.getValue()))
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public long getTotalCalls() {
+		return operations.values().stream().mapToLong(stats -> stats.latency.getCount()).sum();
+	}
+
+	@Override
+	public long getTotalThrottles() {
+		return operations.values().stream().mapToLong(stats -> stats.throttles.sum()).sum();
+	}
+
+	@Override
+	public void reset() {
+		operations.clear();
+	}
+
+	/**
+	 * Log a summary line for each operation called so far.
+	 */
+	public void logSummary() {
+		for (final OperationSnapshot operation : getOperations()) {
+			logger.log(Level.INFO, "{0}: {1} calls, p50 {2} ms, p99 {3} ms, p99.9 {4} ms, max {5} ms, "
+					+ "{6} errors, {7} throttles, {8} retries, {9} capacity units", new Object[]{
+					operation.getOperation(),
+					operation.getCalls(),
+					operation.getP50Millis(),
+					operation.getP99Millis(),
+					operation.getP999Millis(),
+					operation.getMaxMillis(),
+					operation.getErrors(),
+					operation.getThrottles(),
+					operation.getRetries(),
+					operation.getConsumedCapacity()
+			});
+		}
+	}
+
+	@Nonnull
+	private OperationStats stats(@Nonnull final Request<?> request) {
+		final String operation = request.getHandlerContext(HandlerContextKey.OPERATION_NAME);
+
+		return operations.computeIfAbsent(operation != null ? operation : operationName(request), name -> new OperationStats());
+	}
+
+	@Nonnull
+	private OperationStats complete(@Nonnull final Request<?> request) {
+		final OperationStats stats = stats(request);
+		final Long startNanos = request.getHandlerContext(START_NANOS);
+
+		if (startNanos != null) {
+			stats.latency.record(System.nanoTime() - startNanos);
+		}
+
+		return stats;
+	}
+
+	@Nonnull
+	private static String operationName(@Nonnull final Request<?> request) {
+		final String name = request.getOriginalRequest().getClass().getSimpleName();
+
+		return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+	}
+
+	@Nonnull
+	private static List<ConsumedCapacity> consumedCapacity(@CheckForNull final Object result) {
+		if (result instanceof PutItemResult) {
+			return nullToEmpty(((PutItemResult) result).getConsumedCapacity());
+		} else if (result instanceof GetItemResult) {
+			return nullToEmpty(((GetItemResult) result).getConsumedCapacity());
+		} else if (result instanceof DeleteItemResult) {
+			return nullToEmpty(((DeleteItemResult) result).getConsumedCapacity());
+		} else if (result instanceof UpdateItemResult) {
+			return nullToEmpty(((UpdateItemResult) result).getConsumedCapacity());
+		} else if (result instanceof QueryResult) {
+			return nullToEmpty(((QueryResult) result).getConsumedCapacity());
+		} else if (result instanceof ScanResult) {
+			return nullToEmpty(((ScanResult) result).getConsumedCapacity());
+		} else if (result instanceof BatchWriteItemResult && ((BatchWriteItemResult) result).getConsumedCapacity() != null) {
+			return ((BatchWriteItemResult) result).getConsumedCapacity();
+		} else if (result instanceof BatchGetItemResult && ((BatchGetItemResult) result).getConsumedCapacity() != null) {
+			return ((BatchGetItemResult) result).getConsumedCapacity();
+		}
+
+		return Collections.emptyList();
+	}
+
+	@Nonnull
+	private static List<ConsumedCapacity> nullToEmpty(@CheckForNull final ConsumedCapacity capacity) {
+		return capacity == null ? Collections.emptyList() : Collections.singletonList(capacity);
+	}
+
+	/**
+	 * Metrics of one operation at the time of the snapshot.
+	 */
+	public static final class OperationSnapshot {
+
+		private final String operation;
+		private final long calls;
+		private final long errors;
+		private final long throttles;
+		private final long retries;
+		private final double consumedCapacity;
+		private final double p50Millis;
+		private final double p99Millis;
+		private final double p999Millis;
+		private final double maxMillis;
+
+		private OperationSnapshot(@Nonnull final String operation, @Nonnull final OperationStats stats) {
+			this.operation = operation;
+			this.calls = stats.latency.getCount();
+			this.errors = stats.errors.sum();
+			this.throttles = stats.throttles.sum();
+			this.retries = stats.retries.sum();
+			this.consumedCapacity = stats.consumedCapacity.sum();
+			this.p50Millis = stats.latency.getPercentileMillis(50.0);
+			this.p99Millis = stats.latency.getPercentileMillis(99.0);
+			this.p999Millis = stats.latency.getPercentileMillis(99.9);
+			this.maxMillis = stats.latency.getMaxMillis();
+		}
+
+		/**
+		 * @return Operation name, i.e. PutItem
+		 */
+		public String getOperation() {
+			return operation;
+		}
+
+		/**
+		 * @return Number of completed calls
+		 */
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 * @return Number of failed calls
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * @return Number of throttled attempts
+		 */
+		public long getThrottles() {
+			return throttles;
+		}
+
+		/**
+		 * @return Number of retried attempts
+		 */
+		public long getRetries() {
+			return retries;
+		}
+
+		/**
+		 * @return Consumed capacity units
+		 */
+		public double getConsumedCapacity() {
+			return consumedCapacity;
+		}
+
+		/**
+		 * @return Median latency in milliseconds
+		 */
+		public double getP50Millis() {
+			return p50Millis;
+		}
+
+		/**
+		 * @return 99th percentile latency in milliseconds
+		 */
+		public double getP99Millis() {
+			return p99Millis;
+		}
+
+		/**
+		 * @return 99.9th percentile latency in milliseconds
+		 */
+		public double getP999Millis() {
+			return p999Millis;
+		}
+
+		/**
+		 * @return Highest latency in milliseconds
+		 */
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+	}
+
+	private static final class OperationStats {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder throttles = new LongAdder();
+		private final LongAdder retries = new LongAdder();
+		private final DoubleAdder consumedCapacity = new DoubleAdder();
+	}
+
+	/**
+	 * Lazily creates the shared instance, registers it with JMX and schedules the periodic summary.
+	 */
+	private static final class Shared {
+
+		private static final AwsCallMetrics INSTANCE = new AwsCallMetrics();
+
+		static {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				logger.log(Level.WARNING, "Could not register AWS call metrics with JMX", e);
+			}
+
+			if (REPORT_SECONDS > 0) {
+				final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					final Thread thread = new Thread(runnable, "aws-call-metrics");
+					thread.setDaemon(true);
+					return thread;
+				});
+
+				reporter.scheduleAtFixedRate(INSTANCE::logSummary, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+			}
+		}
+	}
+}
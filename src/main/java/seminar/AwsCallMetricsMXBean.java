@@ -0,0 +1,29 @@
+package seminar;
+
+import java.util.List;
+
+/**
+ * JMX view of {@code AwsCallMetrics}, registered as {@code seminar:type=AwsCallMetrics}.
+ */
+public interface AwsCallMetricsMXBean {
+
+	/**
+	 * @return Metrics of each operation called so far
+	 */
+	List<AwsCallMetrics.OperationSnapshot> getOperations();
+
+	/**
+	 * @return Number of completed calls of all operations
+	 */
+	long getTotalCalls();
+
+	/**
+	 * @return Number of throttled attempts of all operations
+	 */
+	long getTotalThrottles();
+
+	/**
+	 * Forget all recorded metrics.
+	 */
+	void reset();
+}
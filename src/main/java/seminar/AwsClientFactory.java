@@ -0,0 +1,225 @@
+package seminar;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedBackoffStrategies;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+
+/**
+ * Creates the AWS clients of both assignments with one tuned {@code ClientConfiguration} and keeps a single client,
+ * and with it a single HTTP connection pool, per service, region and endpoint. The configuration is read from
+ * system properties:
+ * <ul>
+ *     <li>{@code aws.maxConnections} - connection pool size (default 128)</li>
+ *     <li>{@code aws.connectionTtlMillis} - maximum lifetime of a pooled connection (default 60000)</li>
+ *     <li>{@code aws.tcpKeepAlive} - TCP keep-alive on pooled connections (default true)</li>
+ *     <li>{@code aws.connectionTimeoutMillis}, {@code aws.socketTimeoutMillis} - socket timeouts
+ *     (default 2000 and 10000)</li>
+ *     <li>{@code aws.requestTimeoutMillis} - timeout of a single HTTP request (default 10000)</li>
+ *     <li>{@code aws.maxErrorRetry} - retries of failed requests (default 3)</li>
+ *     <li>{@code aws.gzip} - gzip compressed responses (default false)</li>
+ *     <li>{@code aws.metrics} - record all calls of the shared clients in {@code AwsCallMetrics} (default true)</li>
+ * </ul>
+ * Clients paced by an {@code AdaptiveRateLimiter} do not retry throttling errors internally, the limiter has to see
+ * every throttle to slow down and the caller retries at the reduced rate.
+ * Each client can be pointed at an endpoint override, i.e. a local stand-in, instead of its region. Async clients
+ * execute their requests on daemon threads, so a client that is not shut down does not keep the JVM alive.
+ */
+public final class AwsClientFactory {
+
+	private static final Logger logger = Logger.getLogger(AwsClientFactory.class.getName());
+
+	// Base delays of the jittered exponential backoff, DynamoDB requests are much cheaper to retry than EC2 requests.
+	static final int DYNAMODB_BASE_DELAY_MILLIS = 25;
+	static final int EC2_BASE_DELAY_MILLIS = 100;
+	private static final int MAX_BACKOFF_MILLIS = 20_000;
+
+	private static final boolean METRICS = Boolean.parseBoolean(System.getProperty("aws.metrics", "true"));
+
+	private static final ConcurrentMap<String, Object> CLIENTS = new ConcurrentHashMap<>();
+
+	private AwsClientFactory() {
+	}
+
+	/**
+	 * @param region Region
+	 * @param endpoint Endpoint override or {@code null} for the region's endpoint
+	 * @return Shared blocking DynamoDB client
+	 */
+	@Nonnull
+	public static AmazonDynamoDB dynamoDb(@Nonnull final Regions region, @CheckForNull final String endpoint) {
+		return client("dynamodb", region, endpoint, () -> configure(AmazonDynamoDBClientBuilder.standard(), region, endpoint)
+				.withClientConfiguration(createClientConfiguration(DYNAMODB_BASE_DELAY_MILLIS))
+				.build());
+	}
+
+	/**
+	 * @param region Region
+	 * @param endpoint Endpoint override or {@code null} for the region's endpoint
+	 * @return Shared blocking DynamoDB client that does not retry throttling errors, for callers with a rate limiter
+	 */
+	@Nonnull
+	public static AmazonDynamoDB dynamoDbPaced(@Nonnull final Regions region, @CheckForNull final String endpoint) {
+		return client("dynamodb-paced", region, endpoint, () -> configure(AmazonDynamoDBClientBuilder.standard(), region, endpoint)
+				.withClientConfiguration(createClientConfiguration(DYNAMODB_BASE_DELAY_MILLIS, false))
+				.build());
+	}
+
+	/**
+	 * @param region Region
+	 * @param endpoint Endpoint override or {@code null} for the region's endpoint
+	 * @param threads Number of threads executing async requests, clients with different numbers are not shared
+	 * @return Shared async DynamoDB client
+	 */
+	@Nonnull
+	public static AmazonDynamoDBAsync dynamoDbAsync(
+			@Nonnull final Regions region,
+			@CheckForNull final String endpoint,
+			final int threads
+	) {
+		return client("dynamodb-async-" + threads, region, endpoint, () -> configure(AmazonDynamoDBAsyncClientBuilder.standard(), region, endpoint)
+				.withClientConfiguration(createClientConfiguration(DYNAMODB_BASE_DELAY_MILLIS))
+				.withExecutorFactory(() -> {
+					final AtomicInteger threadCount = new AtomicInteger();
+
+					return Executors.newFixedThreadPool(threads, runnable -> {
+						final Thread thread = new Thread(runnable, "dynamodb-async-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+				})
+				.build());
+	}
+
+	/**
+	 * @param region Region
+	 * @param endpoint Endpoint override or {@code null} for the region's endpoint
+	 * @return Shared EC2 client
+	 */
+	@Nonnull
+	public static AmazonEC2 ec2(@Nonnull final Regions region, @CheckForNull final String endpoint) {
+		return client("ec2", region, endpoint, () -> configure(AmazonEC2ClientBuilder.standard(), region, endpoint)
+				.withClientConfiguration(createClientConfiguration(EC2_BASE_DELAY_MILLIS))
+				.build());
+	}
+
+	/**
+	 * Shut a shared DynamoDB client down, releasing its connection pool and, for an async client, its threads. The
+	 * next call of the factory creates a new client.
+	 * @param client Client returned by this factory
+	 */
+	public static void shutdown(@Nonnull final AmazonDynamoDB client) {
+		CLIENTS.values().remove(client);
+		client.shutdown();
+	}
+
+	/**
+	 * Create the client configuration from the {@code aws.*} system properties, for clients that are not shared.
+	 * @param baseDelayMillis Base delay of the retry backoff
+	 * @return Client configuration
+	 */
+	@Nonnull
+	public static ClientConfiguration createClientConfiguration(final int baseDelayMillis) {
+		return createClientConfiguration(baseDelayMillis, true);
+	}
+
+	/**
+	 * Create the client configuration from the {@code aws.*} system properties, for clients that are not shared.
+	 * @param baseDelayMillis Base delay of the retry backoff
+	 * @param retryThrottling Whether throttling errors are retried, {@code false} for clients paced by a rate limiter
+	 * @return Client configuration
+	 */
+	@Nonnull
+	public static ClientConfiguration createClientConfiguration(final int baseDelayMillis, final boolean retryThrottling) {
+		final int maxErrorRetry = Integer.getInteger("aws.maxErrorRetry", 3);
+		final RetryPolicy.RetryCondition retryCondition = retryThrottling
+				? PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION
+				: (request, exception, retriesAttempted) -> !RetryUtils.isThrottlingException(exception)
+						&& PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, exception, retriesAttempted);
+		final RetryPolicy retryPolicy = new RetryPolicy(
+				retryCondition,
+				new PredefinedBackoffStrategies.FullJitterBackoffStrategy(baseDelayMillis, MAX_BACKOFF_MILLIS),
+				maxErrorRetry,
+				false
+		);
+
+		return new ClientConfiguration()
+				.withMaxConnections(Integer.getInteger("aws.maxConnections", 128))
+				.withConnectionTTL(Long.getLong("aws.connectionTtlMillis", 60_000L))
+				.withTcpKeepAlive(Boolean.parseBoolean(System.getProperty("aws.tcpKeepAlive", "true")))
+				.withConnectionTimeout(Integer.getInteger("aws.connectionTimeoutMillis", 2_000))
+				.withSocketTimeout(Integer.getInteger("aws.socketTimeoutMillis", 10_000))
+				.withRequestTimeout(Integer.getInteger("aws.requestTimeoutMillis", 10_000))
+				.withRetryPolicy(retryPolicy)
+				.withMaxErrorRetry(maxErrorRetry)
+				.withGzip(Boolean.getBoolean("aws.gzip"));
+	}
+
+	/**
+	 * Get the cached client for {@code service}, {@code region} and {@code endpoint} or create it with {@code factory}.
+	 * @param service Service name
+	 * @param region Region
+	 * @param endpoint Endpoint override
+	 * @param factory Creates the client
+	 * @return Shared client
+	 */
+	@Nonnull
+	@SuppressWarnings("unchecked")
+	private static <T> T client(
+			@Nonnull final String service,
+			@Nonnull final Regions region,
+			@CheckForNull final String endpoint,
+			@Nonnull final Supplier<T> factory
+	) {
+		final String key = service + "|" + region.getName() + "|" + endpoint;
+
+		return (T) CLIENTS.computeIfAbsent(key, k -> {
+			logger.log(Level.INFO, "Creating {0} client for {1}", new Object[]{service, endpoint == null ? region : endpoint});
+			return factory.get();
+		});
+	}
+
+	/**
+	 * Configure given {@code builder} with the shared metrics and {@code endpoint} if set or {@code region} otherwise.
+	 * @param builder Client builder
+	 * @param region Region
+	 * @param endpoint Endpoint override
+	 * @return Given builder
+	 */
+	@Nonnull
+	private static <B extends AwsClientBuilder<B, ?>> B configure(
+			@Nonnull final B builder,
+			@Nonnull final Regions region,
+			@CheckForNull final String endpoint
+	) {
+		if (METRICS) {
+			builder.withRequestHandlers(AwsCallMetrics.shared());
+		}
+
+		if (endpoint == null) {
+			return builder.withRegion(region);
+		}
+
+		return builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region.getName()));
+	}
+}
@@ -0,0 +1,386 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Groups write requests for a single table into {@code BatchWriteItem} calls of up to 25 items and sends them
+ * from a bounded worker pool. Unprocessed items are re-sent with exponential backoff. An optional
+ * {@link AdaptiveRateLimiter} keeps the writes within the table's write capacity.
+ * <p>
+ * DynamoDB rejects a batch that contains the same key twice, so a request for a key that is already queued replaces
+ * the queued request; only the last write of a key is sent.
+ */
+public class BatchWriter implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(BatchWriter.class.getName());
+
+	/** Maximum number of write requests DynamoDB accepts in a single {@code BatchWriteItem} call. */
+	public static final int MAX_BATCH_SIZE = 25;
+
+	private static final int MAX_ATTEMPTS = 10;
+	private static final long BASE_BACKOFF_MILLIS = 50;
+	private static final long MAX_BACKOFF_MILLIS = 5000;
+
+	private final AmazonDynamoDB client;
+	private final String tableName;
+	private final List<String> keyAttributes;
+	private final ExecutorService executor;
+	private final Semaphore inFlight;
+	@CheckForNull
+	private final AdaptiveRateLimiter rateLimiter;
+
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final long startNanos = System.nanoTime();
+
+	private List<WriteRequest> pending = new ArrayList<>(MAX_BATCH_SIZE);
+	private List<Runnable> pendingCallbacks = new ArrayList<>(MAX_BATCH_SIZE);
+	private Map<Map<String, AttributeValue>, Integer> pendingKeys = new HashMap<>();
+
+	/**
+	 * Creates a writer for {@code tableName} that sends batches from {@code workers} threads. At most twice as many
+	 * batches as there are workers are queued, further writes block until a batch has been sent.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the target table
+	 * @param workers Number of worker threads
+	 */
+	public BatchWriter(@Nonnull final AmazonDynamoDB client, @Nonnull final String tableName, final int workers) {
+		this(client, tableName, workers, null);
+	}
+
+	/**
+	 * Creates a writer for {@code tableName} that sends batches from {@code workers} threads and spends write capacity
+	 * through given {@code rateLimiter}. The table is described once for its key schema, so it has to exist.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the target table
+	 * @param workers Number of worker threads
+	 * @param rateLimiter Write capacity limiter, {@code null} for unlimited writes
+	 */
+	public BatchWriter(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final String tableName,
+			final int workers,
+			@CheckForNull final AdaptiveRateLimiter rateLimiter
+	) {
+		this.client = client;
+		this.tableName = tableName;
+		this.keyAttributes = client.describeTable(new DescribeTableRequest(tableName)).getTable().getKeySchema().stream()
+				.map(KeySchemaElement::getAttributeName)
+				.collect(Collectors.toList());
+		this.rateLimiter = rateLimiter;
+		this.inFlight = new Semaphore(workers * 2);
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+			final Thread thread = new Thread(runnable, "batch-writer-" + tableName + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queue a put of given {@code item}.
+	 * @param item Item attributes
+	 */
+	public void putItem(@Nonnull final Map<String, AttributeValue> item) {
+		putItem(item, null);
+	}
+
+	/**
+	 * Queue a put of given {@code item}.
+	 * @param item Item attributes
+	 * @param onWritten Called from a worker thread once the complete batch of the item was written, not called if
+	 * any item of the batch could not be written
+	 */
+	public void putItem(@Nonnull final Map<String, AttributeValue> item, @CheckForNull final Runnable onWritten) {
+		write(new WriteRequest().withPutRequest(new PutRequest().withItem(item)), onWritten);
+	}
+
+	/**
+	 * Queue given {@code request}. Blocks if too many batches are waiting to be sent.
+	 * @param request Write request
+	 */
+	public void write(@Nonnull final WriteRequest request) {
+		write(request, null);
+	}
+
+	/**
+	 * Queue given {@code request}, replacing a queued request of the same key. Blocks if too many batches are waiting
+	 * to be sent.
+	 * @param request Write request
+	 * @param onWritten Called from a worker thread once the complete batch of the request was written, not called if
+	 * any request of the batch could not be written
+	 */
+	public void write(@Nonnull final WriteRequest request, @CheckForNull final Runnable onWritten) {
+		final List<WriteRequest> batch;
+		final List<Runnable> callbacks;
+
+		final Map<String, AttributeValue> key = key(request);
+
+		synchronized (this) {
+			final Integer index = pendingKeys.putIfAbsent(key, pending.size());
+
+			if (index == null) {
+				pending.add(request);
+			} else {
+				pending.set(index, request);
+			}
+
+			if (onWritten != null) {
+				pendingCallbacks.add(onWritten);
+			}
+
+			if (pending.size() < MAX_BATCH_SIZE) {
+				return;
+			}
+
+			batch = pending;
+			callbacks = pendingCallbacks;
+			pending = new ArrayList<>(MAX_BATCH_SIZE);
+			pendingCallbacks = new ArrayList<>(MAX_BATCH_SIZE);
+			pendingKeys = new HashMap<>();
+		}
+
+		dispatch(batch, callbacks);
+	}
+
+	/**
+	 * Send all queued write requests, even if they do not fill a complete batch.
+	 */
+	public void flush() {
+		final List<WriteRequest> batch;
+		final List<Runnable> callbacks;
+
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			batch = pending;
+			callbacks = pendingCallbacks;
+			pending = new ArrayList<>(MAX_BATCH_SIZE);
+			pendingCallbacks = new ArrayList<>(MAX_BATCH_SIZE);
+			pendingKeys = new HashMap<>();
+		}
+
+		dispatch(batch, callbacks);
+	}
+
+	/**
+	 * @return Number of items written so far
+	 */
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * @return Number of items that could not be written
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * @return Items written per second since this writer was created
+	 */
+	public double getItemsPerSecond() {
+		final double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+		return seconds > 0 ? written.get() / seconds : 0;
+	}
+
+	/**
+	 * Flush remaining write requests, wait for all batches to complete and report throughput.
+	 */
+	@Override
+	public void close() {
+		flush();
+		executor.shutdown();
+
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+		logger.log(Level.INFO, "Wrote {0} items to {1} in {2} ms ({3} items/s), {4} failed", new Object[]{
+				written.get(),
+				tableName,
+				elapsedMillis,
+				String.format("%.1f", getItemsPerSecond()),
+				failed.get()
+		});
+	}
+
+	/**
+	 * @param request Put or delete request
+	 * @return Primary key of the written item
+	 */
+	@Nonnull
+	private Map<String, AttributeValue> key(@Nonnull final WriteRequest request) {
+		if (request.getDeleteRequest() != null) {
+			return request.getDeleteRequest().getKey();
+		}
+
+		final Map<String, AttributeValue> item = request.getPutRequest().getItem();
+		final Map<String, AttributeValue> key = new HashMap<>();
+
+		for (final String attribute : keyAttributes) {
+			key.put(attribute, item.get(attribute));
+		}
+
+		return key;
+	}
+
+	private void dispatch(@Nonnull final List<WriteRequest> batch, @Nonnull final List<Runnable> callbacks) {
+		inFlight.acquireUninterruptibly();
+
+		try {
+			executor.execute(() -> {
+				try {
+					if (writeBatch(batch)) {
+						callbacks.forEach(Runnable::run);
+					}
+				} finally {
+					inFlight.release();
+				}
+			});
+		} catch (final RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Send given {@code batch} from the calling thread and re-send unprocessed items until all are written or the
+	 * attempts are exhausted.
+	 * @param batch Up to {@code MAX_BATCH_SIZE} write requests
+	 * @return Whether all requests of the batch were written
+	 */
+	boolean writeBatch(@Nonnull final List<WriteRequest> batch) {
+		Map<String, List<WriteRequest>> requestItems = Collections.singletonMap(tableName, batch);
+		int remaining = batch.size();
+
+		for (int attempt = 1; ; attempt++) {
+			final BatchWriteItemResult result;
+
+			// Every written item costs at least one write capacity unit, the difference is settled afterwards.
+			if (rateLimiter != null) {
+				rateLimiter.acquire(remaining);
+			}
+
+			try {
+				result = client.batchWriteItem(new BatchWriteItemRequest()
+						.withRequestItems(requestItems)
+						.withReturnConsumedCapacity(ReturnConsumedCapacity.INDEXES));
+			} catch (final ProvisionedThroughputExceededException e) {
+				if (rateLimiter != null) {
+					rateLimiter.onThrottle();
+				}
+
+				if (attempt >= MAX_ATTEMPTS) {
+					logger.log(Level.SEVERE, "Batch write to " + tableName + " throttled " + attempt + " times", e);
+					failed.addAndGet(remaining);
+					return false;
+				}
+
+				backoff(attempt);
+				continue;
+			} catch (final AmazonClientException e) {
+				logger.log(Level.SEVERE, "Batch write to " + tableName + " failed", e);
+				failed.addAndGet(remaining);
+				return false;
+			}
+
+			final Map<String, List<WriteRequest>> unprocessed = result.getUnprocessedItems();
+			final int unprocessedCount = countRequests(unprocessed);
+
+			written.addAndGet(remaining - unprocessedCount);
+
+			if (rateLimiter != null) {
+				rateLimiter.settle(remaining, AdaptiveRateLimiter.tableUnits(result.getConsumedCapacity()));
+
+				if (unprocessedCount == 0) {
+					rateLimiter.onSuccess();
+				} else {
+					rateLimiter.onThrottle();
+				}
+			}
+
+			if (unprocessedCount == 0) {
+				return true;
+			}
+
+			if (attempt >= MAX_ATTEMPTS) {
+				logger.log(Level.SEVERE, "Giving up on {0} unprocessed items after {1} attempts",
+						new Object[]{unprocessedCount, attempt});
+				failed.addAndGet(unprocessedCount);
+				return false;
+			}
+
+			backoff(attempt);
+
+			requestItems = unprocessed;
+			remaining = unprocessedCount;
+		}
+	}
+
+	private static int countRequests(final Map<String, List<WriteRequest>> requestItems) {
+		if (requestItems == null) {
+			return 0;
+		}
+
+		int count = 0;
+
+		for (final List<WriteRequest> requests : requestItems.values()) {
+			count += requests.size();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Sleep a random time between zero and an exponentially growing upper bound ("full jitter").
+	 * @param attempt Number of attempts made so far
+	 */
+	static void backoff(final int attempt) {
+		final long bound = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package seminar;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+/**
+ * Future-based facade over {@code AmazonDynamoDBAsync} that caps the number of requests in flight. Submitting a
+ * request blocks while the cap is reached, so a fast producer is slowed down to the pace of the service instead of
+ * queueing an unbounded number of requests.
+ */
+public class BoundedAsyncDynamoDB {
+
+	private final AmazonDynamoDBAsync client;
+	private final int maxInFlight;
+	private final Semaphore permits;
+
+	/**
+	 * Creates a facade for given {@code client}.
+	 * @param client Amazon DynamoDB async client
+	 * @param maxInFlight Maximum number of concurrent requests
+	 */
+	public BoundedAsyncDynamoDB(@Nonnull final AmazonDynamoDBAsync client, final int maxInFlight) {
+		this.client = client;
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Put an item asynchronously, blocking while the in-flight cap is reached.
+	 * @param request PutItem request
+	 * @return Future of the result
+	 */
+	@Nonnull
+	public CompletableFuture<PutItemResult> putItem(@Nonnull final PutItemRequest request) {
+		return submit(request, client::putItemAsync);
+	}
+
+	/**
+	 * Get an item asynchronously, blocking while the in-flight cap is reached.
+	 * @param request GetItem request
+	 * @return Future of the result
+	 */
+	@Nonnull
+	public CompletableFuture<GetItemResult> getItem(@Nonnull final GetItemRequest request) {
+		return submit(request, client::getItemAsync);
+	}
+
+	/**
+	 * Delete an item asynchronously, blocking while the in-flight cap is reached.
+	 * @param request DeleteItem request
+	 * @return Future of the result
+	 */
+	@Nonnull
+	public CompletableFuture<DeleteItemResult> deleteItem(@Nonnull final DeleteItemRequest request) {
+		return submit(request, client::deleteItemAsync);
+	}
+
+	/**
+	 * Query a table asynchronously, blocking while the in-flight cap is reached.
+	 * @param request Query request
+	 * @return Future of the result
+	 */
+	@Nonnull
+	public CompletableFuture<QueryResult> query(@Nonnull final QueryRequest request) {
+		return submit(request, client::queryAsync);
+	}
+
+	/**
+	 * Scan a table asynchronously, blocking while the in-flight cap is reached.
+	 * @param request Scan request
+	 * @return Future of the result
+	 */
+	@Nonnull
+	public CompletableFuture<ScanResult> scan(@Nonnull final ScanRequest request) {
+		return submit(request, client::scanAsync);
+	}
+
+	/**
+	 * Write a batch of items asynchronously, blocking while the in-flight cap is reached.
+	 * @param request BatchWriteItem request
+	 * @return Future of the result
+	 */
+	@Nonnull
+	public CompletableFuture<BatchWriteItemResult> batchWriteItem(@Nonnull final BatchWriteItemRequest request) {
+		return submit(request, client::batchWriteItemAsync);
+	}
+
+	/**
+	 * Block until all requests submitted so far have completed.
+	 */
+	public void awaitQuiescence() {
+		permits.acquireUninterruptibly(maxInFlight);
+		permits.release(maxInFlight);
+	}
+
+	/**
+	 * @return Number of requests currently in flight
+	 */
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	/**
+	 * Wait for a free slot and send given {@code request} with the async {@code call}.
+	 * @param request Request to send
+	 * @param call Async client method
+	 * @return Future completed with the result or the error of the request
+	 */
+	@Nonnull
+	private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> submit(
+			@Nonnull final Q request,
+			@Nonnull final BiFunction<Q, AsyncHandler<Q, R>, ?> call
+	) {
+		final CompletableFuture<R> future = new CompletableFuture<>();
+
+		permits.acquireUninterruptibly();
+
+		try {
+			call.apply(request, new AsyncHandler<Q, R>() {
+				@Override
+				public void onError(final Exception exception) {
+					permits.release();
+					future.completeExceptionally(exception);
+				}
+
+				@Override
+				public void onSuccess(final Q request, final R result) {
+					permits.release();
+					future.complete(result);
+				}
+			});
+		} catch (final RuntimeException e) {
+			permits.release();
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+}
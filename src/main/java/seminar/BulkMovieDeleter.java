@@ -0,0 +1,204 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Deletes subsets of the movies table with batched {@code DeleteRequest}s instead of single {@code DeleteItem} calls
+ * or dropping the table. Keys are either supplied by the caller, queried per year for a year range or found by a
+ * parallel scan, always projected to the key attributes only. Deletes are sent through a {@link BatchWriter}, so
+ * they are spread over its workers and stay within the table's write capacity.
+ */
+public class BulkMovieDeleter {
+
+	private static final Logger logger = Logger.getLogger(BulkMovieDeleter.class.getName());
+
+	private final AmazonDynamoDB client;
+	private final String tableName;
+	private final int workers;
+	@CheckForNull
+	private final AdaptiveRateLimiter writeRateLimiter;
+	@CheckForNull
+	private final AdaptiveRateLimiter readRateLimiter;
+
+	/**
+	 * Creates a deleter for {@code tableName}.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the movies table
+	 * @param workers Number of batch writer threads, also the number of concurrent queries or scan segments
+	 * @param writeRateLimiter Write capacity limiter, {@code null} for unlimited deletes
+	 * @param readRateLimiter Read capacity limiter of the key queries and scans, {@code null} for unlimited reads
+	 */
+	public BulkMovieDeleter(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final String tableName,
+			final int workers,
+			@CheckForNull final AdaptiveRateLimiter writeRateLimiter,
+			@CheckForNull final AdaptiveRateLimiter readRateLimiter
+	) {
+		this.client = client;
+		this.tableName = tableName;
+		this.workers = workers;
+		this.writeRateLimiter = writeRateLimiter;
+		this.readRateLimiter = readRateLimiter;
+	}
+
+	/**
+	 * Delete the movies with given {@code keys}.
+	 * @param keys Year and title of the movies, further attributes are ignored
+	 * @return Number of deleted movies
+	 */
+	public long delete(@Nonnull final Iterator<Map<String, AttributeValue>> keys) {
+		final BatchWriter writer = createWriter();
+
+		try {
+			while (keys.hasNext()) {
+				delete(writer, keys.next());
+			}
+		} finally {
+			writer.close();
+		}
+
+		return writer.getWrittenCount();
+	}
+
+	/**
+	 * Delete all movies released from {@code fromYear} to {@code toYear}. The years are queried concurrently, so
+	 * only the partitions of these years are read.
+	 * @param fromYear First year, inclusive
+	 * @param toYear Last year, inclusive
+	 * @return Number of deleted movies
+	 */
+	public long deleteYears(final long fromYear, final long toYear) {
+		final long startNanos = System.nanoTime();
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+			final Thread thread = new Thread(runnable, "bulk-delete-query-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		final BatchWriter writer = createWriter();
+
+		try {
+			final List<CompletableFuture<Void>> years = new ArrayList<>();
+
+			for (long year = fromYear; year <= toYear; year++) {
+				final long queriedYear = year;
+				years.add(CompletableFuture.runAsync(() -> deleteYear(writer, queriedYear), executor));
+			}
+
+			CompletableFuture.allOf(years.toArray(new CompletableFuture[0])).join();
+		} finally {
+			executor.shutdownNow();
+			writer.close();
+		}
+
+		final long deleted = writer.getWrittenCount();
+
+		logger.log(Level.INFO, "Deleted {0} movies from {1} to {2} in {3} ms",
+				new Object[]{deleted, fromYear, toYear, (System.nanoTime() - startNanos) / 1_000_000});
+
+		return deleted;
+	}
+
+	/**
+	 * Delete all movies that match {@code predicate}, found by a parallel scan of the whole table.
+	 * @param attributes Attribute paths the predicate reads besides year and title, i.e. {@code info.rating}
+	 * @param predicate Decides on the projected movie attributes whether a movie is deleted, called concurrently
+	 * @return Number of deleted movies
+	 */
+	public long deleteMatching(
+			@Nonnull final List<String> attributes,
+			@Nonnull final Predicate<Map<String, AttributeValue>> predicate
+	) {
+		final List<String> projection = new ArrayList<>(Arrays.asList(MovieIndexes.YEAR, MovieIndexes.TITLE));
+		projection.addAll(attributes);
+
+		final ParallelScanExporter scanner = new ParallelScanExporter(client, tableName, workers, readRateLimiter);
+		final BatchWriter writer = createWriter();
+
+		try {
+			scanner.export(projection, item -> {
+				if (predicate.test(item)) {
+					delete(writer, item);
+				}
+			});
+		} finally {
+			writer.close();
+		}
+
+		return writer.getWrittenCount();
+	}
+
+	/**
+	 * Query the keys of all movies of {@code year} and queue their deletes.
+	 * @param writer Batch writer of the deletes
+	 * @param year Year of the movies
+	 */
+	private void deleteYear(@Nonnull final BatchWriter writer, final long year) {
+		final Map<String, String> names = new HashMap<>();
+		names.put("#year", MovieIndexes.YEAR);
+		names.put("#title", MovieIndexes.TITLE);
+
+		final QueryRequest request = new QueryRequest()
+				.withTableName(tableName)
+				.withKeyConditionExpression("#year = :year")
+				.withProjectionExpression("#year, #title")
+				.withExpressionAttributeNames(names)
+				.withExpressionAttributeValues(
+						Collections.singletonMap(":year", new AttributeValue().withN(Long.toString(year))))
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+		do {
+			final QueryResult result = AdaptiveRateLimiter.readPage(readRateLimiter, () -> client.query(request),
+					QueryResult::getConsumedCapacity);
+
+			for (final Map<String, AttributeValue> key : result.getItems()) {
+				delete(writer, key);
+			}
+
+			request.setExclusiveStartKey(result.getLastEvaluatedKey());
+		} while (request.getExclusiveStartKey() != null);
+	}
+
+	/**
+	 * Queue the delete of the movie identified by given {@code item}.
+	 * @param writer Batch writer of the deletes
+	 * @param item Attributes containing at least year and title
+	 */
+	private static void delete(@Nonnull final BatchWriter writer, @Nonnull final Map<String, AttributeValue> item) {
+		final Map<String, AttributeValue> key = new HashMap<>(2);
+		key.put(MovieIndexes.YEAR, item.get(MovieIndexes.YEAR));
+		key.put(MovieIndexes.TITLE, item.get(MovieIndexes.TITLE));
+
+		writer.write(new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(key)));
+	}
+
+	@Nonnull
+	private BatchWriter createWriter() {
+		return new BatchWriter(client, tableName, workers, writeRateLimiter);
+	}
+}
@@ -0,0 +1,179 @@
+package seminar;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content hashes of the movies written by previous loads, persisted in a local file. A record whose hash equals the
+ * stored hash of its key is unchanged and does not need to be written again. Hashes are computed over a canonical
+ * form of the item, so the attribute order of the source does not matter.
+ * <p>
+ * The hashes only describe the table they were written to. They are saved with the table's {@code TableId} and
+ * discarded when loaded for a different one, i.e. after the table was deleted and created again.
+ */
+public class ContentHashStore {
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path file;
+	private final ConcurrentMap<String, Long> hashes = new ConcurrentHashMap<>();
+	private String tableId = "";
+
+	/**
+	 * Creates a store backed by given {@code file}. Call {@link #load()} to read previously saved hashes.
+	 * @param file Hash file
+	 */
+	public ContentHashStore(@Nonnull final Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Read the hashes saved for the table with {@code tableId}, if the file exists. Hashes of another table or of
+	 * an older file format are discarded.
+	 * @param tableId {@code TableId} of the target table
+	 * @return Whether saved hashes of the table were read
+	 * @throws IOException If the file exists but cannot be read
+	 */
+	public boolean load(@Nonnull final String tableId) throws IOException {
+		this.tableId = tableId;
+		hashes.clear();
+
+		if (!Files.exists(file)) {
+			return false;
+		}
+
+		try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (input.readInt() != FORMAT_VERSION || !tableId.equals(input.readUTF())) {
+				return false;
+			}
+
+			final int count = input.readInt();
+
+			for (int i = 0; i < count; i++) {
+				hashes.put(input.readUTF(), input.readLong());
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Replace the file with the current hashes and the {@code TableId} they were loaded for.
+	 * @throws IOException If the file cannot be written
+	 */
+	public void save() throws IOException {
+		final List<Map.Entry<String, Long>> entries = new ArrayList<>(hashes.entrySet());
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 48);
+
+		try (final DataOutputStream output = new DataOutputStream(bytes)) {
+			output.writeInt(FORMAT_VERSION);
+			output.writeUTF(tableId);
+			output.writeInt(entries.size());
+
+			for (final Map.Entry<String, Long> entry : entries) {
+				output.writeUTF(entry.getKey());
+				output.writeLong(entry.getValue());
+			}
+		}
+
+		IngestionCheckpoint.replaceAtomically(file, bytes.toByteArray());
+	}
+
+	/**
+	 * @param key Item key
+	 * @param hash Content hash of the item
+	 * @return Whether the item was saved with the same content before
+	 */
+	public boolean isUnchanged(@Nonnull final String key, final long hash) {
+		final Long previous = hashes.get(key);
+
+		return previous != null && previous == hash;
+	}
+
+	/**
+	 * Remember the content hash of a written item.
+	 * @param key Item key
+	 * @param hash Content hash of the item
+	 */
+	public void put(@Nonnull final String key, final long hash) {
+		hashes.put(key, hash);
+	}
+
+	/**
+	 * @return Number of stored hashes
+	 */
+	public int size() {
+		return hashes.size();
+	}
+
+	/**
+	 * @param item Item attributes
+	 * @return 64-bit hash of the canonical form of {@code item}
+	 */
+	public static long hash(@Nonnull final Map<String, AttributeValue> item) {
+		final Hasher hasher = Hashing.murmur3_128().newHasher();
+		putMap(hasher, item);
+
+		return hasher.hash().asLong();
+	}
+
+	private static void putMap(@Nonnull final Hasher hasher, @Nonnull final Map<String, AttributeValue> map) {
+		hasher.putChar('M').putInt(map.size());
+
+		map.entrySet().stream()
+				.sorted(Map.Entry.comparingByKey())
+				.forEachOrdered(entry -> {
+					hasher.putInt(entry.getKey().length()).putUnencodedChars(entry.getKey());
+					putValue(hasher, entry.getValue());
+				});
+	}
+
+	private static void putValue(@Nonnull final Hasher hasher, @Nonnull final AttributeValue value) {
+		if (value.getS() != null) {
+			hasher.putChar('S').putInt(value.getS().length()).putUnencodedChars(value.getS());
+		} else if (value.getN() != null) {
+			hasher.putChar('N').putInt(value.getN().length()).putUnencodedChars(value.getN());
+		} else if (value.getBOOL() != null) {
+			hasher.putChar('B').putBoolean(value.getBOOL());
+		} else if (value.getM() != null) {
+			putMap(hasher, value.getM());
+		} else if (value.getL() != null) {
+			hasher.putChar('L').putInt(value.getL().size());
+
+			for (final AttributeValue element : value.getL()) {
+				putValue(hasher, element);
+			}
+		} else if (value.getB() != null) {
+			final ByteBuffer bytes = value.getB().duplicate();
+			hasher.putChar('b').putInt(bytes.remaining()).putBytes(bytes);
+		} else if (value.getSS() != null || value.getNS() != null) {
+			final List<String> elements = new ArrayList<>(value.getSS() != null ? value.getSS() : value.getNS());
+			Collections.sort(elements);
+			hasher.putChar(value.getSS() != null ? 's' : 'n').putInt(elements.size());
+
+			for (final String element : elements) {
+				hasher.putInt(element.length()).putUnencodedChars(element);
+			}
+		} else {
+			hasher.putChar('0');
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AttachVolumeRequest;
+import com.amazonaws.services.ec2.model.CreateVolumeRequest;
+import com.amazonaws.services.ec2.model.DeleteVolumeRequest;
+import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.amazonaws.services.ec2.model.DescribeVolumesResult;
+import com.amazonaws.services.ec2.model.EbsInstanceBlockDeviceSpecification;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceBlockDeviceMappingSpecification;
+import com.amazonaws.services.ec2.model.InstanceType;
+import com.amazonaws.services.ec2.model.ModifyInstanceAttributeRequest;
+import com.amazonaws.services.ec2.model.ResourceType;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.Volume;
+import com.amazonaws.services.ec2.model.VolumeState;
+import com.amazonaws.services.ec2.model.VolumeType;
+import com.google.common.collect.Lists;
+
+/**
+ * Provisions a fleet of EC2 instances. All instances are launched with a single {@code RunInstances} request,
+ * their EBS volumes are created and attached concurrently and the fleet is terminated with batched
+ * {@code TerminateInstances} requests. Volumes that are left available after termination, i.e. because attaching
+ * them failed, are deleted along with the fleet.
+ */
+public class Ec2Fleet implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(Ec2Fleet.class.getName());
+
+	private static final int TERMINATE_BATCH_SIZE = 100;
+
+	private final AmazonEC2 client;
+	private final String name;
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a fleet with given {@code name} that issues up to {@code parallelism} requests concurrently.
+	 * @param client Amazon EC2 client
+	 * @param name Fleet name, set as {@code fleet} tag on all instances
+	 * @param parallelism Maximum number of concurrent requests
+	 */
+	public Ec2Fleet(@Nonnull final AmazonEC2 client, @Nonnull final String name, final int parallelism) {
+		this.client = client;
+		this.name = name;
+		this.executor = Executors.newFixedThreadPool(parallelism);
+	}
+
+	/**
+	 * Launch {@code count} instances with a single request and wait until all of them are running.
+	 * @param imageId AMI id
+	 * @param instanceType Instance type
+	 * @param keyName Key-pair name
+	 * @param securityGroupId Security group id
+	 * @param count Number of instances
+	 * @return Running instances with public IP and DNS name
+	 */
+	@Nonnull
+	public List<Instance> launch(
+			@Nonnull final String imageId,
+			@Nonnull final InstanceType instanceType,
+			@Nonnull final String keyName,
+			@Nonnull final String securityGroupId,
+			final int count
+	) {
+		final RunInstancesRequest request = new RunInstancesRequest()
+				.withImageId(imageId)
+				.withMinCount(count)
+				.withMaxCount(count)
+				.withInstanceType(instanceType)
+				.withKeyName(keyName)
+				.withSecurityGroupIds(securityGroupId)
+				.withTagSpecifications(new TagSpecification()
+						.withResourceType(ResourceType.Instance)
+						.withTags(new Tag("fleet", name)));
+
+		final List<String> instanceIds = instanceIds(client.runInstances(request).getReservation().getInstances());
+
+		logger.log(Level.INFO, "Launched {0} instances for fleet {1}", new Object[]{instanceIds.size(), name});
+
+		return Ec2StateWaiter.awaitRunning(client, instanceIds);
+	}
+
+	/**
+	 * Create a standard EBS volume for each of the running {@code instances} in its availability zone and attach it
+	 * as {@code device}. Volumes are deleted when their instance is terminated. If any request fails, the pending
+	 * requests are skipped and the exception is thrown once the running ones completed; the caller is expected to
+	 * terminate the fleet, which deletes the volumes that are not attached.
+	 * @param instances Running instances
+	 * @param device Device name
+	 * @param sizeGiB Volume size in GiB
+	 */
+	public void attachEbsVolumes(@Nonnull final List<Instance> instances, @Nonnull final String device, final int sizeGiB) {
+		final List<Volume> volumes = forAll(instances, instance -> client.createVolume(new CreateVolumeRequest()
+				.withVolumeType(VolumeType.Standard)
+				.withAvailabilityZone(instance.getPlacement().getAvailabilityZone())
+				.withSize(sizeGiB)
+				.withTagSpecifications(new TagSpecification()
+						.withResourceType(ResourceType.Volume)
+						.withTags(new Tag("fleet", name))))
+				.getVolume());
+
+		final List<String> volumeIds = volumes.stream()
+				.map(Volume::getVolumeId)
+				.collect(Collectors.toList());
+
+		logger.log(Level.INFO, "Created {0} volumes for fleet {1}", new Object[]{volumes.size(), name});
+
+		Ec2StateWaiter.awaitVolumesAvailable(client, volumeIds);
+
+		forAll(IntStream.range(0, instances.size()).boxed().collect(Collectors.toList()), i -> {
+			final String instanceId = instances.get(i).getInstanceId();
+
+			return client.attachVolume(new AttachVolumeRequest()
+					.withInstanceId(instanceId)
+					.withVolumeId(volumeIds.get(i))
+					.withDevice(device));
+		});
+
+		Ec2StateWaiter.awaitVolumesInUse(client, volumeIds);
+
+		// EC2 rejects the attribute until the device is mapped, i.e. the volume is in use.
+		forAll(instances, instance -> client.modifyInstanceAttribute(new ModifyInstanceAttributeRequest()
+				.withInstanceId(instance.getInstanceId())
+				.withBlockDeviceMappings(new InstanceBlockDeviceMappingSpecification()
+						.withDeviceName(device)
+						.withEbs(new EbsInstanceBlockDeviceSpecification().withDeleteOnTermination(true)))));
+
+		logger.log(Level.INFO, "Attached {0} volumes for fleet {1}", new Object[]{volumes.size(), name});
+	}
+
+	/**
+	 * Terminate given {@code instances} with concurrent requests of up to {@code TERMINATE_BATCH_SIZE} instances,
+	 * wait until all of them are terminated and delete the fleet's volumes that are left available.
+	 * @param instances Instances to terminate
+	 */
+	public void terminate(@Nonnull final List<Instance> instances) {
+		final List<String> instanceIds = instanceIds(instances);
+
+		forAll(Lists.partition(instanceIds, TERMINATE_BATCH_SIZE),
+				batch -> client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(batch)));
+		Ec2StateWaiter.awaitTerminated(client, instanceIds);
+
+		logger.log(Level.INFO, "Terminated {0} instances of fleet {1}", new Object[]{instanceIds.size(), name});
+
+		try {
+			deleteAvailableVolumes();
+		} catch (final AmazonClientException e) {
+			logger.log(Level.WARNING, "Could not delete the left over volumes of fleet " + name, e);
+		}
+	}
+
+	/**
+	 * Delete all available volumes tagged with this fleet, i.e. volumes whose attachment failed or that were
+	 * attached without being deleted on termination. Volumes that cannot be deleted are logged and skipped.
+	 */
+	private void deleteAvailableVolumes() {
+		final List<String> volumeIds = new ArrayList<>();
+		final DescribeVolumesRequest request = new DescribeVolumesRequest().withFilters(
+				new Filter("tag:fleet").withValues(name),
+				new Filter("status").withValues(VolumeState.Available.toString()));
+		DescribeVolumesResult result;
+
+		do {
+			result = client.describeVolumes(request);
+			result.getVolumes().forEach(volume -> volumeIds.add(volume.getVolumeId()));
+			request.setNextToken(result.getNextToken());
+		} while (result.getNextToken() != null);
+
+		if (volumeIds.isEmpty()) {
+			return;
+		}
+
+		forAll(volumeIds, volumeId -> {
+			try {
+				return client.deleteVolume(new DeleteVolumeRequest().withVolumeId(volumeId));
+			} catch (final AmazonClientException e) {
+				logger.log(Level.WARNING, "Could not delete volume " + volumeId + " of fleet " + name, e);
+				return null;
+			}
+		});
+
+		logger.log(Level.INFO, "Deleted {0} left over volumes of fleet {1}", new Object[]{volumeIds.size(), name});
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	@Nonnull
+	private static List<String> instanceIds(@Nonnull final List<Instance> instances) {
+		return instances.stream()
+				.map(Instance::getInstanceId)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Apply {@code action} to all {@code inputs} concurrently and wait for all results. As soon as an action fails,
+	 * the actions that have not started yet are skipped; the failure is thrown once the started ones completed,
+	 * further failures are added as suppressed exceptions. Running actions are never cancelled, so no request is
+	 * still in flight when this method returns.
+	 * @param inputs Inputs
+	 * @param action Action per input
+	 * @return Results in the order of the inputs
+	 */
+	@Nonnull
+	private <T, R> List<R> forAll(@Nonnull final List<T> inputs, @Nonnull final Function<T, R> action) {
+		final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		final List<CompletableFuture<R>> futures = inputs.stream()
+				.map(input -> CompletableFuture.supplyAsync(() -> {
+					if (failure.get() != null) {
+						return null;
+					}
+
+					try {
+						return action.apply(input);
+					} catch (final RuntimeException e) {
+						if (!failure.compareAndSet(null, e)) {
+							failure.get().addSuppressed(e);
+						}
+
+						return null;
+					}
+				}, executor))
+				.collect(Collectors.toList());
+
+		final List<R> results = futures.stream()
+				.map(CompletableFuture::join)
+				.collect(Collectors.toList());
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		return results;
+	}
+}
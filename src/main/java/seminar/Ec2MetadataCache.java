@@ -0,0 +1,193 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AvailabilityZone;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeKeyPairsRequest;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.KeyPairInfo;
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Caches EC2 metadata that rarely changes: security groups and key pairs by name, AMIs by id and the availability
+ * zones of the region. Lookups use server-side filters instead of listing all resources of the account, entries
+ * expire after a TTL and can be invalidated after a resource was created.
+ */
+public class Ec2MetadataCache {
+
+	private static final Logger logger = Logger.getLogger(Ec2MetadataCache.class.getName());
+
+	private static final int SECURITY_GROUP_PAGE_SIZE = 1000;
+
+	private final AmazonEC2 client;
+	private final LoadingCache<String, Optional<SecurityGroup>> securityGroups;
+	private final LoadingCache<String, Optional<KeyPairInfo>> keyPairs;
+	private final LoadingCache<String, Optional<Image>> images;
+	private final Supplier<List<AvailabilityZone>> availabilityZones;
+
+	/**
+	 * Creates a cache for given {@code client}.
+	 * @param client Amazon EC2 client
+	 * @param timeToLive Time after which a cached entry is reloaded
+	 */
+	public Ec2MetadataCache(@Nonnull final AmazonEC2 client, @Nonnull final Duration timeToLive) {
+		this.client = client;
+		this.securityGroups = CacheBuilder.newBuilder()
+				.expireAfterWrite(timeToLive)
+				.build(CacheLoader.from(this::loadSecurityGroup));
+		this.keyPairs = CacheBuilder.newBuilder()
+				.expireAfterWrite(timeToLive)
+				.build(CacheLoader.from(this::loadKeyPair));
+		this.images = CacheBuilder.newBuilder()
+				.expireAfterWrite(timeToLive)
+				.build(CacheLoader.from(this::loadImage));
+		this.availabilityZones = Suppliers.memoizeWithExpiration(
+				() -> client.describeAvailabilityZones().getAvailabilityZones(),
+				timeToLive.toMillis(), TimeUnit.MILLISECONDS)::get;
+	}
+
+	/**
+	 * @param groupName Security group name
+	 * @return Security group with given name if it exists
+	 */
+	@Nonnull
+	public Optional<SecurityGroup> findSecurityGroup(@Nonnull final String groupName) {
+		return securityGroups.getUnchecked(groupName);
+	}
+
+	/**
+	 * @param keyName Key-pair name
+	 * @return Key pair with given name if it exists
+	 */
+	@Nonnull
+	public Optional<KeyPairInfo> findKeyPair(@Nonnull final String keyName) {
+		return keyPairs.getUnchecked(keyName);
+	}
+
+	/**
+	 * @param imageId AMI id
+	 * @return Image with given id if it exists
+	 */
+	@Nonnull
+	public Optional<Image> findImage(@Nonnull final String imageId) {
+		return images.getUnchecked(imageId);
+	}
+
+	/**
+	 * @return Availability zones of the client's region
+	 */
+	@Nonnull
+	public List<AvailabilityZone> availabilityZones() {
+		return availabilityZones.get();
+	}
+
+	/**
+	 * Forget a cached security group, i.e. after it was created.
+	 * @param groupName Security group name
+	 */
+	public void invalidateSecurityGroup(@Nonnull final String groupName) {
+		securityGroups.invalidate(groupName);
+	}
+
+	/**
+	 * Forget a cached key pair, i.e. after it was created.
+	 * @param keyName Key-pair name
+	 */
+	public void invalidateKeyPair(@Nonnull final String keyName) {
+		keyPairs.invalidate(keyName);
+	}
+
+	/**
+	 * Load the given security groups, key pairs, images and the availability zones in parallel.
+	 * @param groupNames Security group names
+	 * @param keyNames Key-pair names
+	 * @param imageIds AMI ids
+	 */
+	public void warmUp(
+			@Nonnull final Collection<String> groupNames,
+			@Nonnull final Collection<String> keyNames,
+			@Nonnull final Collection<String> imageIds
+	) {
+		final long startNanos = System.nanoTime();
+		final List<Runnable> lookups = new ArrayList<>();
+
+		groupNames.forEach(name -> lookups.add(() -> findSecurityGroup(name)));
+		keyNames.forEach(name -> lookups.add(() -> findKeyPair(name)));
+		imageIds.forEach(id -> lookups.add(() -> findImage(id)));
+		lookups.add(this::availabilityZones);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(lookups.size());
+
+		try {
+			CompletableFuture.allOf(lookups.stream()
+					.map(lookup -> CompletableFuture.runAsync(lookup, executor))
+					.toArray(CompletableFuture[]::new))
+					.join();
+		} finally {
+			executor.shutdown();
+		}
+
+		logger.log(Level.INFO, "Warmed up {0} EC2 metadata lookups in {1} ms", new Object[]{
+				lookups.size(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+		});
+	}
+
+	@Nonnull
+	private Optional<SecurityGroup> loadSecurityGroup(@Nonnull final String groupName) {
+		final DescribeSecurityGroupsRequest request = new DescribeSecurityGroupsRequest()
+				.withFilters(new Filter("group-name").withValues(groupName))
+				.withMaxResults(SECURITY_GROUP_PAGE_SIZE);
+		DescribeSecurityGroupsResult result;
+
+		do {
+			result = client.describeSecurityGroups(request);
+
+			if (!result.getSecurityGroups().isEmpty()) {
+				return Optional.of(result.getSecurityGroups().get(0));
+			}
+
+			request.setNextToken(result.getNextToken());
+		} while (result.getNextToken() != null);
+
+		return Optional.empty();
+	}
+
+	@Nonnull
+	private Optional<KeyPairInfo> loadKeyPair(@Nonnull final String keyName) {
+		final DescribeKeyPairsRequest request = new DescribeKeyPairsRequest()
+				.withFilters(new Filter("key-name").withValues(keyName));
+
+		return client.describeKeyPairs(request).getKeyPairs().stream().findFirst();
+	}
+
+	@Nonnull
+	private Optional<Image> loadImage(@Nonnull final String imageId) {
+		final DescribeImagesRequest request = new DescribeImagesRequest()
+				.withFilters(new Filter("image-id").withValues(imageId));
+
+		return client.describeImages(request).getImages().stream().findFirst();
+	}
+}
@@ -0,0 +1,135 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.waiters.MaxAttemptsRetryStrategy;
+import com.amazonaws.waiters.PollingStrategy;
+import com.amazonaws.waiters.Waiter;
+import com.amazonaws.waiters.WaiterParameters;
+
+/**
+ * Waits for EC2 instances and volumes to reach a state using the SDK's {@code AmazonEC2Waiters}. Instead of the
+ * waiters' fixed 15 second polling interval the state is polled with exponential backoff, starting at one second, so
+ * a wait ends shortly after the resource is actually ready.
+ */
+public final class Ec2StateWaiter {
+
+	private static final Logger logger = Logger.getLogger(Ec2StateWaiter.class.getName());
+
+	private static final int MAX_ATTEMPTS = 40;
+	private static final long INITIAL_DELAY_MILLIS = 1000;
+	private static final long MAX_DELAY_MILLIS = 15000;
+
+	private static final PollingStrategy POLLING_STRATEGY = new PollingStrategy(
+			new MaxAttemptsRetryStrategy(MAX_ATTEMPTS),
+			context -> TimeUnit.MILLISECONDS.sleep(Math.min(MAX_DELAY_MILLIS,
+					INITIAL_DELAY_MILLIS << Math.min(context.getRetriesAttempted(), 4))));
+
+	private Ec2StateWaiter() {
+	}
+
+	/**
+	 * Wait until all given instances are running.
+	 * @param client Amazon EC2 client
+	 * @param instanceIds Instance ids
+	 * @return Refreshed instances with public IP and DNS name
+	 */
+	@Nonnull
+	public static List<Instance> awaitRunning(@Nonnull final AmazonEC2 client, @Nonnull final Collection<String> instanceIds) {
+		await(client.waiters().instanceRunning(), new DescribeInstancesRequest().withInstanceIds(instanceIds), "running", instanceIds);
+
+		return describeInstances(client, instanceIds);
+	}
+
+	/**
+	 * Wait until all given instances are stopped.
+	 * @param client Amazon EC2 client
+	 * @param instanceIds Instance ids
+	 */
+	public static void awaitStopped(@Nonnull final AmazonEC2 client, @Nonnull final Collection<String> instanceIds) {
+		await(client.waiters().instanceStopped(), new DescribeInstancesRequest().withInstanceIds(instanceIds), "stopped", instanceIds);
+	}
+
+	/**
+	 * Wait until all given instances are terminated.
+	 * @param client Amazon EC2 client
+	 * @param instanceIds Instance ids
+	 */
+	public static void awaitTerminated(@Nonnull final AmazonEC2 client, @Nonnull final Collection<String> instanceIds) {
+		await(client.waiters().instanceTerminated(), new DescribeInstancesRequest().withInstanceIds(instanceIds), "terminated", instanceIds);
+	}
+
+	/**
+	 * Wait until all given volumes are available for attachment.
+	 * @param client Amazon EC2 client
+	 * @param volumeIds Volume ids
+	 */
+	public static void awaitVolumesAvailable(@Nonnull final AmazonEC2 client, @Nonnull final Collection<String> volumeIds) {
+		await(client.waiters().volumeAvailable(), new DescribeVolumesRequest().withVolumeIds(volumeIds), "available", volumeIds);
+	}
+
+	/**
+	 * Wait until all given volumes are attached.
+	 * @param client Amazon EC2 client
+	 * @param volumeIds Volume ids
+	 */
+	public static void awaitVolumesInUse(@Nonnull final AmazonEC2 client, @Nonnull final Collection<String> volumeIds) {
+		await(client.waiters().volumeInUse(), new DescribeVolumesRequest().withVolumeIds(volumeIds), "in-use", volumeIds);
+	}
+
+	/**
+	 * Describe given instances.
+	 * @param client Amazon EC2 client
+	 * @param instanceIds Instance ids
+	 * @return Current state of the instances
+	 */
+	@Nonnull
+	public static List<Instance> describeInstances(@Nonnull final AmazonEC2 client, @Nonnull final Collection<String> instanceIds) {
+		final List<Instance> instances = new ArrayList<>(instanceIds.size());
+		final DescribeInstancesRequest request = new DescribeInstancesRequest().withInstanceIds(instanceIds);
+		DescribeInstancesResult result;
+
+		do {
+			result = client.describeInstances(request);
+
+			for (final Reservation reservation : result.getReservations()) {
+				instances.addAll(reservation.getInstances());
+			}
+
+			request.setNextToken(result.getNextToken());
+		} while (result.getNextToken() != null);
+
+		return instances;
+	}
+
+	private static <R extends AmazonWebServiceRequest> void await(
+			@Nonnull final Waiter<R> waiter,
+			@Nonnull final R request,
+			@Nonnull final String state,
+			@Nonnull final Collection<String> ids
+	) {
+		final long startNanos = System.nanoTime();
+
+		waiter.run(new WaiterParameters<>(request).withPollingStrategy(POLLING_STRATEGY));
+
+		logger.log(Level.INFO, "{0} resources {1} after {2} ms", new Object[]{
+				ids.size(),
+				state,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+		});
+	}
+}
@@ -0,0 +1,537 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AttachVolumeRequest;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateVolumeRequest;
+import com.amazonaws.services.ec2.model.DeleteVolumeRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.EbsInstanceBlockDeviceSpecification;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceBlockDeviceMappingSpecification;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.InstanceType;
+import com.amazonaws.services.ec2.model.ModifyInstanceAttributeRequest;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.ResourceType;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.VolumeType;
+
+/**
+ * Pool of pre-provisioned EC2 instances with their EBS volume already attached. Idle instances are kept stopped, or
+ * running if {@code keepRunning} is set, and tagged with {@code warm-pool} and the pool name, so a later process
+ * adopts them again. Acquiring an instance starts an idle one instead of launching a new instance, which skips
+ * provisioning, the first boot and the volume setup; releasing it stops the instance and returns it to the pool
+ * instead of terminating it. Only if the pool is empty an instance is launched on demand.
+ * <p>
+ * The {@code warm-pool-state} tag records whether an instance is being provisioned, idle or leased. Only idle
+ * instances are adopted, so a running instance that another process leased, or one whose provisioning was cut
+ * short, is never handed out twice.
+ * <p>
+ * A background task launches new instances whenever idle and provisioning instances fall short of the target size.
+ * Every idle instance is handed out to a single caller only, as it is taken out of the pool atomically.
+ */
+public class Ec2WarmPool implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(Ec2WarmPool.class.getName());
+
+	public static final String POOL_TAG = "warm-pool";
+	public static final String STATE_TAG = "warm-pool-state";
+
+	private static final String STATE_PROVISIONING = "provisioning";
+	private static final String STATE_IDLE = "idle";
+	private static final String STATE_LEASED = "leased";
+
+	private final AmazonEC2 client;
+	private final String name;
+	private final int targetSize;
+	private final boolean keepRunning;
+
+	private final String imageId;
+	private final InstanceType instanceType;
+	private final String keyName;
+	private final String securityGroupId;
+	private final String device;
+	private final int volumeSizeGiB;
+
+	private final BlockingDeque<Instance> idle = new LinkedBlockingDeque<>();
+	private final Set<String> leased = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger provisioning = new AtomicInteger();
+	private final ExecutorService provisioners;
+	private final ScheduledExecutorService replenisher;
+
+	private final AtomicLong warmAcquires = new AtomicLong();
+	private final AtomicLong coldAcquires = new AtomicLong();
+	private final LatencyHistogram acquireLatency = new LatencyHistogram();
+
+	/**
+	 * Creates an empty pool with given {@code name}. Call {@link #start(Duration)} to adopt existing instances and
+	 * fill the pool.
+	 * @param client Amazon EC2 client
+	 * @param name Pool name, set as {@code warm-pool} tag on all instances and volumes
+	 * @param targetSize Number of idle instances to keep
+	 * @param keepRunning Whether idle instances keep running, trading cost for even faster acquisition
+	 * @param imageId AMI id
+	 * @param instanceType Instance type
+	 * @param keyName Key-pair name
+	 * @param securityGroupId Security group id
+	 * @param device Device name of the EBS volume
+	 * @param volumeSizeGiB Size of the EBS volume in GiB
+	 * @param parallelism Maximum number of instances provisioned concurrently
+	 */
+	public Ec2WarmPool(
+			@Nonnull final AmazonEC2 client,
+			@Nonnull final String name,
+			final int targetSize,
+			final boolean keepRunning,
+			@Nonnull final String imageId,
+			@Nonnull final InstanceType instanceType,
+			@Nonnull final String keyName,
+			@Nonnull final String securityGroupId,
+			@Nonnull final String device,
+			final int volumeSizeGiB,
+			final int parallelism
+	) {
+		this.client = client;
+		this.name = name;
+		this.targetSize = targetSize;
+		this.keepRunning = keepRunning;
+		this.imageId = imageId;
+		this.instanceType = instanceType;
+		this.keyName = keyName;
+		this.securityGroupId = securityGroupId;
+		this.device = device;
+		this.volumeSizeGiB = volumeSizeGiB;
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.provisioners = Executors.newFixedThreadPool(parallelism, runnable -> {
+			final Thread thread = new Thread(runnable, "warm-pool-" + name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.replenisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "warm-pool-replenisher-" + name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Adopt the idle instances of this pool left by earlier processes and check every {@code replenishInterval}
+	 * whether instances are missing.
+	 * @param replenishInterval Interval of the background replenishment
+	 */
+	public void start(@Nonnull final Duration replenishInterval) {
+		adoptIdleInstances();
+
+		final long intervalNanos = replenishInterval.toNanos();
+		replenisher.scheduleWithFixedDelay(this::replenish, 0, intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Take an instance out of the pool and wait until it is running. If the pool is empty, an instance is launched
+	 * and its volume attached on demand.
+	 * @return Running instance with public IP and DNS name
+	 */
+	@Nonnull
+	public Instance acquire() {
+		final long startNanos = System.nanoTime();
+		Instance instance = null;
+
+		while (instance == null) {
+			final Instance candidate = idle.pollFirst();
+
+			if (candidate == null) {
+				break;
+			}
+
+			instance = startIdle(candidate);
+		}
+
+		if (instance != null) {
+			warmAcquires.incrementAndGet();
+		} else {
+			instance = launchWithVolume(STATE_LEASED);
+			coldAcquires.incrementAndGet();
+		}
+
+		leased.add(instance.getInstanceId());
+		acquireLatency.record(System.nanoTime() - startNanos);
+		replenisher.execute(this::replenish);
+
+		logger.log(Level.INFO, "Acquired instance {0} from pool {1} in {2} ms", new Object[]{
+				instance.getInstanceId(),
+				name,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+		});
+
+		return instance;
+	}
+
+	/**
+	 * Return an acquired {@code instance} to the pool. Unless idle instances keep running, it is stopped first. It is
+	 * tagged idle before it joins the pool. If the pool is full meanwhile or stopping or tagging fails, the instance is
+	 * terminated instead.
+	 * @param instance Instance returned by {@link #acquire()}
+	 */
+	public void release(@Nonnull final Instance instance) {
+		final String instanceId = instance.getInstanceId();
+
+		if (!leased.remove(instanceId)) {
+			throw new IllegalArgumentException("Instance " + instanceId + " is not leased from pool " + name);
+		}
+
+		if (!keepRunning) {
+			try {
+				client.stopInstances(new StopInstancesRequest().withInstanceIds(instanceId));
+				Ec2StateWaiter.awaitStopped(client, Collections.singletonList(instanceId));
+			} catch (final RuntimeException e) {
+				terminate(instanceId);
+				throw e;
+			}
+		}
+
+		boolean added = false;
+
+		try {
+			tagState(instanceId, STATE_IDLE);
+			added = offerIdle(instance);
+		} catch (final AmazonClientException e) {
+			logger.log(Level.WARNING, "Could not tag instance " + instanceId + " of pool " + name + " idle", e);
+		}
+
+		if (!added) {
+			terminate(instanceId);
+		}
+
+		logger.log(Level.INFO, "Released instance {0} to pool {1}", new Object[]{instanceId, name});
+	}
+
+	/**
+	 * @return Number of idle instances
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return Time to acquire an instance, from the call until the instance is running
+	 */
+	@Nonnull
+	public LatencyHistogram getAcquireLatency() {
+		return acquireLatency;
+	}
+
+	/**
+	 * Terminate all idle instances, i.e. to tear the pool down for good. Leased instances are left untouched.
+	 */
+	public void terminateIdle() {
+		final List<Instance> instances = new ArrayList<>();
+		idle.drainTo(instances);
+
+		if (instances.isEmpty()) {
+			return;
+		}
+
+		final List<String> instanceIds = new ArrayList<>(instances.size());
+		instances.forEach(instance -> instanceIds.add(instance.getInstanceId()));
+
+		client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceIds));
+		Ec2StateWaiter.awaitTerminated(client, instanceIds);
+
+		logger.log(Level.INFO, "Terminated {0} idle instances of pool {1}", new Object[]{instanceIds.size(), name});
+	}
+
+	/**
+	 * Stop replenishing, wait for instances being provisioned and report statistics. Idle instances stay in place
+	 * for the next process.
+	 */
+	@Override
+	public void close() {
+		replenisher.shutdownNow();
+		provisioners.shutdown();
+
+		try {
+			provisioners.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		logger.log(Level.INFO, "Warm pool {0}: {1} idle, {2} warm and {3} cold acquires, acquire latency p50 {4} ms, p99 {5} ms, max {6} ms",
+				new Object[]{
+						name,
+						idle.size(),
+						warmAcquires.get(),
+						coldAcquires.get(),
+						acquireLatency.getPercentileMillis(50),
+						acquireLatency.getPercentileMillis(99),
+						acquireLatency.getMaxMillis()
+				});
+	}
+
+	/**
+	 * Find the instances of this pool tagged idle, stopped or running depending on {@code keepRunning}, and add them
+	 * to the pool.
+	 */
+	private void adoptIdleInstances() {
+		final String state = keepRunning ? InstanceStateName.Running.toString() : InstanceStateName.Stopped.toString();
+		final DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(
+				new Filter("tag:" + POOL_TAG, Collections.singletonList(name)),
+				new Filter("tag:" + STATE_TAG, Collections.singletonList(STATE_IDLE)),
+				new Filter("instance-state-name", Collections.singletonList(state)));
+		DescribeInstancesResult result;
+		int adopted = 0;
+
+		do {
+			result = client.describeInstances(request);
+
+			for (final Reservation reservation : result.getReservations()) {
+				for (final Instance instance : reservation.getInstances()) {
+					if (offerIdle(instance)) {
+						adopted++;
+					}
+				}
+			}
+
+			request.setNextToken(result.getNextToken());
+		} while (result.getNextToken() != null);
+
+		logger.log(Level.INFO, "Adopted {0} idle instances for pool {1}", new Object[]{adopted, name});
+	}
+
+	/**
+	 * Provision as many instances as idle and provisioning instances fall short of {@code targetSize}.
+	 */
+	private synchronized void replenish() {
+		final int missing = targetSize - idle.size() - provisioning.get();
+
+		for (int i = 0; i < missing; i++) {
+			provisioning.incrementAndGet();
+			provisioners.execute(this::provision);
+		}
+	}
+
+	/**
+	 * Launch an instance with volume, stop it unless idle instances keep running, tag it idle and add it to the pool.
+	 */
+	private void provision() {
+		Instance instance = null;
+
+		try {
+			instance = launchWithVolume(STATE_PROVISIONING);
+
+			if (!keepRunning) {
+				client.stopInstances(new StopInstancesRequest().withInstanceIds(instance.getInstanceId()));
+				Ec2StateWaiter.awaitStopped(client, Collections.singletonList(instance.getInstanceId()));
+			}
+
+			tagState(instance.getInstanceId(), STATE_IDLE);
+		} catch (final RuntimeException e) {
+			logger.log(Level.WARNING, "Could not provision instance for pool " + name, e);
+
+			if (instance != null) {
+				terminate(instance.getInstanceId());
+			}
+
+			instance = null;
+		}
+
+		// Joining the pool and leaving the provisioning count at once keeps replenish from counting it twice or not at all.
+		final boolean added;
+
+		synchronized (this) {
+			provisioning.decrementAndGet();
+			added = instance != null && offerIdle(instance);
+		}
+
+		if (instance != null && !added) {
+			terminate(instance.getInstanceId());
+		}
+	}
+
+	/**
+	 * Add {@code instance} to the pool, unless it is full.
+	 * @param instance Idle instance
+	 * @return Whether the instance was added
+	 */
+	private synchronized boolean offerIdle(@Nonnull final Instance instance) {
+		if (idle.size() >= targetSize) {
+			return false;
+		}
+
+		return idle.offerLast(instance);
+	}
+
+	/**
+	 * Tag an idle instance taken out of the pool as leased and start it, unless it keeps running anyway.
+	 * @param instance Idle instance
+	 * @return Running instance, {@code null} if it could not be started and was terminated
+	 */
+	@CheckForNull
+	private Instance startIdle(@Nonnull final Instance instance) {
+		final String instanceId = instance.getInstanceId();
+
+		try {
+			tagState(instanceId, STATE_LEASED);
+
+			if (!keepRunning) {
+				client.startInstances(new StartInstancesRequest().withInstanceIds(instanceId));
+			}
+
+			return Ec2StateWaiter.awaitRunning(client, Collections.singletonList(instanceId)).get(0);
+		} catch (final AmazonClientException e) {
+			logger.log(Level.WARNING, "Could not start idle instance " + instanceId + " of pool " + name, e);
+			terminate(instanceId);
+
+			return null;
+		}
+	}
+
+	/**
+	 * Launch a tagged instance, create a tagged EBS volume in its availability zone and attach it as {@code device}.
+	 * The volume is deleted when the instance is terminated, which can only be set once it is attached. If any step
+	 * after the launch fails, the instance is terminated and the volume deleted before the exception is rethrown; an
+	 * attached volume is deleted once the termination detached it.
+	 * @param state Initial {@code warm-pool-state} of the instance
+	 * @return Running instance with attached volume
+	 */
+	@Nonnull
+	private Instance launchWithVolume(@Nonnull final String state) {
+		final Tag tag = new Tag(POOL_TAG, name);
+		final RunInstancesRequest request = new RunInstancesRequest()
+				.withImageId(imageId)
+				.withMinCount(1)
+				.withMaxCount(1)
+				.withInstanceType(instanceType)
+				.withKeyName(keyName)
+				.withSecurityGroupIds(securityGroupId)
+				.withTagSpecifications(new TagSpecification()
+						.withResourceType(ResourceType.Instance)
+						.withTags(tag, new Tag(STATE_TAG, state)));
+
+		final String instanceId = client.runInstances(request).getReservation().getInstances().get(0).getInstanceId();
+		String volumeId = null;
+		boolean attached = false;
+
+		try {
+			final Instance instance = Ec2StateWaiter.awaitRunning(client, Collections.singletonList(instanceId)).get(0);
+
+			volumeId = client.createVolume(new CreateVolumeRequest()
+					.withVolumeType(VolumeType.Standard)
+					.withAvailabilityZone(instance.getPlacement().getAvailabilityZone())
+					.withSize(volumeSizeGiB)
+					.withTagSpecifications(new TagSpecification()
+							.withResourceType(ResourceType.Volume)
+							.withTags(tag)))
+					.getVolume()
+					.getVolumeId();
+			Ec2StateWaiter.awaitVolumesAvailable(client, Collections.singletonList(volumeId));
+
+			client.attachVolume(new AttachVolumeRequest()
+					.withInstanceId(instanceId)
+					.withVolumeId(volumeId)
+					.withDevice(device));
+			attached = true;
+			Ec2StateWaiter.awaitVolumesInUse(client, Collections.singletonList(volumeId));
+
+			// EC2 rejects the attribute until the device is mapped, i.e. the volume is in use.
+			client.modifyInstanceAttribute(new ModifyInstanceAttributeRequest()
+					.withInstanceId(instanceId)
+					.withBlockDeviceMappings(new InstanceBlockDeviceMappingSpecification()
+							.withDeviceName(device)
+							.withEbs(new EbsInstanceBlockDeviceSpecification().withDeleteOnTermination(true))));
+
+			logger.log(Level.INFO, "Provisioned instance {0} with volume {1} for pool {2}",
+					new Object[]{instanceId, volumeId, name});
+
+			return instance;
+		} catch (final RuntimeException e) {
+			terminate(instanceId);
+
+			if (volumeId != null) {
+				if (attached) {
+					awaitTerminated(instanceId);
+				}
+
+				deleteVolume(volumeId);
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Set the {@code warm-pool-state} tag of an instance.
+	 * @param instanceId Instance id
+	 * @param state Provisioning, idle or leased
+	 */
+	private void tagState(@Nonnull final String instanceId, @Nonnull final String state) {
+		client.createTags(new CreateTagsRequest()
+				.withResources(instanceId)
+				.withTags(new Tag(STATE_TAG, state)));
+	}
+
+	/**
+	 * Terminate an instance without waiting, i.e. a surplus or broken instance.
+	 * @param instanceId Instance id
+	 */
+	private void terminate(@Nonnull final String instanceId) {
+		try {
+			client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceId));
+		} catch (final AmazonClientException e) {
+			logger.log(Level.WARNING, "Could not terminate instance " + instanceId + " of pool " + name, e);
+		}
+	}
+
+	/**
+	 * Wait until a broken instance is terminated, so its volumes are detached.
+	 * @param instanceId Instance id
+	 */
+	private void awaitTerminated(@Nonnull final String instanceId) {
+		try {
+			Ec2StateWaiter.awaitTerminated(client, Collections.singletonList(instanceId));
+		} catch (final AmazonClientException e) {
+			logger.log(Level.WARNING, "Instance " + instanceId + " of pool " + name + " did not terminate", e);
+		}
+	}
+
+	/**
+	 * Delete a volume of a failed launch that is not or no longer attached.
+	 * @param volumeId Volume id
+	 */
+	private void deleteVolume(@Nonnull final String volumeId) {
+		try {
+			client.deleteVolume(new DeleteVolumeRequest().withVolumeId(volumeId));
+		} catch (final AmazonClientException e) {
+			logger.log(Level.WARNING, "Could not delete volume " + volumeId + " of pool " + name, e);
+		}
+	}
+}
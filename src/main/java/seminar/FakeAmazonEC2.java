@@ -0,0 +1,580 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.AttachVolumeRequest;
+import com.amazonaws.services.ec2.model.AttachVolumeResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.CreateVolumeRequest;
+import com.amazonaws.services.ec2.model.CreateVolumeResult;
+import com.amazonaws.services.ec2.model.DeleteVolumeRequest;
+import com.amazonaws.services.ec2.model.DeleteVolumeResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.amazonaws.services.ec2.model.DescribeVolumesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceBlockDeviceMappingSpecification;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.ModifyInstanceAttributeRequest;
+import com.amazonaws.services.ec2.model.ModifyInstanceAttributeResult;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.TerminateInstancesResult;
+import com.amazonaws.services.ec2.model.Volume;
+import com.amazonaws.services.ec2.model.VolumeAttachment;
+import com.amazonaws.services.ec2.model.VolumeState;
+import com.amazonaws.services.ec2.waiters.AmazonEC2Waiters;
+
+/**
+ * In-process stand-in for {@code AmazonEC2} to load-test the instance and volume handling without an AWS account.
+ * Supports launching, starting, stopping, terminating and tagging instances, creating, attaching and deleting volumes
+ * and describing both by id or by tag and state filters. State changes take {@code transitionTime}: an instance is
+ * pending, stopping or shutting down and a volume is creating until then, so waiters poll as they would against
+ * EC2. Terminating an instance deletes its volumes marked {@code DeleteOnTermination} and detaches the others, which
+ * then become available. Every call is subject to the latency and throttling of a {@link FaultInjector}. Other operations fail with
+ * {@code UnsupportedOperationException}.
+ */
+public class FakeAmazonEC2 extends AbstractAmazonEC2 {
+
+	private static final String AVAILABILITY_ZONE = "us-east-1c";
+
+	private final ConcurrentMap<String, FakeInstance> instances = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, FakeVolume> volumes = new ConcurrentHashMap<>();
+	private final AtomicLong ids = new AtomicLong();
+	private final AmazonEC2Waiters waiters = new AmazonEC2Waiters(this);
+
+	private final long transitionNanos;
+	private final FaultInjector faults;
+
+	/**
+	 * Creates an empty stand-in.
+	 * @param transitionTime Time an instance or volume takes to change its state
+	 * @param faults Faults to inject
+	 */
+	public FakeAmazonEC2(@Nonnull final Duration transitionTime, @Nonnull final FaultInjector faults) {
+		this.transitionNanos = transitionTime.toNanos();
+		this.faults = faults;
+	}
+
+	@Override
+	public RunInstancesResult runInstances(final RunInstancesRequest request) {
+		inject();
+
+		final List<Tag> tags = tags(request.getTagSpecifications());
+		final String reservationId = "r-" + nextId();
+		final List<Instance> launched = new ArrayList<>(request.getMaxCount());
+
+		for (int i = 0; i < request.getMaxCount(); i++) {
+			final String instanceId = "i-" + nextId();
+			final Instance instance = new Instance()
+					.withInstanceId(instanceId)
+					.withImageId(request.getImageId())
+					.withInstanceType(request.getInstanceType())
+					.withKeyName(request.getKeyName())
+					.withPlacement(new Placement(AVAILABILITY_ZONE))
+					.withTags(tags);
+			final FakeInstance fake = new FakeInstance(instance);
+			fake.transition(InstanceStateName.Pending, InstanceStateName.Running);
+
+			instances.put(instanceId, fake);
+			launched.add(fake.describe());
+		}
+
+		return new RunInstancesResult().withReservation(new Reservation()
+				.withReservationId(reservationId)
+				.withInstances(launched));
+	}
+
+	@Override
+	public StartInstancesResult startInstances(final StartInstancesRequest request) {
+		inject();
+
+		for (final String instanceId : request.getInstanceIds()) {
+			getInstance(instanceId).transition(InstanceStateName.Pending, InstanceStateName.Running);
+		}
+
+		return new StartInstancesResult();
+	}
+
+	@Override
+	public StopInstancesResult stopInstances(final StopInstancesRequest request) {
+		inject();
+
+		for (final String instanceId : request.getInstanceIds()) {
+			getInstance(instanceId).transition(InstanceStateName.Stopping, InstanceStateName.Stopped);
+		}
+
+		return new StopInstancesResult();
+	}
+
+	@Override
+	public TerminateInstancesResult terminateInstances(final TerminateInstancesRequest request) {
+		inject();
+
+		for (final String instanceId : request.getInstanceIds()) {
+			final FakeInstance instance = getInstance(instanceId);
+			instance.transition(InstanceStateName.ShuttingDown, InstanceStateName.Terminated);
+
+			for (final FakeVolume volume : volumes.values()) {
+				final String device = volume.detachFrom(instanceId);
+
+				if (device != null && instance.deletesOnTermination(device)) {
+					volumes.remove(volume.volume.getVolumeId());
+				}
+			}
+		}
+
+		return new TerminateInstancesResult();
+	}
+
+	@Override
+	public DescribeInstancesResult describeInstances(final DescribeInstancesRequest request) {
+		inject();
+
+		final List<Instance> described = new ArrayList<>();
+
+		if (request.getInstanceIds() != null && !request.getInstanceIds().isEmpty()) {
+			for (final String instanceId : request.getInstanceIds()) {
+				described.add(getInstance(instanceId).describe());
+			}
+		} else {
+			for (final FakeInstance fake : instances.values()) {
+				final Instance instance = fake.describe();
+
+				if (matches(instance.getTags(), "instance-state-name", instance.getState().getName(), request.getFilters())) {
+					described.add(instance);
+				}
+			}
+		}
+
+		return new DescribeInstancesResult().withReservations(new Reservation().withInstances(described));
+	}
+
+	@Override
+	public DescribeInstancesResult describeInstances() {
+		return describeInstances(new DescribeInstancesRequest());
+	}
+
+	@Override
+	public ModifyInstanceAttributeResult modifyInstanceAttribute(final ModifyInstanceAttributeRequest request) {
+		inject();
+
+		final FakeInstance instance = getInstance(request.getInstanceId());
+
+		for (final InstanceBlockDeviceMappingSpecification mapping : request.getBlockDeviceMappings()) {
+			final boolean mapped = volumes.values().stream()
+					.anyMatch(volume -> volume.isAttached(request.getInstanceId(), mapping.getDeviceName()));
+
+			if (!mapped) {
+				throw notFound("InvalidInstanceAttributeValue", "No device is currently mapped at " + mapping.getDeviceName());
+			}
+
+			if (mapping.getEbs() != null && Boolean.TRUE.equals(mapping.getEbs().getDeleteOnTermination())) {
+				instance.deleteOnTermination(mapping.getDeviceName());
+			}
+		}
+
+		return new ModifyInstanceAttributeResult();
+	}
+
+	@Override
+	public CreateTagsResult createTags(final CreateTagsRequest request) {
+		inject();
+
+		for (final String instanceId : request.getResources()) {
+			getInstance(instanceId).tag(request.getTags());
+		}
+
+		return new CreateTagsResult();
+	}
+
+	@Override
+	public CreateVolumeResult createVolume(final CreateVolumeRequest request) {
+		inject();
+
+		final FakeVolume fake = new FakeVolume(new Volume()
+				.withVolumeId("vol-" + nextId())
+				.withVolumeType(request.getVolumeType())
+				.withAvailabilityZone(request.getAvailabilityZone())
+				.withSize(request.getSize())
+				.withTags(tags(request.getTagSpecifications())));
+		fake.transition(VolumeState.Creating, VolumeState.Available);
+
+		volumes.put(fake.volume.getVolumeId(), fake);
+
+		return new CreateVolumeResult().withVolume(fake.describe());
+	}
+
+	@Override
+	public AttachVolumeResult attachVolume(final AttachVolumeRequest request) {
+		inject();
+
+		final FakeVolume volume = getVolume(request.getVolumeId());
+		final FakeInstance instance = getInstance(request.getInstanceId());
+		final VolumeAttachment attachment = new VolumeAttachment()
+				.withVolumeId(request.getVolumeId())
+				.withInstanceId(instance.instance.getInstanceId())
+				.withDevice(request.getDevice())
+				.withState("attaching");
+
+		volume.attach(attachment);
+
+		return new AttachVolumeResult().withAttachment(attachment);
+	}
+
+	@Override
+	public DescribeVolumesResult describeVolumes(final DescribeVolumesRequest request) {
+		inject();
+
+		final List<Volume> described = new ArrayList<>();
+
+		if (request.getVolumeIds() != null && !request.getVolumeIds().isEmpty()) {
+			for (final String volumeId : request.getVolumeIds()) {
+				described.add(getVolume(volumeId).describe());
+			}
+		} else {
+			for (final FakeVolume fake : volumes.values()) {
+				final Volume volume = fake.describe();
+
+				if (matches(volume.getTags(), "status", volume.getState(), request.getFilters())) {
+					described.add(volume);
+				}
+			}
+		}
+
+		return new DescribeVolumesResult().withVolumes(described);
+	}
+
+	@Override
+	public DeleteVolumeResult deleteVolume(final DeleteVolumeRequest request) {
+		inject();
+
+		final FakeVolume volume = getVolume(request.getVolumeId());
+
+		synchronized (volume) {
+			if (volume.currentState() != VolumeState.Available) {
+				throw new AmazonServiceException("Volume " + request.getVolumeId() + " is not available");
+			}
+
+			volumes.remove(request.getVolumeId());
+		}
+
+		return new DeleteVolumeResult();
+	}
+
+	@Override
+	public AmazonEC2Waiters waiters() {
+		return waiters;
+	}
+
+	@Override
+	public void shutdown() {
+		waiters.shutdown();
+	}
+
+	/**
+	 * @return Number of instances that are not terminated
+	 */
+	public int getLiveInstanceCount() {
+		int count = 0;
+
+		for (final FakeInstance fake : instances.values()) {
+			if (!InstanceStateName.Terminated.toString().equals(fake.describe().getState().getName())) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private long nextId() {
+		return ids.incrementAndGet();
+	}
+
+	private void inject() {
+		faults.inject(() -> {
+			final AmazonServiceException e = new AmazonServiceException("Request limit exceeded (injected)");
+			e.setStatusCode(503);
+			e.setErrorCode("RequestLimitExceeded");
+			e.setServiceName("AmazonEC2");
+
+			return e;
+		});
+	}
+
+	@Nonnull
+	private FakeInstance getInstance(@Nonnull final String instanceId) {
+		final FakeInstance instance = instances.get(instanceId);
+
+		if (instance == null) {
+			throw notFound("InvalidInstanceID.NotFound", "The instance ID '" + instanceId + "' does not exist");
+		}
+
+		return instance;
+	}
+
+	@Nonnull
+	private FakeVolume getVolume(@Nonnull final String volumeId) {
+		final FakeVolume volume = volumes.get(volumeId);
+
+		if (volume == null) {
+			throw notFound("InvalidVolume.NotFound", "The volume '" + volumeId + "' does not exist");
+		}
+
+		return volume;
+	}
+
+	@Nonnull
+	private static AmazonServiceException notFound(@Nonnull final String errorCode, @Nonnull final String message) {
+		final AmazonServiceException e = new AmazonServiceException(message);
+		e.setStatusCode(400);
+		e.setErrorCode(errorCode);
+		e.setServiceName("AmazonEC2");
+
+		return e;
+	}
+
+	@Nonnull
+	private static List<Tag> tags(@CheckForNull final List<TagSpecification> specifications) {
+		final List<Tag> tags = new ArrayList<>();
+
+		if (specifications != null) {
+			specifications.forEach(specification -> tags.addAll(specification.getTags()));
+		}
+
+		return tags;
+	}
+
+	/**
+	 * Match an instance or volume against the {@code tag:<key>} and state filters, other filters are not supported.
+	 * @param tags Tags of the instance or volume
+	 * @param stateFilter Name of the state filter, {@code instance-state-name} or {@code status}
+	 * @param state Current state
+	 * @param filters Filters of the request
+	 * @return Whether all filters match
+	 */
+	private static boolean matches(
+			@Nonnull final List<Tag> tags,
+			@Nonnull final String stateFilter,
+			@Nonnull final String state,
+			@CheckForNull final List<Filter> filters
+	) {
+		if (filters == null) {
+			return true;
+		}
+
+		for (final Filter filter : filters) {
+			final List<String> values = filter.getValues();
+
+			if (stateFilter.equals(filter.getName())) {
+				if (!values.contains(state)) {
+					return false;
+				}
+			} else if (filter.getName().startsWith("tag:")) {
+				final String key = filter.getName().substring("tag:".length());
+
+				if (tags.stream().noneMatch(tag -> key.equals(tag.getKey()) && values.contains(tag.getValue()))) {
+					return false;
+				}
+			} else {
+				throw new UnsupportedOperationException("Filter " + filter.getName() + " is not supported");
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Instance whose state changes to a stable state after {@code transitionNanos}.
+	 */
+	private final class FakeInstance {
+
+		private final Instance instance;
+		private final Set<String> deleteOnTermination = new HashSet<>();
+		private InstanceStateName transitional;
+		private InstanceStateName stable;
+		private long settledAtNanos;
+
+		private FakeInstance(@Nonnull final Instance instance) {
+			this.instance = instance;
+		}
+
+		/**
+		 * Start a state change, which an instance that is terminated or shutting down refuses.
+		 * @param transitional State until the change is settled
+		 * @param stable State after the change
+		 */
+		private synchronized void transition(@Nonnull final InstanceStateName transitional, @Nonnull final InstanceStateName stable) {
+			if (this.stable == InstanceStateName.Terminated && stable != InstanceStateName.Terminated) {
+				throw new AmazonServiceException("Instance " + instance.getInstanceId() + " is terminated");
+			}
+
+			this.transitional = transitional;
+			this.stable = stable;
+			this.settledAtNanos = System.nanoTime() + transitionNanos;
+		}
+
+		private synchronized void deleteOnTermination(@Nonnull final String device) {
+			deleteOnTermination.add(device);
+		}
+
+		private synchronized boolean deletesOnTermination(@Nonnull final String device) {
+			return deleteOnTermination.contains(device);
+		}
+
+		/**
+		 * Add {@code tags} to the instance, replacing tags with the same key.
+		 * @param tags Tags
+		 */
+		private synchronized void tag(@Nonnull final List<Tag> tags) {
+			final List<Tag> merged = new ArrayList<>(instance.getTags());
+
+			for (final Tag tag : tags) {
+				merged.removeIf(existing -> existing.getKey().equals(tag.getKey()));
+				merged.add(tag);
+			}
+
+			instance.setTags(merged);
+		}
+
+		@Nonnull
+		private synchronized Instance describe() {
+			final InstanceStateName state = System.nanoTime() - settledAtNanos >= 0 ? stable : transitional;
+			final Instance described = instance.clone().withState(new InstanceState()
+					.withName(state)
+					.withCode(stateCode(state)));
+
+			if (state == InstanceStateName.Running) {
+				final long address = Math.abs((long) instance.getInstanceId().hashCode());
+				described.setPublicIpAddress("198.51." + (address >> 8) % 256 + "." + address % 256);
+				described.setPublicDnsName("ec2-" + instance.getInstanceId() + ".compute-1.amazonaws.com");
+			}
+
+			return described;
+		}
+
+		private int stateCode(@Nonnull final InstanceStateName state) {
+			switch (state) {
+				case Pending:
+					return 0;
+				case Running:
+					return 16;
+				case ShuttingDown:
+					return 32;
+				case Terminated:
+					return 48;
+				case Stopping:
+					return 64;
+				default:
+					return 80;
+			}
+		}
+	}
+
+	/**
+	 * Volume whose state changes to a stable state after {@code transitionNanos}.
+	 */
+	private final class FakeVolume {
+
+		private final Volume volume;
+		private VolumeState transitional;
+		private VolumeState stable;
+		private long settledAtNanos;
+		private List<VolumeAttachment> attachments = Collections.emptyList();
+
+		private FakeVolume(@Nonnull final Volume volume) {
+			this.volume = volume;
+		}
+
+		private synchronized void transition(@Nonnull final VolumeState transitional, @Nonnull final VolumeState stable) {
+			this.transitional = transitional;
+			this.stable = stable;
+			this.settledAtNanos = System.nanoTime() + transitionNanos;
+		}
+
+		/**
+		 * Attach the volume, which has to be available, and mark it in use right away.
+		 * @param attachment Attachment to an instance
+		 */
+		private synchronized void attach(@Nonnull final VolumeAttachment attachment) {
+			if (currentState() != VolumeState.Available) {
+				throw new AmazonServiceException("Volume " + volume.getVolumeId() + " is not available");
+			}
+
+			this.attachments = Collections.singletonList(attachment);
+			this.stable = VolumeState.InUse;
+			this.transitional = VolumeState.InUse;
+		}
+
+		/**
+		 * @param instanceId Instance id
+		 * @param device Device name
+		 * @return Whether the volume is attached to the instance as {@code device}
+		 */
+		private synchronized boolean isAttached(@Nonnull final String instanceId, @Nonnull final String device) {
+			return attachments.stream()
+					.anyMatch(attachment -> instanceId.equals(attachment.getInstanceId()) && device.equals(attachment.getDevice()));
+		}
+
+		/**
+		 * Detach the volume if it is attached to given instance, making it available.
+		 * @param instanceId Terminated instance
+		 * @return Device the volume was attached as, {@code null} if it was not attached to the instance
+		 */
+		@CheckForNull
+		private synchronized String detachFrom(@Nonnull final String instanceId) {
+			for (final VolumeAttachment attachment : attachments) {
+				if (instanceId.equals(attachment.getInstanceId())) {
+					attachments = Collections.emptyList();
+					stable = VolumeState.Available;
+					transitional = VolumeState.Available;
+
+					return attachment.getDevice();
+				}
+			}
+
+			return null;
+		}
+
+		@Nonnull
+		private synchronized Volume describe() {
+			final List<VolumeAttachment> described = new ArrayList<>(attachments.size());
+			attachments.forEach(attachment -> described.add(attachment.clone().withState("attached")));
+
+			return volume.clone()
+					.withState(currentState())
+					.withAttachments(described);
+		}
+
+		@Nonnull
+		private VolumeState currentState() {
+			return System.nanoTime() - settledAtNanos >= 0 ? stable : transitional;
+		}
+	}
+}
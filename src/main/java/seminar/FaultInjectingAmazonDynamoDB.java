@@ -0,0 +1,191 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.dynamodbv2.waiters.AmazonDynamoDBWaiters;
+
+/**
+ * Decorates an {@code AmazonDynamoDB}, usually an {@link InMemoryAmazonDynamoDB}, with the latency, throttling and
+ * partial batch failures of a {@link FaultInjector}. Item operations, queries and scans are delayed and may fail with
+ * a {@code ProvisionedThroughputExceededException}; batch writes may additionally return part of the batch as
+ * unprocessed items, which are not written. Table management is passed through unchanged, so tables are set up
+ * without faults. Calls are not retried, client code sees every injected fault.
+ */
+public class FaultInjectingAmazonDynamoDB extends AbstractAmazonDynamoDB {
+
+	private final AmazonDynamoDB delegate;
+	private final FaultInjector faults;
+
+	/**
+	 * Creates a decorator of {@code delegate}.
+	 * @param delegate Amazon DynamoDB client that executes the calls
+	 * @param faults Faults to inject
+	 */
+	public FaultInjectingAmazonDynamoDB(@Nonnull final AmazonDynamoDB delegate, @Nonnull final FaultInjector faults) {
+		this.delegate = delegate;
+		this.faults = faults;
+	}
+
+	@Override
+	public CreateTableResult createTable(final CreateTableRequest request) {
+		return delegate.createTable(request);
+	}
+
+	@Override
+	public DescribeTableResult describeTable(final DescribeTableRequest request) {
+		return delegate.describeTable(request);
+	}
+
+	@Override
+	public DeleteTableResult deleteTable(final DeleteTableRequest request) {
+		return delegate.deleteTable(request);
+	}
+
+	@Override
+	public ListTablesResult listTables(final ListTablesRequest request) {
+		return delegate.listTables(request);
+	}
+
+	@Override
+	public PutItemResult putItem(final PutItemRequest request) {
+		inject();
+
+		return delegate.putItem(request);
+	}
+
+	@Override
+	public GetItemResult getItem(final GetItemRequest request) {
+		inject();
+
+		return delegate.getItem(request);
+	}
+
+	@Override
+	public UpdateItemResult updateItem(final UpdateItemRequest request) {
+		inject();
+
+		return delegate.updateItem(request);
+	}
+
+	@Override
+	public DeleteItemResult deleteItem(final DeleteItemRequest request) {
+		inject();
+
+		return delegate.deleteItem(request);
+	}
+
+	@Override
+	public BatchWriteItemResult batchWriteItem(final BatchWriteItemRequest request) {
+		inject();
+
+		int total = 0;
+
+		for (final List<WriteRequest> requests : request.getRequestItems().values()) {
+			total += requests.size();
+		}
+
+		int withheld = faults.unprocessedCount(total);
+
+		if (withheld == 0) {
+			return delegate.batchWriteItem(request);
+		}
+
+		final Map<String, List<WriteRequest>> processed = new HashMap<>();
+		final Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+
+		// The tail of the batch is left unprocessed, as if its partitions had run out of capacity.
+		for (final Map.Entry<String, List<WriteRequest>> entry : request.getRequestItems().entrySet()) {
+			final List<WriteRequest> requests = entry.getValue();
+			final int kept = Math.max(0, requests.size() - withheld);
+
+			if (kept > 0) {
+				processed.put(entry.getKey(), new ArrayList<>(requests.subList(0, kept)));
+			}
+
+			if (kept < requests.size()) {
+				unprocessed.put(entry.getKey(), new ArrayList<>(requests.subList(kept, requests.size())));
+			}
+
+			withheld -= requests.size() - kept;
+		}
+
+		if (processed.isEmpty()) {
+			return new BatchWriteItemResult().withUnprocessedItems(unprocessed);
+		}
+
+		final BatchWriteItemResult result = delegate.batchWriteItem(request.clone().withRequestItems(processed));
+
+		if (result.getUnprocessedItems() != null) {
+			result.getUnprocessedItems().forEach((table, requests) ->
+					unprocessed.computeIfAbsent(table, key -> new ArrayList<>()).addAll(requests));
+		}
+
+		return result.withUnprocessedItems(unprocessed);
+	}
+
+	@Override
+	public QueryResult query(final QueryRequest request) {
+		inject();
+
+		return delegate.query(request);
+	}
+
+	@Override
+	public ScanResult scan(final ScanRequest request) {
+		inject();
+
+		return delegate.scan(request);
+	}
+
+	@Override
+	public AmazonDynamoDBWaiters waiters() {
+		return delegate.waiters();
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	private void inject() {
+		faults.inject(() -> {
+			final ProvisionedThroughputExceededException e = new ProvisionedThroughputExceededException(
+					"The level of configured provisioned throughput for the table was exceeded (injected)");
+			e.setStatusCode(400);
+			e.setErrorCode("ProvisionedThroughputExceededException");
+
+			return e;
+		});
+	}
+}
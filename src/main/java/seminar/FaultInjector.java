@@ -0,0 +1,97 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Injects the faults of a remote service into in-process stand-ins: a latency drawn from a log-normal distribution,
+ * given by its median and 99th percentile, throttling of a share of the calls and partial failures of a share of the
+ * batch calls. A log-normal distribution has the long tail of real service latencies, so a few calls are much slower
+ * than the median.
+ */
+public class FaultInjector {
+
+	/** Quantile of the standard normal distribution at 0.99. */
+	private static final double Z_99 = 2.3263478740408408;
+
+	private final double mu;
+	private final double sigma;
+	private final double throttleRate;
+	private final double partialFailureRate;
+
+	/**
+	 * Creates an injector. A median of zero disables the latency.
+	 * @param medianLatency Median latency of a call
+	 * @param p99Latency 99th percentile of the latency, at least the median
+	 * @param throttleRate Share of calls that are throttled, between 0 and 1
+	 * @param partialFailureRate Share of batch calls that leave part of the batch unprocessed, between 0 and 1
+	 */
+	public FaultInjector(
+			@Nonnull final Duration medianLatency,
+			@Nonnull final Duration p99Latency,
+			final double throttleRate,
+			final double partialFailureRate
+	) {
+		final long medianNanos = medianLatency.toNanos();
+
+		this.mu = medianNanos > 0 ? Math.log(medianNanos) : Double.NEGATIVE_INFINITY;
+		this.sigma = medianNanos > 0 ? Math.max(0.0, Math.log((double) p99Latency.toNanos() / medianNanos) / Z_99) : 0.0;
+		this.throttleRate = throttleRate;
+		this.partialFailureRate = partialFailureRate;
+	}
+
+	/**
+	 * @return Injector without latency and faults
+	 */
+	@Nonnull
+	public static FaultInjector none() {
+		return new FaultInjector(Duration.ZERO, Duration.ZERO, 0.0, 0.0);
+	}
+
+	/**
+	 * Delay the calling thread by a sampled latency and throw the exception of {@code throttled} if the call is
+	 * throttled. Throttled calls are delayed as well, as the service answers them, too.
+	 * @param throttled Creates the service's throttling exception
+	 */
+	public void inject(@Nonnull final Supplier<? extends RuntimeException> throttled) {
+		final long latencyNanos = sampleLatencyNanos();
+
+		if (latencyNanos > 0) {
+			LockSupport.parkNanos(latencyNanos);
+		}
+
+		if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+			throw throttled.get();
+		}
+	}
+
+	/**
+	 * Decide how many requests of a batch call are left unprocessed.
+	 * @param batchSize Number of requests of the batch
+	 * @return Number of unprocessed requests, 0 for most calls and between 1 and {@code batchSize} otherwise
+	 */
+	public int unprocessedCount(final int batchSize) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		if (batchSize == 0 || partialFailureRate <= 0 || random.nextDouble() >= partialFailureRate) {
+			return 0;
+		}
+
+		return 1 + random.nextInt(batchSize);
+	}
+
+	/**
+	 * @return Latency of a call in nanoseconds
+	 */
+	public long sampleLatencyNanos() {
+		if (mu == Double.NEGATIVE_INFINITY) {
+			return 0L;
+		}
+
+		return (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+	}
+}
@@ -0,0 +1,792 @@
+package seminar;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.Capacity;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.dynamodbv2.waiters.AmazonDynamoDBWaiters;
+
+/**
+ * In-process stand-in for {@code AmazonDynamoDB} to benchmark and load-test client code without AWS or DynamoDB
+ * Local. Supports table management, single item operations, batch writes, key queries (key condition expressions
+ * or legacy key conditions) of the table and its secondary indexes and segmented scans with projections. Index
+ * queries evaluate all items of the table. Filter and condition expressions and updates are not supported and fail
+ * with {@code UnsupportedOperationException}.
+ */
+public class InMemoryAmazonDynamoDB extends AbstractAmazonDynamoDB {
+
+	private static final int MAX_PAGE_BYTES = 1024 * 1024;
+
+	/** Range key of items in tables without a range key. */
+	private static final AttributeValue NO_RANGE_KEY = new AttributeValue().withNULL(true);
+
+	/** Orders key values: numbers numerically, strings and binaries lexicographically. */
+	private static final Comparator<AttributeValue> KEY_ORDER = (a, b) -> {
+		if (a.getN() != null && b.getN() != null) {
+			return new BigDecimal(a.getN()).compareTo(new BigDecimal(b.getN()));
+		}
+
+		if (a.getB() != null && b.getB() != null) {
+			return a.getB().compareTo(b.getB());
+		}
+
+		return keyString(a).compareTo(keyString(b));
+	};
+
+	private final ConcurrentMap<String, InMemoryTable> tables = new ConcurrentHashMap<>();
+	private final AmazonDynamoDBWaiters waiters = new AmazonDynamoDBWaiters(this);
+
+	@Override
+	public CreateTableResult createTable(final CreateTableRequest request) {
+		final InMemoryTable table = new InMemoryTable(request);
+
+		if (tables.putIfAbsent(request.getTableName(), table) != null) {
+			throw new ResourceInUseException("Table already exists: " + request.getTableName());
+		}
+
+		return new CreateTableResult().withTableDescription(table.describe());
+	}
+
+	@Override
+	public DescribeTableResult describeTable(final DescribeTableRequest request) {
+		return new DescribeTableResult().withTable(getTable(request.getTableName()).describe());
+	}
+
+	@Override
+	public DeleteTableResult deleteTable(final DeleteTableRequest request) {
+		final InMemoryTable table = tables.remove(request.getTableName());
+
+		if (table == null) {
+			throw new ResourceNotFoundException("Table not found: " + request.getTableName());
+		}
+
+		return new DeleteTableResult().withTableDescription(table.describe().withTableStatus(TableStatus.DELETING));
+	}
+
+	@Override
+	public ListTablesResult listTables(final ListTablesRequest request) {
+		final List<String> names = new ArrayList<>(tables.keySet());
+		Collections.sort(names);
+
+		return new ListTablesResult().withTableNames(names);
+	}
+
+	@Override
+	public PutItemResult putItem(final PutItemRequest request) {
+		rejectExpression(request.getConditionExpression(), "Condition expressions");
+
+		final InMemoryTable table = getTable(request.getTableName());
+		table.put(request.getItem());
+
+		return new PutItemResult()
+				.withConsumedCapacity(consumed(table.name, writeUnits(request.getItem()), request.getReturnConsumedCapacity()));
+	}
+
+	@Override
+	public GetItemResult getItem(final GetItemRequest request) {
+		final InMemoryTable table = getTable(request.getTableName());
+		final Map<String, AttributeValue> item = table.get(request.getKey());
+
+		return new GetItemResult()
+				.withItem(item == null ? null : project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()))
+				.withConsumedCapacity(consumed(table.name, readUnits(item == null ? 0 : itemSize(item)), request.getReturnConsumedCapacity()));
+	}
+
+	@Override
+	public DeleteItemResult deleteItem(final DeleteItemRequest request) {
+		rejectExpression(request.getConditionExpression(), "Condition expressions");
+
+		final InMemoryTable table = getTable(request.getTableName());
+		final Map<String, AttributeValue> removed = table.delete(request.getKey());
+
+		return new DeleteItemResult()
+				.withConsumedCapacity(consumed(table.name, removed == null ? 1 : writeUnits(removed), request.getReturnConsumedCapacity()));
+	}
+
+	@Override
+	public BatchWriteItemResult batchWriteItem(final BatchWriteItemRequest request) {
+		final List<ConsumedCapacity> consumedCapacity = new ArrayList<>();
+
+		for (final Map.Entry<String, List<WriteRequest>> entry : request.getRequestItems().entrySet()) {
+			final InMemoryTable table = getTable(entry.getKey());
+			double units = 0;
+
+			for (final WriteRequest writeRequest : entry.getValue()) {
+				if (writeRequest.getPutRequest() != null) {
+					table.put(writeRequest.getPutRequest().getItem());
+					units += writeUnits(writeRequest.getPutRequest().getItem());
+				} else {
+					final Map<String, AttributeValue> removed = table.delete(writeRequest.getDeleteRequest().getKey());
+					units += removed == null ? 1 : writeUnits(removed);
+				}
+			}
+
+			final ConsumedCapacity capacity = consumed(table.name, units, request.getReturnConsumedCapacity());
+
+			if (capacity != null) {
+				consumedCapacity.add(capacity);
+			}
+		}
+
+		return new BatchWriteItemResult()
+				.withUnprocessedItems(new HashMap<>())
+				.withConsumedCapacity(consumedCapacity.isEmpty() ? null : consumedCapacity);
+	}
+
+	@Override
+	public QueryResult query(final QueryRequest request) {
+		rejectExpression(request.getFilterExpression(), "Filter expressions");
+
+		final InMemoryTable table = getTable(request.getTableName());
+		final Map<String, Condition> conditions = request.getKeyConditions() != null
+				? request.getKeyConditions()
+				: parseKeyConditions(request.getKeyConditionExpression(), request.getExpressionAttributeNames(),
+						request.getExpressionAttributeValues());
+
+		if (request.getIndexName() != null) {
+			return queryIndex(table, request, conditions);
+		}
+
+		final Condition hashCondition = conditions.get(table.hashKey);
+
+		if (hashCondition == null || !ComparisonOperator.EQ.toString().equals(hashCondition.getComparisonOperator())) {
+			throw new IllegalArgumentException("Query requires an equality condition on " + table.hashKey);
+		}
+
+		final NavigableMap<AttributeValue, Map<String, AttributeValue>> partition =
+				table.partitions.get(keyString(hashCondition.getAttributeValueList().get(0)));
+		final QueryResult result = new QueryResult().withItems(new ArrayList<>());
+
+		if (partition == null) {
+			return result.withCount(0).withScannedCount(0)
+					.withConsumedCapacity(consumed(table.name, 0.5, request.getReturnConsumedCapacity()));
+		}
+
+		NavigableMap<AttributeValue, Map<String, AttributeValue>> range = Boolean.FALSE.equals(request.getScanIndexForward())
+				? partition.descendingMap()
+				: partition;
+
+		if (request.getExclusiveStartKey() != null) {
+			range = range.tailMap(rangeKey(table, request.getExclusiveStartKey()), false);
+		}
+
+		final Condition rangeCondition = table.rangeKey == null ? null : conditions.get(table.rangeKey);
+		final int limit = request.getLimit() == null ? Integer.MAX_VALUE : request.getLimit();
+		int bytes = 0;
+		Map<String, AttributeValue> last = null;
+
+		for (final Map.Entry<AttributeValue, Map<String, AttributeValue>> entry : range.entrySet()) {
+			if (result.getItems().size() >= limit || bytes >= MAX_PAGE_BYTES) {
+				result.setLastEvaluatedKey(table.key(last));
+				break;
+			}
+
+			if (rangeCondition == null || matches(entry.getKey(), rangeCondition)) {
+				result.getItems().add(project(entry.getValue(), request.getProjectionExpression(), request.getExpressionAttributeNames()));
+				bytes += itemSize(entry.getValue());
+				last = entry.getValue();
+			}
+		}
+
+		return result
+				.withCount(result.getItems().size())
+				.withScannedCount(result.getItems().size())
+				.withConsumedCapacity(consumed(table.name, readUnits(bytes), request.getReturnConsumedCapacity()));
+	}
+
+	/**
+	 * Query a secondary index by evaluating all items of the table. Items without the index key attributes are not
+	 * part of the index.
+	 * @param table Table of the index
+	 * @param request Query request with index name
+	 * @param conditions Key conditions
+	 * @return Query result
+	 */
+	@Nonnull
+	private static QueryResult queryIndex(
+			@Nonnull final InMemoryTable table,
+			@Nonnull final QueryRequest request,
+			@Nonnull final Map<String, Condition> conditions
+	) {
+		final List<KeySchemaElement> schema = table.indexes.get(request.getIndexName());
+
+		if (schema == null) {
+			throw new ResourceNotFoundException("Index not found: " + request.getIndexName());
+		}
+
+		final String hashKey = schema.get(0).getAttributeName();
+		final String rangeKey = schema.size() > 1 ? schema.get(1).getAttributeName() : null;
+		final Condition hashCondition = conditions.get(hashKey);
+
+		if (hashCondition == null || !ComparisonOperator.EQ.toString().equals(hashCondition.getComparisonOperator())) {
+			throw new IllegalArgumentException("Query requires an equality condition on " + hashKey);
+		}
+
+		final String hashValue = keyString(hashCondition.getAttributeValueList().get(0));
+		final Condition rangeCondition = rangeKey == null ? null : conditions.get(rangeKey);
+		final List<Map<String, AttributeValue>> matches = new ArrayList<>();
+
+		for (final Map<AttributeValue, Map<String, AttributeValue>> partition : table.partitions.values()) {
+			for (final Map<String, AttributeValue> item : partition.values()) {
+				final AttributeValue hash = item.get(hashKey);
+				final AttributeValue range = rangeKey == null ? NO_RANGE_KEY : item.get(rangeKey);
+
+				if (hash != null && range != null && hashValue.equals(keyString(hash))
+						&& (rangeCondition == null || matches(range, rangeCondition))) {
+					matches.add(item);
+				}
+			}
+		}
+
+		final Comparator<Map<String, AttributeValue>> ascending = Comparator
+				.<Map<String, AttributeValue>, AttributeValue>comparing(item -> rangeKey == null ? NO_RANGE_KEY : item.get(rangeKey), KEY_ORDER)
+				.thenComparing(item -> keyString(item.get(table.hashKey)))
+				.thenComparing(item -> rangeKey(table, item), KEY_ORDER);
+		final Comparator<Map<String, AttributeValue>> order = Boolean.FALSE.equals(request.getScanIndexForward())
+				? ascending.reversed()
+				: ascending;
+		final Map<String, AttributeValue> startKey = request.getExclusiveStartKey();
+
+		matches.sort(order);
+
+		final QueryResult result = new QueryResult().withItems(new ArrayList<>());
+		final int limit = request.getLimit() == null ? Integer.MAX_VALUE : request.getLimit();
+		int bytes = 0;
+		Map<String, AttributeValue> last = null;
+
+		for (final Map<String, AttributeValue> item : matches) {
+			if (startKey != null && order.compare(item, startKey) <= 0) {
+				continue;
+			}
+
+			if (result.getItems().size() >= limit || bytes >= MAX_PAGE_BYTES) {
+				final Map<String, AttributeValue> lastEvaluatedKey = table.key(last);
+				lastEvaluatedKey.put(hashKey, last.get(hashKey));
+
+				if (rangeKey != null) {
+					lastEvaluatedKey.put(rangeKey, last.get(rangeKey));
+				}
+
+				result.setLastEvaluatedKey(lastEvaluatedKey);
+				break;
+			}
+
+			result.getItems().add(project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()));
+			bytes += itemSize(item);
+			last = item;
+		}
+
+		return result
+				.withCount(result.getItems().size())
+				.withScannedCount(result.getItems().size())
+				.withConsumedCapacity(consumed(table.name, readUnits(bytes), request.getReturnConsumedCapacity()));
+	}
+
+	@Override
+	public ScanResult scan(final ScanRequest request) {
+		rejectExpression(request.getIndexName(), "Secondary indexes");
+		rejectExpression(request.getFilterExpression(), "Filter expressions");
+
+		final InMemoryTable table = getTable(request.getTableName());
+		final int segment = request.getSegment() == null ? 0 : request.getSegment();
+		final int totalSegments = request.getTotalSegments() == null ? 1 : request.getTotalSegments();
+		final int limit = request.getLimit() == null ? Integer.MAX_VALUE : request.getLimit();
+		final Predicate<String> inSegment = hashKey -> Math.floorMod(hashKey.hashCode(), totalSegments) == segment;
+
+		NavigableMap<String, ConcurrentSkipListMap<AttributeValue, Map<String, AttributeValue>>> partitions = table.partitions;
+		String startHash = null;
+		AttributeValue startRange = null;
+
+		if (request.getExclusiveStartKey() != null) {
+			startHash = keyString(request.getExclusiveStartKey().get(table.hashKey));
+			startRange = rangeKey(table, request.getExclusiveStartKey());
+			partitions = partitions.tailMap(startHash, true);
+		}
+
+		final ScanResult result = new ScanResult().withItems(new ArrayList<>());
+		int bytes = 0;
+		Map<String, AttributeValue> last = null;
+
+		outer:
+		for (final Map.Entry<String, ConcurrentSkipListMap<AttributeValue, Map<String, AttributeValue>>> partition : partitions.entrySet()) {
+			if (!inSegment.test(partition.getKey())) {
+				continue;
+			}
+
+			final NavigableMap<AttributeValue, Map<String, AttributeValue>> items = partition.getKey().equals(startHash)
+					? partition.getValue().tailMap(startRange, false)
+					: partition.getValue();
+
+			for (final Map<String, AttributeValue> item : items.values()) {
+				if (result.getItems().size() >= limit || bytes >= MAX_PAGE_BYTES) {
+					result.setLastEvaluatedKey(table.key(last));
+					break outer;
+				}
+
+				result.getItems().add(project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()));
+				bytes += itemSize(item);
+				last = item;
+			}
+		}
+
+		return result
+				.withCount(result.getItems().size())
+				.withScannedCount(result.getItems().size())
+				.withConsumedCapacity(consumed(table.name, readUnits(bytes), request.getReturnConsumedCapacity()));
+	}
+
+	@Override
+	public AmazonDynamoDBWaiters waiters() {
+		return waiters;
+	}
+
+	@Override
+	public void shutdown() {
+		waiters.shutdown();
+	}
+
+	@Nonnull
+	private InMemoryTable getTable(@Nonnull final String tableName) {
+		final InMemoryTable table = tables.get(tableName);
+
+		if (table == null) {
+			throw new ResourceNotFoundException("Table not found: " + tableName);
+		}
+
+		return table;
+	}
+
+	private static void rejectExpression(@CheckForNull final String expression, @Nonnull final String feature) {
+		if (expression != null) {
+			throw new UnsupportedOperationException(feature + " are not supported by the in-memory DynamoDB");
+		}
+	}
+
+	/**
+	 * Parse a key condition expression of the form {@code #h = :h [AND #r <op> :r | AND #r BETWEEN :a AND :b]}.
+	 * @param expression Key condition expression
+	 * @param names Expression attribute names
+	 * @param values Expression attribute values
+	 * @return Conditions by attribute name
+	 */
+	@Nonnull
+	private static Map<String, Condition> parseKeyConditions(
+			@CheckForNull final String expression,
+			@CheckForNull final Map<String, String> names,
+			@CheckForNull final Map<String, AttributeValue> values
+	) {
+		if (expression == null) {
+			throw new IllegalArgumentException("Query requires a key condition");
+		}
+
+		final Map<String, Condition> conditions = new HashMap<>();
+		final String[] tokens = expression.trim().split("\\s+");
+
+		for (int i = 0; i < tokens.length; ) {
+			if ("AND".equals(tokens[i].toUpperCase(Locale.ROOT))) {
+				i++;
+				continue;
+			}
+
+			final String name = resolveName(tokens[i], names);
+			final String operator = tokens[i + 1].toUpperCase(Locale.ROOT);
+
+			if ("BETWEEN".equals(operator)) {
+				conditions.put(name, new Condition()
+						.withComparisonOperator(ComparisonOperator.BETWEEN)
+						.withAttributeValueList(values.get(tokens[i + 2]), values.get(tokens[i + 4])));
+				i += 5;
+			} else {
+				conditions.put(name, new Condition()
+						.withComparisonOperator(toComparisonOperator(operator))
+						.withAttributeValueList(values.get(tokens[i + 2])));
+				i += 3;
+			}
+		}
+
+		return conditions;
+	}
+
+	@Nonnull
+	private static String resolveName(@Nonnull final String token, @CheckForNull final Map<String, String> names) {
+		return names != null && names.containsKey(token) ? names.get(token) : token;
+	}
+
+	@Nonnull
+	private static ComparisonOperator toComparisonOperator(@Nonnull final String operator) {
+		switch (operator) {
+			case "=":
+				return ComparisonOperator.EQ;
+			case "<":
+				return ComparisonOperator.LT;
+			case "<=":
+				return ComparisonOperator.LE;
+			case ">":
+				return ComparisonOperator.GT;
+			case ">=":
+				return ComparisonOperator.GE;
+			default:
+				throw new UnsupportedOperationException("Key condition operator " + operator + " is not supported");
+		}
+	}
+
+	private static boolean matches(@Nonnull final AttributeValue value, @Nonnull final Condition condition) {
+		final List<AttributeValue> operands = condition.getAttributeValueList();
+		final int compared = KEY_ORDER.compare(value, operands.get(0));
+
+		switch (ComparisonOperator.fromValue(condition.getComparisonOperator())) {
+			case EQ:
+				return compared == 0;
+			case LT:
+				return compared < 0;
+			case LE:
+				return compared <= 0;
+			case GT:
+				return compared > 0;
+			case GE:
+				return compared >= 0;
+			case BETWEEN:
+				return compared >= 0 && KEY_ORDER.compare(value, operands.get(1)) <= 0;
+			default:
+				throw new UnsupportedOperationException("Key condition " + condition + " is not supported");
+		}
+	}
+
+	/**
+	 * Apply a projection expression of top-level or nested map paths to given {@code item}.
+	 * @param item Stored item
+	 * @param expression Projection expression, {@code null} for all attributes
+	 * @param names Expression attribute names
+	 * @return Projected item
+	 */
+	@Nonnull
+	private static Map<String, AttributeValue> project(
+			@Nonnull final Map<String, AttributeValue> item,
+			@CheckForNull final String expression,
+			@CheckForNull final Map<String, String> names
+	) {
+		if (expression == null) {
+			return new HashMap<>(item);
+		}
+
+		final Map<String, AttributeValue> projected = new HashMap<>();
+
+		for (final String path : expression.split(",")) {
+			final String[] elements = path.trim().split("\\.");
+			Map<String, AttributeValue> source = item;
+			Map<String, AttributeValue> target = projected;
+
+			for (int i = 0; i < elements.length && source != null; i++) {
+				final String name = resolveName(elements[i], names);
+				final AttributeValue value = source.get(name);
+
+				if (value == null) {
+					break;
+				}
+
+				if (i == elements.length - 1) {
+					target.put(name, value);
+				} else {
+					source = value.getM();
+					target = target.computeIfAbsent(name, n -> new AttributeValue().withM(new HashMap<>())).getM();
+				}
+			}
+		}
+
+		return projected;
+	}
+
+	@CheckForNull
+	private static ConsumedCapacity consumed(
+			@Nonnull final String tableName,
+			final double units,
+			@CheckForNull final String returnConsumedCapacity
+	) {
+		if (returnConsumedCapacity == null || ReturnConsumedCapacity.NONE.toString().equals(returnConsumedCapacity)) {
+			return null;
+		}
+
+		final ConsumedCapacity consumed = new ConsumedCapacity().withTableName(tableName).withCapacityUnits(units);
+
+		// Indexes are not charged, so the breakdown consists of the table only.
+		if (ReturnConsumedCapacity.INDEXES.toString().equals(returnConsumedCapacity)) {
+			consumed.setTable(new Capacity().withCapacityUnits(units));
+		}
+
+		return consumed;
+	}
+
+	private static double writeUnits(@Nonnull final Map<String, AttributeValue> item) {
+		return Math.max(1, Math.ceil(itemSize(item) / 1024.0));
+	}
+
+	private static double readUnits(final int bytes) {
+		return Math.max(0.5, Math.ceil(bytes / 4096.0) * 0.5);
+	}
+
+	/**
+	 * Approximate the stored size of given {@code item} following the DynamoDB item size rules.
+	 * @param item Item attributes
+	 * @return Size in bytes
+	 */
+	static int itemSize(@Nonnull final Map<String, AttributeValue> item) {
+		int size = 0;
+
+		for (final Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+			size += attribute.getKey().length() + valueSize(attribute.getValue());
+		}
+
+		return size;
+	}
+
+	private static int valueSize(@Nonnull final AttributeValue value) {
+		if (value.getS() != null) {
+			return value.getS().getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		if (value.getN() != null) {
+			return value.getN().length() / 2 + 1;
+		}
+
+		if (value.getB() != null) {
+			return value.getB().remaining();
+		}
+
+		if (value.getM() != null) {
+			return 3 + itemSize(value.getM());
+		}
+
+		if (value.getL() != null) {
+			int size = 3;
+
+			for (final AttributeValue element : value.getL()) {
+				size += 1 + valueSize(element);
+			}
+
+			return size;
+		}
+
+		if (value.getSS() != null) {
+			int size = 0;
+
+			for (final String element : value.getSS()) {
+				size += element.getBytes(StandardCharsets.UTF_8).length;
+			}
+
+			return size;
+		}
+
+		if (value.getNS() != null) {
+			int size = 0;
+
+			for (final String element : value.getNS()) {
+				size += element.length() / 2 + 1;
+			}
+
+			return size;
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Canonical string of a key value, numbers are normalized so {@code 1.0} and {@code 1} are the same key.
+	 * @param value Key attribute value
+	 * @return Key string
+	 */
+	@Nonnull
+	private static String keyString(@Nonnull final AttributeValue value) {
+		if (value.getS() != null) {
+			return "S" + value.getS();
+		}
+
+		if (value.getN() != null) {
+			return "N" + new BigDecimal(value.getN()).stripTrailingZeros().toPlainString();
+		}
+
+		if (value.getB() != null) {
+			return "B" + StandardCharsets.ISO_8859_1.decode(value.getB().duplicate());
+		}
+
+		if (Boolean.TRUE.equals(value.getNULL())) {
+			return "";
+		}
+
+		throw new IllegalArgumentException("Invalid key value " + value);
+	}
+
+	@Nonnull
+	private static AttributeValue rangeKey(@Nonnull final InMemoryTable table, @Nonnull final Map<String, AttributeValue> key) {
+		return table.rangeKey == null ? NO_RANGE_KEY : key.get(table.rangeKey);
+	}
+
+	private static final class InMemoryTable {
+
+		private final String name;
+		private final String hashKey;
+		@CheckForNull
+		private final String rangeKey;
+		private final CreateTableRequest definition;
+		private final Map<String, List<KeySchemaElement>> indexes = new HashMap<>();
+		private final Date creationDateTime = new Date();
+		private final ConcurrentSkipListMap<String, ConcurrentSkipListMap<AttributeValue, Map<String, AttributeValue>>> partitions =
+				new ConcurrentSkipListMap<>();
+
+		private InMemoryTable(@Nonnull final CreateTableRequest definition) {
+			String hash = null;
+			String range = null;
+
+			for (final KeySchemaElement element : definition.getKeySchema()) {
+				if (KeyType.HASH.toString().equals(element.getKeyType())) {
+					hash = element.getAttributeName();
+				} else {
+					range = element.getAttributeName();
+				}
+			}
+
+			if (hash == null) {
+				throw new IllegalArgumentException("Table " + definition.getTableName() + " has no hash key");
+			}
+
+			this.name = definition.getTableName();
+			this.hashKey = hash;
+			this.rangeKey = range;
+			this.definition = definition;
+
+			if (definition.getGlobalSecondaryIndexes() != null) {
+				for (final GlobalSecondaryIndex index : definition.getGlobalSecondaryIndexes()) {
+					indexes.put(index.getIndexName(), sortedKeySchema(index.getKeySchema()));
+				}
+			}
+
+			if (definition.getLocalSecondaryIndexes() != null) {
+				for (final LocalSecondaryIndex index : definition.getLocalSecondaryIndexes()) {
+					indexes.put(index.getIndexName(), sortedKeySchema(index.getKeySchema()));
+				}
+			}
+		}
+
+		/**
+		 * @param keySchema Key schema
+		 * @return Key schema with the hash key first
+		 */
+		@Nonnull
+		private static List<KeySchemaElement> sortedKeySchema(@Nonnull final List<KeySchemaElement> keySchema) {
+			final List<KeySchemaElement> sorted = new ArrayList<>(keySchema);
+			sorted.sort(Comparator.comparing(element -> KeyType.HASH.toString().equals(element.getKeyType()) ? 0 : 1));
+
+			return sorted;
+		}
+
+		private void put(@Nonnull final Map<String, AttributeValue> item) {
+			partitions.computeIfAbsent(keyString(item.get(hashKey)), k -> new ConcurrentSkipListMap<>(KEY_ORDER))
+					.put(rangeKey(this, item), new HashMap<>(item));
+		}
+
+		@CheckForNull
+		private Map<String, AttributeValue> get(@Nonnull final Map<String, AttributeValue> key) {
+			final Map<AttributeValue, Map<String, AttributeValue>> partition = partitions.get(keyString(key.get(hashKey)));
+
+			return partition == null ? null : partition.get(rangeKey(this, key));
+		}
+
+		@CheckForNull
+		private Map<String, AttributeValue> delete(@Nonnull final Map<String, AttributeValue> key) {
+			final Map<AttributeValue, Map<String, AttributeValue>> partition = partitions.get(keyString(key.get(hashKey)));
+
+			return partition == null ? null : partition.remove(rangeKey(this, key));
+		}
+
+		@CheckForNull
+		private Map<String, AttributeValue> key(@CheckForNull final Map<String, AttributeValue> item) {
+			if (item == null) {
+				return null;
+			}
+
+			final Map<String, AttributeValue> key = new HashMap<>();
+			key.put(hashKey, item.get(hashKey));
+
+			if (rangeKey != null) {
+				key.put(rangeKey, item.get(rangeKey));
+			}
+
+			return key;
+		}
+
+		@Nonnull
+		private TableDescription describe() {
+			long itemCount = 0;
+
+			for (final Map<?, ?> partition : partitions.values()) {
+				itemCount += partition.size();
+			}
+
+			final ProvisionedThroughput throughput = definition.getProvisionedThroughput();
+
+			return new TableDescription()
+					.withTableName(name)
+					.withTableId(Integer.toHexString(System.identityHashCode(this)))
+					.withTableStatus(TableStatus.ACTIVE)
+					.withCreationDateTime(creationDateTime)
+					.withKeySchema(definition.getKeySchema())
+					.withAttributeDefinitions(definition.getAttributeDefinitions())
+					.withItemCount(itemCount)
+					.withProvisionedThroughput(throughput == null ? null : new ProvisionedThroughputDescription()
+							.withReadCapacityUnits(throughput.getReadCapacityUnits())
+							.withWriteCapacityUnits(throughput.getWriteCapacityUnits()));
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package seminar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Progress of a load persisted in a local properties file: the source that is loaded, the {@code TableId} of the
+ * table it is loaded into and the number of its leading records that are committed to the table. The file is
+ * replaced atomically, so a crash while saving leaves the previous checkpoint intact.
+ */
+public class IngestionCheckpoint {
+
+	private static final String SOURCE = "source";
+	private static final String TABLE_ID = "tableId";
+	private static final String OFFSET = "offset";
+
+	private final Path file;
+
+	/**
+	 * Creates a checkpoint stored in given {@code file}.
+	 * @param file Checkpoint file
+	 */
+	public IngestionCheckpoint(@Nonnull final Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Load the committed offset of given {@code source} in the table with {@code tableId}.
+	 * @param source Identity of the loaded input, i.e. file name and modification time
+	 * @param tableId {@code TableId} of the target table
+	 * @return Number of committed leading records, 0 if there is no checkpoint for {@code source} and the table
+	 * @throws IOException If the checkpoint file exists but cannot be read
+	 */
+	public long load(@Nonnull final String source, @Nonnull final String tableId) throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+
+		final Properties properties = new Properties();
+
+		try (final InputStream input = Files.newInputStream(file)) {
+			properties.load(input);
+		}
+
+		if (!source.equals(properties.getProperty(SOURCE)) || !tableId.equals(properties.getProperty(TABLE_ID))) {
+			return 0;
+		}
+
+		return Long.parseLong(properties.getProperty(OFFSET, "0"));
+	}
+
+	/**
+	 * Save the committed offset of given {@code source} in the table with {@code tableId}.
+	 * @param source Identity of the loaded input
+	 * @param tableId {@code TableId} of the target table
+	 * @param offset Number of committed leading records
+	 * @throws IOException If the checkpoint cannot be written
+	 */
+	public void save(@Nonnull final String source, @Nonnull final String tableId, final long offset) throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty(SOURCE, source);
+		properties.setProperty(TABLE_ID, tableId);
+		properties.setProperty(OFFSET, Long.toString(offset));
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		properties.store(output, "Movie ingestion checkpoint");
+
+		replaceAtomically(file, output.toByteArray());
+	}
+
+	/**
+	 * Remove the checkpoint after the complete source was loaded.
+	 * @throws IOException If the checkpoint file cannot be deleted
+	 */
+	public void clear() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Replace {@code target} with {@code content} by writing and syncing a temporary file next to it and moving it
+	 * over the target, so readers see either the old or the new content but never a partial file.
+	 * @param target File to replace
+	 * @param content New content
+	 * @throws IOException If the file cannot be written
+	 */
+	static void replaceAtomically(@Nonnull final Path target, @Nonnull final byte[] content) throws IOException {
+		final Path directory = target.toAbsolutePath().getParent();
+		final Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+
+		try {
+			try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				final ByteBuffer buffer = ByteBuffer.wrap(content);
+
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+
+				channel.force(true);
+			}
+
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package seminar;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets in microseconds. Each power of two is split into four
+ * buckets, so a percentile is reported with a relative error of at most 25% regardless of the magnitude, while
+ * recording a value is a single {@code LongAdder} increment.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0L);
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a latency.
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(final long nanos) {
+		final long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+
+		counts[bucket(micros)].increment();
+		total.increment();
+		maxMicros.accumulate(micros);
+	}
+
+	/**
+	 * @return Number of recorded latencies
+	 */
+	public long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * @return Highest recorded latency in milliseconds
+	 */
+	public double getMaxMillis() {
+		return maxMicros.get() / 1000.0;
+	}
+
+	/**
+	 * @param percentile Percentile between 0 and 100, i.e. 99.9
+	 * @return Upper bound of the bucket containing the percentile in milliseconds, 0 if nothing was recorded
+	 */
+	public double getPercentileMillis(final double percentile) {
+		final long count = total.sum();
+
+		if (count == 0) {
+			return 0.0;
+		}
+
+		final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i].sum();
+
+			if (seen >= rank) {
+				return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+			}
+		}
+
+		return getMaxMillis();
+	}
+
+	/**
+	 * Forget all recorded latencies.
+	 */
+	public void reset() {
+		for (final LongAdder count : counts) {
+			count.reset();
+		}
+
+		total.reset();
+		maxMicros.reset();
+	}
+
+	private static int bucket(final long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+
+		final int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		final int subBucket = (int) (micros >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBound(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+		return lowerBound + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,269 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Runs a mix of weighted operations at a target rate for a given duration and reports throughput and latency
+ * percentiles per operation. The load is open: the n-th operation is scheduled at {@code n / targetOpsPerSecond}
+ * regardless of how long earlier operations took, and its latency is measured from that intended start. Once the
+ * system under test cannot keep up, operations queue behind busy threads and the queueing shows up in the latency,
+ * instead of silently lowering the offered load. A target rate of 0 runs the operations back to back.
+ */
+public class LoadGenerator {
+
+	private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+	private final double targetOpsPerSecond;
+	private final Duration duration;
+	private final int threads;
+
+	private final Map<String, WeightedOperation> operations = new LinkedHashMap<>();
+	private int totalWeight;
+
+	/**
+	 * Creates a generator without operations.
+	 * @param targetOpsPerSecond Offered load over all operations, 0 for as fast as possible
+	 * @param duration Duration of a run
+	 * @param threads Maximum number of concurrent operations
+	 */
+	public LoadGenerator(final double targetOpsPerSecond, @Nonnull final Duration duration, final int threads) {
+		this.targetOpsPerSecond = targetOpsPerSecond;
+		this.duration = duration;
+		this.threads = threads;
+	}
+
+	/**
+	 * Add an operation to the mix. An operation is picked with a probability of its weight over the total weight.
+	 * @param name Name in the report
+	 * @param weight Relative weight, operations with weight 0 are left out
+	 * @param operation Operation, called concurrently; an exception counts as an error of the operation
+	 * @return This generator
+	 */
+	@Nonnull
+	public LoadGenerator add(@Nonnull final String name, final int weight, @Nonnull final Runnable operation) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Negative weight " + weight + " of operation " + name);
+		}
+
+		if (operations.containsKey(name)) {
+			throw new IllegalArgumentException("Operation " + name + " added twice");
+		}
+
+		if (weight > 0) {
+			totalWeight += weight;
+			operations.put(name, new WeightedOperation(name, totalWeight, operation));
+		}
+
+		return this;
+	}
+
+	/**
+	 * Run the mix for the configured duration and log the report.
+	 * @return Statistics per operation name
+	 */
+	@Nonnull
+	public Map<String, OperationStats> run() {
+		if (operations.isEmpty()) {
+			throw new IllegalStateException("No operations to run");
+		}
+
+		final List<WeightedOperation> mix = new ArrayList<>(operations.values());
+		final long intervalNanos = targetOpsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / targetOpsPerSecond) : 0L;
+		final AtomicLong tickets = new AtomicLong();
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			final Thread thread = new Thread(runnable, "load-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		final long startNanos = System.nanoTime();
+		final long endNanos = startNanos + duration.toNanos();
+
+		try {
+			final List<CompletableFuture<Void>> workers = new ArrayList<>(threads);
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(CompletableFuture.runAsync(() -> work(mix, tickets, intervalNanos, startNanos, endNanos), executor));
+			}
+
+			CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+		final Map<String, OperationStats> stats = new LinkedHashMap<>();
+		long completed = 0;
+
+		for (final WeightedOperation operation : mix) {
+			stats.put(operation.stats.name, operation.stats);
+			completed += operation.stats.latency.getCount() + operation.stats.getErrorCount();
+		}
+
+		logger.log(Level.INFO, "Load of {0} ops/s for {1} s on {2} threads: {3} ops, {4} ops/s", new Object[]{
+				targetOpsPerSecond > 0 ? String.format("%.0f", targetOpsPerSecond) : "unlimited",
+				duration.getSeconds(),
+				threads,
+				completed,
+				String.format("%.1f", completed / elapsedSeconds)
+		});
+
+		for (final OperationStats operation : stats.values()) {
+			logger.log(Level.INFO, "{0}: {1} ok, {2} errors {3}, {4} ops/s, latency p50 {5} ms, p99 {6} ms, p99.9 {7} ms, max {8} ms",
+					new Object[]{
+							operation.name,
+							operation.latency.getCount(),
+							operation.getErrorCount(),
+							operation.getErrors(),
+							String.format("%.1f", operation.latency.getCount() / elapsedSeconds),
+							operation.latency.getPercentileMillis(50),
+							operation.latency.getPercentileMillis(99),
+							operation.latency.getPercentileMillis(99.9),
+							operation.latency.getMaxMillis()
+					});
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Take tickets until the run ends, wait for each ticket's scheduled start and run a randomly picked operation.
+	 * @param mix Operations with cumulative weights
+	 * @param tickets Shared ticket counter
+	 * @param intervalNanos Time between two scheduled starts, 0 for no schedule
+	 * @param startNanos Start of the run
+	 * @param endNanos End of the run
+	 */
+	private void work(
+			@Nonnull final List<WeightedOperation> mix,
+			@Nonnull final AtomicLong tickets,
+			final long intervalNanos,
+			final long startNanos,
+			final long endNanos
+	) {
+		while (!Thread.currentThread().isInterrupted()) {
+			final long ticket = tickets.getAndIncrement();
+			final long scheduledNanos = intervalNanos > 0 ? startNanos + ticket * intervalNanos : System.nanoTime();
+
+			if (scheduledNanos - endNanos >= 0) {
+				return;
+			}
+
+			for (long wait = scheduledNanos - System.nanoTime(); wait > 0; wait = scheduledNanos - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+
+			final WeightedOperation operation = pick(mix);
+
+			try {
+				operation.operation.run();
+				operation.stats.latency.record(System.nanoTime() - scheduledNanos);
+			} catch (final RuntimeException e) {
+				operation.stats.errors.computeIfAbsent(e.getClass().getSimpleName(), key -> new LongAdder()).increment();
+			}
+		}
+	}
+
+	@Nonnull
+	private WeightedOperation pick(@Nonnull final List<WeightedOperation> mix) {
+		final int value = ThreadLocalRandom.current().nextInt(totalWeight);
+
+		for (final WeightedOperation operation : mix) {
+			if (value < operation.cumulativeWeight) {
+				return operation;
+			}
+		}
+
+		return mix.get(mix.size() - 1);
+	}
+
+	/**
+	 * Operation of the mix with the sum of its own and all previous weights.
+	 */
+	private static final class WeightedOperation {
+
+		private final int cumulativeWeight;
+		private final Runnable operation;
+		private final OperationStats stats;
+
+		private WeightedOperation(@Nonnull final String name, final int cumulativeWeight, @Nonnull final Runnable operation) {
+			this.cumulativeWeight = cumulativeWeight;
+			this.operation = operation;
+			this.stats = new OperationStats(name);
+		}
+	}
+
+	/**
+	 * Latency of the successful calls and errors by exception type of an operation.
+	 */
+	public static final class OperationStats {
+
+		private final String name;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+		private OperationStats(@Nonnull final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return Name of the operation
+		 */
+		@Nonnull
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return Latency of successful calls from their scheduled start
+		 */
+		@Nonnull
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return Number of failed calls
+		 */
+		public long getErrorCount() {
+			long count = 0;
+
+			for (final LongAdder adder : errors.values()) {
+				count += adder.sum();
+			}
+
+			return count;
+		}
+
+		/**
+		 * @return Number of failed calls by simple name of the exception
+		 */
+		@Nonnull
+		public Map<String, Long> getErrors() {
+			final Map<String, Long> counts = new LinkedHashMap<>();
+			errors.forEach((type, adder) -> counts.put(type, adder.sum()));
+
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package seminar;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.dynamodbv2.util.TableUtils;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceType;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+
+/**
+ * Load test of the DynamoDB or EC2 client code with a configurable mix of operations, run by a {@link LoadGenerator}.
+ * By default it runs against in-process stand-ins, an {@link InMemoryAmazonDynamoDB} decorated with a
+ * {@link FaultInjectingAmazonDynamoDB} or a {@link FakeAmazonEC2}, which inject latency, throttling and partial
+ * batch failures. With {@code load.backend=aws} it runs against AWS or the endpoints of {@code dynamodb.endpoint}
+ * and {@code ec2.endpoint} instead.
+ * <p>
+ * The DynamoDB workload puts, gets, deletes and batch-writes random movies and queries years of a table of its own.
+ * The key space is skewed: a share of the operations hits a few hot years. The EC2 workload describes, launches and
+ * terminates instances and acquires and releases instances of a warm pool.
+ */
+public class LoadTest {
+
+	private static final Logger logger = Logger.getLogger(LoadTest.class.getName());
+
+	// Workload "dynamodb" or "ec2" and backend "fake" for the in-process stand-ins or "aws".
+	private static final String WORKLOAD = System.getProperty("load.workload", "dynamodb");
+	private static final String BACKEND = System.getProperty("load.backend", "fake");
+
+	private static final double OPS_PER_SECOND = Double.parseDouble(System.getProperty("load.opsPerSecond", "1000"));
+	private static final Duration DURATION = Duration.ofSeconds(Long.getLong("load.durationSeconds", 30L));
+	private static final int THREADS = Integer.getInteger("load.threads", 64);
+
+	// Relative weights of the operations, i.e. put=40,get=40,query=15,delete=5.
+	private static final String DYNAMODB_MIX = System.getProperty("load.mix", "put=35,get=40,query=15,delete=5,batch=5");
+	private static final String EC2_MIX = System.getProperty("load.mix", "describe=90,launch=5,acquire=5");
+
+	// Key space of the DynamoDB workload, hotShare of the operations hit the last hotYears years.
+	private static final String TABLE_NAME = System.getProperty("load.table", "LoadTestMovies");
+	private static final int FROM_YEAR = Integer.getInteger("load.fromYear", 1920);
+	private static final int TO_YEAR = Integer.getInteger("load.toYear", 2018);
+	private static final int TITLES_PER_YEAR = Integer.getInteger("load.titlesPerYear", 100);
+	private static final int HOT_YEARS = Integer.getInteger("load.hotYears", 3);
+	private static final double HOT_SHARE = Double.parseDouble(System.getProperty("load.hotShare", "0.5"));
+
+	// Instances described by the EC2 workload and idle instances of its warm pool.
+	private static final int EC2_INSTANCES = Integer.getInteger("load.ec2Instances", 20);
+	private static final int WARM_POOL_SIZE = Integer.getInteger("load.warmPoolSize", 4);
+	// Launch specification of the EC2 workload, key pair and security group have to exist for the aws backend.
+	private static final String EC2_IMAGE_ID = System.getProperty("load.ec2ImageId", "ami-07ebfd5b3428b6f4d");
+	private static final String EC2_KEY_NAME = System.getProperty("load.ec2KeyName", "assignment4");
+	private static final String EC2_SECURITY_GROUP_ID = System.getProperty("load.ec2SecurityGroupId", "sg-load-test");
+
+	// Faults injected by the stand-ins.
+	private static final Duration LATENCY_MEDIAN = Duration.ofNanos((long) (Double.parseDouble(System.getProperty("load.latencyMedianMillis", "5")) * 1_000_000));
+	private static final Duration LATENCY_P99 = Duration.ofNanos((long) (Double.parseDouble(System.getProperty("load.latencyP99Millis", "50")) * 1_000_000));
+	private static final double THROTTLE_RATE = Double.parseDouble(System.getProperty("load.throttleRate", "0.0"));
+	private static final double PARTIAL_BATCH_RATE = Double.parseDouble(System.getProperty("load.partialBatchRate", "0.0"));
+	private static final Duration EC2_TRANSITION = Duration.ofMillis(Long.getLong("load.ec2TransitionMillis", 2000L));
+
+	private static final List<String> GENRES = Arrays.asList("Drama", "Comedy", "Action", "Thriller", "Documentary");
+
+	public static void main(final String[] args) {
+		final FaultInjector faults = new FaultInjector(LATENCY_MEDIAN, LATENCY_P99, THROTTLE_RATE, PARTIAL_BATCH_RATE);
+		final boolean fake = "fake".equals(BACKEND);
+
+		logger.log(Level.INFO, "Load test of {0} against {1} backend", new Object[]{WORKLOAD, BACKEND});
+
+		if ("ec2".equals(WORKLOAD)) {
+			final AmazonEC2 client = fake
+					? new FakeAmazonEC2(EC2_TRANSITION, faults)
+					: AwsClientFactory.ec2(Regions.US_EAST_1, System.getProperty("ec2.endpoint"));
+
+			runEc2Workload(client);
+		} else if ("dynamodb".equals(WORKLOAD)) {
+			final AmazonDynamoDB backend = fake
+					? new InMemoryAmazonDynamoDB()
+					: AwsClientFactory.dynamoDb(Regions.US_EAST_1, System.getProperty("dynamodb.endpoint"));
+
+			createTable(backend);
+			preload(backend);
+
+			runDynamoDbWorkload(fake ? new FaultInjectingAmazonDynamoDB(backend, faults) : backend);
+		} else {
+			throw new IllegalArgumentException("Unknown workload " + WORKLOAD + ", expected dynamodb or ec2");
+		}
+
+		if (!fake) {
+			AwsCallMetrics.shared().logSummary();
+		}
+	}
+
+	/**
+	 * Run the DynamoDB mix of {@code DYNAMODB_MIX} on the load test table.
+	 * @param client Amazon DynamoDB client, possibly injecting faults
+	 */
+	private static void runDynamoDbWorkload(@Nonnull final AmazonDynamoDB client) {
+		final Map<String, Integer> mix = parseMix(DYNAMODB_MIX, "put", "get", "query", "delete", "batch");
+		final BatchWriter batchWriter = new BatchWriter(client, TABLE_NAME, 1);
+
+		try {
+			new LoadGenerator(OPS_PER_SECOND, DURATION, THREADS)
+					.add("put", mix.getOrDefault("put", 0), () -> client.putItem(new PutItemRequest()
+							.withTableName(TABLE_NAME)
+							.withItem(randomMovie())))
+					.add("get", mix.getOrDefault("get", 0), () -> client.getItem(new GetItemRequest()
+							.withTableName(TABLE_NAME)
+							.withKey(randomKey())))
+					.add("query", mix.getOrDefault("query", 0), () -> client.query(new QueryRequest()
+							.withTableName(TABLE_NAME)
+							.withKeyConditionExpression("#year = :year")
+							.withExpressionAttributeNames(Collections.singletonMap("#year", MovieIndexes.YEAR))
+							.withExpressionAttributeValues(Collections.singletonMap(":year", randomKey().get(MovieIndexes.YEAR)))
+							.withLimit(25)))
+					.add("delete", mix.getOrDefault("delete", 0), () -> client.deleteItem(new DeleteItemRequest()
+							.withTableName(TABLE_NAME)
+							.withKey(randomKey())))
+					.add("batch", mix.getOrDefault("batch", 0), () -> {
+						// DynamoDB rejects batches that write a key twice, so hot keys are drawn until all are distinct.
+						final Map<String, WriteRequest> requests = new LinkedHashMap<>();
+
+						while (requests.size() < BatchWriter.MAX_BATCH_SIZE) {
+							final Map<String, AttributeValue> movie = randomMovie();
+							requests.put(movie.get(MovieIndexes.YEAR).getN() + "/" + movie.get(MovieIndexes.TITLE).getS(),
+									new WriteRequest().withPutRequest(new PutRequest().withItem(movie)));
+						}
+
+						if (!batchWriter.writeBatch(new ArrayList<>(requests.values()))) {
+							throw new IllegalStateException("Batch write failed");
+						}
+					})
+					.run();
+		} finally {
+			batchWriter.close();
+		}
+	}
+
+	/**
+	 * Launch {@code EC2_INSTANCES} instances and run the EC2 mix of {@code EC2_MIX}: describe a random instance,
+	 * launch and terminate an instance or acquire and release an instance of a warm pool. All instances are
+	 * terminated afterwards, the idle instances of the warm pool as well.
+	 * @param client Amazon EC2 client
+	 */
+	private static void runEc2Workload(@Nonnull final AmazonEC2 client) {
+		final Map<String, Integer> mix = parseMix(EC2_MIX, "describe", "launch", "acquire");
+		final Ec2WarmPool pool = new Ec2WarmPool(client, "load-test", WARM_POOL_SIZE, false, EC2_IMAGE_ID,
+				InstanceType.T2Nano, EC2_KEY_NAME, EC2_SECURITY_GROUP_ID, "/dev/sdi", 8, 4);
+
+		try (final Ec2Fleet fleet = new Ec2Fleet(client, "load-test", 4)) {
+			final List<Instance> instances = fleet.launch(EC2_IMAGE_ID, InstanceType.T2Nano, EC2_KEY_NAME,
+					EC2_SECURITY_GROUP_ID, EC2_INSTANCES);
+
+			if (mix.getOrDefault("acquire", 0) > 0) {
+				pool.start(Duration.ofSeconds(1));
+			}
+
+			new LoadGenerator(OPS_PER_SECOND, DURATION, THREADS)
+					.add("describe", mix.getOrDefault("describe", 0), () -> Ec2StateWaiter.describeInstances(client,
+							Collections.singletonList(instances.get(ThreadLocalRandom.current().nextInt(instances.size())).getInstanceId())))
+					.add("launch", mix.getOrDefault("launch", 0), () -> {
+						final String instanceId = client.runInstances(new RunInstancesRequest()
+								.withImageId(EC2_IMAGE_ID)
+								.withInstanceType(InstanceType.T2Nano)
+								.withKeyName(EC2_KEY_NAME)
+								.withSecurityGroupIds(EC2_SECURITY_GROUP_ID)
+								.withMinCount(1)
+								.withMaxCount(1))
+								.getReservation().getInstances().get(0).getInstanceId();
+
+						Ec2StateWaiter.awaitRunning(client, Collections.singletonList(instanceId));
+						client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceId));
+					})
+					.add("acquire", mix.getOrDefault("acquire", 0), () -> pool.release(pool.acquire()))
+					.run();
+
+			fleet.terminate(instances);
+		} finally {
+			pool.close();
+			pool.terminateIdle();
+		}
+	}
+
+	/**
+	 * Create the load test table with the key schema of the Movies table unless it exists.
+	 * @param client Amazon DynamoDB client
+	 */
+	private static void createTable(@Nonnull final AmazonDynamoDB client) {
+		final CreateTableRequest request = new CreateTableRequest()
+				.withTableName(TABLE_NAME)
+				.withAttributeDefinitions(
+						new AttributeDefinition(MovieIndexes.YEAR, ScalarAttributeType.N),
+						new AttributeDefinition(MovieIndexes.TITLE, ScalarAttributeType.S)
+				)
+				.withKeySchema(
+						new KeySchemaElement(MovieIndexes.YEAR, KeyType.HASH),
+						new KeySchemaElement(MovieIndexes.TITLE, KeyType.RANGE)
+				)
+				.withProvisionedThroughput(new ProvisionedThroughput(1_000L, 1_000L));
+
+		TableUtils.createTableIfNotExists(client, request);
+
+		try {
+			TableUtils.waitUntilActive(client, TABLE_NAME);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Write one movie per key of the key space, so gets, queries and deletes find items from the start.
+	 * @param client Amazon DynamoDB client without injected faults
+	 */
+	private static void preload(@Nonnull final AmazonDynamoDB client) {
+		try (final BatchWriter writer = new BatchWriter(client, TABLE_NAME, 8)) {
+			for (int year = FROM_YEAR; year <= TO_YEAR; year++) {
+				for (int title = 0; title < TITLES_PER_YEAR; title++) {
+					writer.putItem(movie(year, title));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Key of a random movie of the skewed key space
+	 */
+	@Nonnull
+	private static Map<String, AttributeValue> randomKey() {
+		final Map<String, AttributeValue> key = new HashMap<>(2);
+		key.put(MovieIndexes.YEAR, new AttributeValue().withN(Integer.toString(randomYear())));
+		key.put(MovieIndexes.TITLE, new AttributeValue(title(ThreadLocalRandom.current().nextInt(TITLES_PER_YEAR))));
+
+		return key;
+	}
+
+	/**
+	 * @return Random movie of the skewed key space
+	 */
+	@Nonnull
+	private static Map<String, AttributeValue> randomMovie() {
+		return movie(randomYear(), ThreadLocalRandom.current().nextInt(TITLES_PER_YEAR));
+	}
+
+	/**
+	 * @return One of the last {@code HOT_YEARS} years with a probability of {@code HOT_SHARE}, any year otherwise
+	 */
+	private static int randomYear() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		if (HOT_YEARS > 0 && random.nextDouble() < HOT_SHARE) {
+			return TO_YEAR - random.nextInt(Math.min(HOT_YEARS, TO_YEAR - FROM_YEAR + 1));
+		}
+
+		return FROM_YEAR + random.nextInt(TO_YEAR - FROM_YEAR + 1);
+	}
+
+	@Nonnull
+	private static Map<String, AttributeValue> movie(final int year, final int title) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final Map<String, AttributeValue> info = new HashMap<>();
+		info.put(MovieIndexes.RATING, new AttributeValue().withN(BigDecimal.valueOf(10 + random.nextInt(90), 1).toPlainString()));
+		info.put("genres", new AttributeValue().withL(new AttributeValue(GENRES.get(random.nextInt(GENRES.size())))));
+		info.put("directors", new AttributeValue().withL(new AttributeValue("Director " + random.nextInt(500))));
+		info.put("plot", new AttributeValue("Plot of movie " + title + " released in " + year + "."));
+
+		final Map<String, AttributeValue> item = new HashMap<>();
+		item.put(MovieIndexes.YEAR, new AttributeValue().withN(Integer.toString(year)));
+		item.put(MovieIndexes.TITLE, new AttributeValue(title(title)));
+		item.put(MovieIndexes.INFO, new AttributeValue().withM(info));
+
+		return MovieIndexes.denormalize(item);
+	}
+
+	@Nonnull
+	private static String title(final int title) {
+		return "Movie " + title;
+	}
+
+	/**
+	 * Parse a mix such as {@code put=40,get=60}.
+	 * @param mix Comma-separated operation weights
+	 * @param operations Names of the operations of the workload
+	 * @return Weight by operation name
+	 */
+	@Nonnull
+	private static Map<String, Integer> parseMix(@Nonnull final String mix, @Nonnull final String... operations) {
+		final Map<String, Integer> weights = new LinkedHashMap<>();
+
+		for (final String pair : mix.split(",")) {
+			final int separator = pair.indexOf('=');
+
+			if (separator <= 0) {
+				throw new IllegalArgumentException("Invalid operation weight " + pair + ", expected operation=weight");
+			}
+
+			final String operation = pair.substring(0, separator).trim();
+
+			if (!Arrays.asList(operations).contains(operation)) {
+				throw new IllegalArgumentException("Unknown operation " + operation + ", expected one of " + Arrays.toString(operations));
+			}
+
+			weights.put(operation, Integer.parseInt(pair.substring(separator + 1).trim()));
+		}
+
+		return weights;
+	}
+}
@@ -0,0 +1,358 @@
+package seminar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Reads a large JSON array or newline-delimited JSON file of movies in parallel. The file is memory-mapped and a
+ * single pass over the raw UTF-8 bytes splits it into chunks at record boundaries, tracking only nesting depth and
+ * whether a byte is inside a string. The chunks are then parsed concurrently with {@link MovieJsonReader}, each
+ * straight from its own mapped region, so the file is never decoded into characters or copied onto the heap as a
+ * whole.
+ * <p>
+ * Files larger than 2 GB are mapped in windows, as a single mapping is limited to {@code Integer.MAX_VALUE} bytes.
+ */
+public class MappedMovieFileReader {
+
+	private static final Logger logger = Logger.getLogger(MappedMovieFileReader.class.getName());
+
+	/** Size of the windows mapped while scanning for record boundaries. */
+	private static final long SCAN_WINDOW_BYTES = 256L * 1024 * 1024;
+
+	private final Path file;
+	private final int parallelism;
+	private final long chunkBytes;
+	private final long scanWindowBytes;
+
+	/**
+	 * Creates a reader for {@code file}.
+	 * @param file JSON array or newline-delimited JSON file of movies
+	 * @param parallelism Number of chunks parsed concurrently
+	 * @param chunkBytes Minimum size of a chunk, a chunk ends at the first record boundary after this size
+	 */
+	public MappedMovieFileReader(@Nonnull final Path file, final int parallelism, final long chunkBytes) {
+		this(file, parallelism, chunkBytes, SCAN_WINDOW_BYTES);
+	}
+
+	/**
+	 * Creates a reader for {@code file} that scans for record boundaries in windows of {@code scanWindowBytes}, so
+	 * tests can cover records spanning two windows without a file of several hundred megabytes.
+	 * @param file JSON array or newline-delimited JSON file of movies
+	 * @param parallelism Number of chunks parsed concurrently
+	 * @param chunkBytes Minimum size of a chunk, a chunk ends at the first record boundary after this size
+	 * @param scanWindowBytes Size of the windows mapped while scanning for record boundaries
+	 */
+	MappedMovieFileReader(@Nonnull final Path file, final int parallelism, final long chunkBytes, final long scanWindowBytes) {
+		if (chunkBytes <= 0 || chunkBytes > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Chunk size must be between 1 and " + Integer.MAX_VALUE / 2 + " bytes");
+		}
+
+		if (scanWindowBytes <= 0 || scanWindowBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Scan window must be between 1 and " + Integer.MAX_VALUE + " bytes");
+		}
+
+		this.file = file;
+		this.parallelism = parallelism;
+		this.chunkBytes = chunkBytes;
+		this.scanWindowBytes = scanWindowBytes;
+	}
+
+	/**
+	 * Parse all movies of the file and pass them to {@code sink}. The sink is called concurrently from all parsing
+	 * threads, in no particular order, and must be thread-safe.
+	 * @param sink Receives the movie items
+	 * @return Number of movies read
+	 * @throws IOException If the file cannot be read or is not a JSON array or sequence of movie objects
+	 */
+	public long read(@Nonnull final Consumer<Map<String, AttributeValue>> sink) throws IOException {
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			final Thread thread = new Thread(runnable, "mapped-reader-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			return read(sink, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Parse all movies of the file on the threads of {@code executor} and pass them to {@code sink}, like
+	 * {@link #read(Consumer)}. The executor is shared with the caller and stays running, its size rather than the
+	 * parallelism of this reader limits the chunks parsed concurrently.
+	 * @param sink Receives the movie items
+	 * @param executor Pool parsing the chunks, must not be the pool of the calling thread
+	 * @return Number of movies read
+	 * @throws IOException If the file cannot be read or is not a JSON array or sequence of movie objects
+	 */
+	public long read(
+			@Nonnull final Consumer<Map<String, AttributeValue>> sink,
+			@Nonnull final ExecutorService executor
+	) throws IOException {
+		final long startNanos = System.nanoTime();
+		final AtomicLong count = new AtomicLong();
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final List<Long> boundaries = scanBoundaries(channel);
+
+			try {
+				final List<CompletableFuture<Void>> chunks = new ArrayList<>(boundaries.size());
+
+				for (int i = 0; i + 1 < boundaries.size(); i++) {
+					final long start = boundaries.get(i);
+					final long end = boundaries.get(i + 1);
+
+					chunks.add(CompletableFuture.runAsync(() -> {
+						try {
+							count.addAndGet(readChunk(channel, start, end, sink));
+						} catch (final IOException e) {
+							throw new UncheckedIOException("Could not read bytes " + start + " to " + end + " of " + file, e);
+						}
+					}, executor));
+				}
+
+				CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).join();
+			} catch (final CompletionException e) {
+				if (e.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) e.getCause()).getCause();
+				}
+
+				throw e;
+			}
+
+			logger.log(Level.INFO, "Read {0} movies from {1} ({2} bytes) in {3} chunks in {4} ms", new Object[]{
+					count.get(),
+					file,
+					channel.size(),
+					boundaries.size() - 1,
+					(System.nanoTime() - startNanos) / 1_000_000
+			});
+		}
+
+		return count.get();
+	}
+
+	/**
+	 * Find chunk boundaries of at least {@code chunkBytes} that lie between two records. The first boundary is the
+	 * start of the first record, after the opening bracket of an array, the last boundary is the end of the file.
+	 * @param channel File channel
+	 * @return Ascending file offsets, chunk {@code i} spans from offset {@code i} to offset {@code i + 1}
+	 * @throws IOException If the file cannot be mapped
+	 */
+	@Nonnull
+	private List<Long> scanBoundaries(@Nonnull final FileChannel channel) throws IOException {
+		final long size = channel.size();
+		final List<Long> boundaries = new ArrayList<>();
+		final RecordBoundaries state = new RecordBoundaries();
+		boolean started = false;
+		long lastBoundary = 0;
+
+		for (long windowStart = 0; windowStart < size; windowStart += scanWindowBytes) {
+			final int windowSize = (int) Math.min(scanWindowBytes, size - windowStart);
+			final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+
+			for (int i = 0; i < windowSize; i++) {
+				final byte b = window.get(i);
+
+				if (!started) {
+					if (b == '[') {
+						lastBoundary = windowStart + i + 1;
+						boundaries.add(lastBoundary);
+						started = true;
+						continue;
+					} else if (!isWhitespace(b)) {
+						lastBoundary = windowStart + i;
+						boundaries.add(lastBoundary);
+						started = true;
+					}
+				}
+
+				if (state.accept(b) && state.isRecordEnd()) {
+					final long offset = windowStart + i + 1;
+
+					if (offset - lastBoundary >= chunkBytes) {
+						boundaries.add(offset);
+						lastBoundary = offset;
+					}
+				}
+			}
+		}
+
+		if (boundaries.isEmpty() || lastBoundary < size) {
+			boundaries.add(size);
+		}
+
+		return boundaries;
+	}
+
+	/**
+	 * Parse the records between {@code start} and {@code end}.
+	 * @param channel File channel
+	 * @param start Offset between two records
+	 * @param end Offset between two records or the end of the file
+	 * @param sink Receives the movie items
+	 * @return Number of movies read
+	 * @throws IOException If the chunk cannot be mapped or parsed
+	 */
+	private static long readChunk(
+			@Nonnull final FileChannel channel,
+			final long start,
+			final long end,
+			@Nonnull final Consumer<Map<String, AttributeValue>> sink
+	) throws IOException {
+		final MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		long count = 0;
+
+		try (final MovieJsonReader reader = new MovieJsonReader(new ChunkInputStream(chunk))) {
+			while (reader.hasNext()) {
+				sink.accept(reader.next());
+				count++;
+			}
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		return count;
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	/**
+	 * Tracks nesting depth and string state over the bytes of a sequence of JSON records. Multi-byte UTF-8
+	 * sequences never contain ASCII bytes, so quotes, backslashes and brackets can be recognized byte by byte.
+	 */
+	private static final class RecordBoundaries {
+
+		private int depth;
+		private boolean inString;
+		private boolean escaped;
+
+		/**
+		 * Consume the next byte.
+		 * @param b Byte of the input
+		 * @return Whether {@code b} belongs to a record, {@code false} for whitespace, commas and the closing bracket
+		 * of an array between records
+		 */
+		private boolean accept(final byte b) {
+			if (inString) {
+				if (escaped) {
+					escaped = false;
+				} else if (b == '\\') {
+					escaped = true;
+				} else if (b == '"') {
+					inString = false;
+				}
+
+				return true;
+			}
+
+			switch (b) {
+				case '"':
+					inString = true;
+					return true;
+				case '{':
+				case '[':
+					depth++;
+					return true;
+				case '}':
+				case ']':
+					if (depth == 0) {
+						return b == '}';
+					}
+
+					depth--;
+					return true;
+				case ',':
+					return depth > 0;
+				default:
+					return depth > 0 || !isWhitespace(b);
+			}
+		}
+
+		/**
+		 * @return Whether the last accepted record byte completed a record
+		 */
+		private boolean isRecordEnd() {
+			return depth == 0 && !inString;
+		}
+	}
+
+	/**
+	 * Streams a mapped chunk to the JSON parser, replacing the separators between records by spaces so that the
+	 * records of an array chunk read as a plain sequence of objects.
+	 */
+	private static final class ChunkInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+		private final RecordBoundaries state = new RecordBoundaries();
+
+		private ChunkInputStream(@Nonnull final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			final byte b = buffer.get();
+
+			return state.accept(b) ? b & 0xFF : ' ';
+		}
+
+		@Override
+		public int read(@Nonnull final byte[] bytes, final int offset, final int length) {
+			if (length == 0) {
+				return 0;
+			}
+
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			final int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+
+			for (int i = offset; i < offset + count; i++) {
+				if (!state.accept(bytes[i])) {
+					bytes[i] = ' ';
+				}
+			}
+
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
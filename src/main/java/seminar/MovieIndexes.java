@@ -0,0 +1,143 @@
+package seminar;
+
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.LocalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+
+/**
+ * Secondary indexes of the Movies table and the write-time denormalization that populates them. DynamoDB can only
+ * index top-level scalar attributes, so the primary (first listed) genre and director and the rating are copied out
+ * of the nested {@code info} document into top-level attributes before an item is written. Movies without one of
+ * these values are simply absent from the corresponding sparse index. An attribute holds a single value per item,
+ * so further genres and directors are not indexed and cannot be queried, see {@link MovieQuery}.
+ */
+public final class MovieIndexes {
+
+	public static final String YEAR = "year";
+	public static final String TITLE = "title";
+	public static final String INFO = "info";
+	public static final String GENRE = "genre";
+	public static final String DIRECTOR = "director";
+	public static final String RATING = "rating";
+
+	/** Movies by primary genre, ordered by rating. */
+	public static final String GENRE_RATING_INDEX = "GenreRatingIndex";
+	/** Movies by primary director, ordered by year. */
+	public static final String DIRECTOR_INDEX = "DirectorIndex";
+	/** Movies of a year ordered by rating, a local index because it shares the table's hash key. */
+	public static final String YEAR_RATING_INDEX = "YearRatingIndex";
+
+	private MovieIndexes() {
+	}
+
+	/**
+	 * Add the attribute definitions and secondary indexes to a Movies table {@code request}. Local indexes can only
+	 * be defined when the table is created.
+	 * @param request Create table request with the {@code year} and {@code title} key schema
+	 * @param throughput Throughput of each global index, {@code null} for on-demand tables
+	 * @return Given request
+	 */
+	@Nonnull
+	public static CreateTableRequest addTo(
+			@Nonnull final CreateTableRequest request,
+			@CheckForNull final ProvisionedThroughput throughput
+	) {
+		final Projection all = new Projection().withProjectionType(ProjectionType.ALL);
+
+		return request
+				.withAttributeDefinitions(
+						new AttributeDefinition(GENRE, ScalarAttributeType.S),
+						new AttributeDefinition(DIRECTOR, ScalarAttributeType.S),
+						new AttributeDefinition(RATING, ScalarAttributeType.N)
+				)
+				.withGlobalSecondaryIndexes(
+						new GlobalSecondaryIndex()
+								.withIndexName(GENRE_RATING_INDEX)
+								.withKeySchema(
+										new KeySchemaElement(GENRE, KeyType.HASH),
+										new KeySchemaElement(RATING, KeyType.RANGE)
+								)
+								.withProjection(all)
+								.withProvisionedThroughput(throughput),
+						new GlobalSecondaryIndex()
+								.withIndexName(DIRECTOR_INDEX)
+								.withKeySchema(
+										new KeySchemaElement(DIRECTOR, KeyType.HASH),
+										new KeySchemaElement(YEAR, KeyType.RANGE)
+								)
+								.withProjection(all)
+								.withProvisionedThroughput(throughput)
+				)
+				.withLocalSecondaryIndexes(
+						new LocalSecondaryIndex()
+								.withIndexName(YEAR_RATING_INDEX)
+								.withKeySchema(
+										new KeySchemaElement(YEAR, KeyType.HASH),
+										new KeySchemaElement(RATING, KeyType.RANGE)
+								)
+								.withProjection(all)
+				);
+	}
+
+	/**
+	 * Copy the primary genre, primary director and rating of a movie's {@code info} document to top-level
+	 * attributes. The item is modified in place.
+	 * @param item Movie item
+	 * @return Given item
+	 */
+	@Nonnull
+	public static Map<String, AttributeValue> denormalize(@Nonnull final Map<String, AttributeValue> item) {
+		final AttributeValue info = item.get(INFO);
+
+		if (info == null || info.getM() == null) {
+			return item;
+		}
+
+		final Map<String, AttributeValue> details = info.getM();
+		final AttributeValue genre = first(details.get("genres"));
+		final AttributeValue director = first(details.get("directors"));
+		final AttributeValue rating = details.get(RATING);
+
+		if (genre != null) {
+			item.put(GENRE, genre);
+		}
+
+		if (director != null) {
+			item.put(DIRECTOR, director);
+		}
+
+		if (rating != null && rating.getN() != null) {
+			item.put(RATING, rating);
+		}
+
+		return item;
+	}
+
+	/**
+	 * @param list List attribute
+	 * @return First element of {@code list} if it is a non-empty string, {@code null} otherwise
+	 */
+	@CheckForNull
+	private static AttributeValue first(@CheckForNull final AttributeValue list) {
+		if (list == null || list.getL() == null || list.getL().isEmpty()) {
+			return null;
+		}
+
+		final AttributeValue first = list.getL().get(0);
+
+		return first.getS() != null && !first.getS().isEmpty() ? first : null;
+	}
+}
@@ -0,0 +1,352 @@
+package seminar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Storage format that keeps a movie item small. Key attributes, the denormalized index attributes of
+ * {@link MovieIndexes} and the {@code info} fields used by queries stay native, the remaining {@code info} fields
+ * such as {@code plot} and {@code image_url} are stored as a single Deflate-compressed binary attribute. Item size
+ * determines consumed read and write capacity, so smaller items are cheaper to write, read and transfer.
+ * <p>
+ * The compressed fields are encoded in a compact tagged binary form with sorted map keys, so equal documents always
+ * encode to equal bytes and content hashes of encoded items stay stable.
+ */
+public final class MovieInfoCodec {
+
+	/** Binary attribute holding the compressed {@code info} fields. */
+	public static final String INFO_DEFLATED = "infoDeflated";
+
+	/** Fields of {@code info} that stay native because filter and projection expressions read them. */
+	private static final Set<String> NATIVE_INFO_FIELDS = ImmutableSet.of(MovieIndexes.RATING, "actors");
+
+	private static final byte FORMAT_VERSION = 1;
+
+	/**
+	 * Preset Deflate dictionary of strings that recur across movies. A single {@code info} document is too short for
+	 * Deflate to find much repetition on its own, the dictionary lets it refer back to these strings from the first
+	 * byte. Changing the dictionary requires a new {@code FORMAT_VERSION}.
+	 */
+	private static final byte[] DICTIONARY = String.join("",
+			" the of and to in a his her with their is who an for on by from as that after when but must into",
+			" young man woman life love family new story world father mother son daughter friends finds becomes",
+			"DramaComedyActionThrillerCrimeRomanceAdventureSci-FiHorrorMysteryFantasyFamilyBiographyAnimation",
+			"T00:00:00Z._V1_SX400_.jpg@@http://ia.media-imdb.com/images/M/MV5B",
+			"directorsgenresimage_urlplotrankrelease_daterunning_time_secs"
+	).getBytes(StandardCharsets.UTF_8);
+
+	private static final byte STRING = 's';
+	private static final byte NUMBER = 'n';
+	private static final byte TRUE = 't';
+	private static final byte FALSE = 'f';
+	private static final byte NULL = '0';
+	private static final byte MAP = 'm';
+	private static final byte LIST = 'l';
+	private static final byte STRING_SET = 'S';
+	private static final byte NUMBER_SET = 'N';
+	private static final byte BINARY = 'b';
+
+	private MovieInfoCodec() {
+	}
+
+	/**
+	 * Move the non-native fields of a movie's {@code info} document into the compressed {@code INFO_DEFLATED}
+	 * attribute. Apply after {@link MovieIndexes#denormalize(Map)}, which reads the original document. The item is
+	 * modified in place.
+	 * @param item Movie item
+	 * @return Given item
+	 */
+	@Nonnull
+	public static Map<String, AttributeValue> encode(@Nonnull final Map<String, AttributeValue> item) {
+		final AttributeValue info = item.get(MovieIndexes.INFO);
+
+		if (info == null || info.getM() == null) {
+			return item;
+		}
+
+		final Map<String, AttributeValue> nativeFields = new HashMap<>();
+		final Map<String, AttributeValue> compressedFields = new HashMap<>();
+
+		info.getM().forEach((name, value) -> (NATIVE_INFO_FIELDS.contains(name) ? nativeFields : compressedFields).put(name, value));
+
+		if (compressedFields.isEmpty()) {
+			return item;
+		}
+
+		if (nativeFields.isEmpty()) {
+			item.remove(MovieIndexes.INFO);
+		} else {
+			item.put(MovieIndexes.INFO, new AttributeValue().withM(nativeFields));
+		}
+
+		item.put(INFO_DEFLATED, new AttributeValue().withB(ByteBuffer.wrap(compress(compressedFields))));
+
+		return item;
+	}
+
+	/**
+	 * Restore the complete {@code info} document of an encoded item. Items that are not encoded are returned
+	 * unchanged. The item is modified in place.
+	 * @param item Movie item
+	 * @return Given item
+	 */
+	@Nonnull
+	public static Map<String, AttributeValue> decode(@Nonnull final Map<String, AttributeValue> item) {
+		final AttributeValue compressed = item.remove(INFO_DEFLATED);
+
+		if (compressed != null) {
+			item.put(MovieIndexes.INFO, new AttributeValue().withM(mergeInfo(item.get(MovieIndexes.INFO), compressed)));
+		}
+
+		return item;
+	}
+
+	/**
+	 * Access the complete {@code info} document of an item that is decompressed on first access only, so callers
+	 * that never touch the compressed fields do not pay for decoding them.
+	 * @param item Movie item, encoded or not
+	 * @return Memoizing supplier of the {@code info} document, empty if the item has none
+	 */
+	@Nonnull
+	public static Supplier<Map<String, AttributeValue>> lazyInfo(@Nonnull final Map<String, AttributeValue> item) {
+		final AttributeValue info = item.get(MovieIndexes.INFO);
+		final AttributeValue compressed = item.get(INFO_DEFLATED);
+
+		if (compressed == null) {
+			final Map<String, AttributeValue> fields = info == null || info.getM() == null ? new HashMap<>() : info.getM();
+
+			return () -> fields;
+		}
+
+		return Suppliers.memoize(() -> mergeInfo(info, compressed));
+	}
+
+	/**
+	 * @param info Native {@code info} attribute, may be {@code null}
+	 * @param compressed Compressed {@code info} fields
+	 * @return New map with the native and the decompressed fields
+	 */
+	@Nonnull
+	private static Map<String, AttributeValue> mergeInfo(final AttributeValue info, @Nonnull final AttributeValue compressed) {
+		final Map<String, AttributeValue> merged = decompress(compressed.getB());
+
+		if (info != null && info.getM() != null) {
+			merged.putAll(info.getM());
+		}
+
+		return merged;
+	}
+
+	/**
+	 * @param fields Attributes to compress
+	 * @return Format version followed by the deflated binary encoding of {@code fields}
+	 */
+	@Nonnull
+	static byte[] compress(@Nonnull final Map<String, AttributeValue> fields) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		bytes.write(FORMAT_VERSION);
+
+		final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+
+		deflater.setDictionary(DICTIONARY);
+
+		try (final DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+			writeMap(output, fields);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			deflater.end();
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param compressed Result of {@link #compress(Map)}, its position is not changed
+	 * @return Decompressed attributes
+	 */
+	@Nonnull
+	static Map<String, AttributeValue> decompress(@Nonnull final ByteBuffer compressed) {
+		final ByteBuffer buffer = compressed.duplicate();
+
+		if (buffer.get() != FORMAT_VERSION) {
+			throw new IllegalArgumentException("Unsupported compressed info format");
+		}
+
+		final byte[] input = new byte[buffer.remaining()];
+		buffer.get(input);
+
+		final ByteArrayOutputStream inflated = new ByteArrayOutputStream(input.length * 4);
+		final byte[] chunk = new byte[4096];
+		final Inflater inflater = new Inflater();
+
+		try {
+			inflater.setInput(input);
+
+			while (!inflater.finished()) {
+				final int count = inflater.inflate(chunk);
+
+				if (count > 0) {
+					inflated.write(chunk, 0, count);
+				} else if (inflater.needsDictionary()) {
+					inflater.setDictionary(DICTIONARY);
+				} else if (inflater.needsInput()) {
+					throw new IllegalArgumentException("Truncated compressed info");
+				}
+			}
+
+			return readMap(new DataInputStream(new ByteArrayInputStream(inflated.toByteArray())));
+		} catch (final DataFormatException | IOException e) {
+			throw new IllegalArgumentException("Corrupt compressed info", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void writeMap(@Nonnull final DataOutputStream output, @Nonnull final Map<String, AttributeValue> map) throws IOException {
+		output.writeInt(map.size());
+
+		for (final Map.Entry<String, AttributeValue> entry : new TreeMap<>(map).entrySet()) {
+			writeString(output, entry.getKey());
+			writeValue(output, entry.getValue());
+		}
+	}
+
+	private static void writeValue(@Nonnull final DataOutputStream output, @Nonnull final AttributeValue value) throws IOException {
+		if (value.getS() != null) {
+			output.writeByte(STRING);
+			writeString(output, value.getS());
+		} else if (value.getN() != null) {
+			output.writeByte(NUMBER);
+			writeString(output, value.getN());
+		} else if (value.getBOOL() != null) {
+			output.writeByte(value.getBOOL() ? TRUE : FALSE);
+		} else if (value.getM() != null) {
+			output.writeByte(MAP);
+			writeMap(output, value.getM());
+		} else if (value.getL() != null) {
+			output.writeByte(LIST);
+			output.writeInt(value.getL().size());
+
+			for (final AttributeValue element : value.getL()) {
+				writeValue(output, element);
+			}
+		} else if (value.getSS() != null || value.getNS() != null) {
+			final List<String> elements = value.getSS() != null ? value.getSS() : value.getNS();
+			output.writeByte(value.getSS() != null ? STRING_SET : NUMBER_SET);
+			output.writeInt(elements.size());
+
+			for (final String element : elements) {
+				writeString(output, element);
+			}
+		} else if (value.getB() != null) {
+			final ByteBuffer bytes = value.getB().duplicate();
+			final byte[] array = new byte[bytes.remaining()];
+			bytes.get(array);
+
+			output.writeByte(BINARY);
+			output.writeInt(array.length);
+			output.write(array);
+		} else {
+			output.writeByte(NULL);
+		}
+	}
+
+	private static void writeString(@Nonnull final DataOutputStream output, @Nonnull final String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	@Nonnull
+	private static Map<String, AttributeValue> readMap(@Nonnull final DataInputStream input) throws IOException {
+		final int size = input.readInt();
+		final Map<String, AttributeValue> map = new HashMap<>(size * 2);
+
+		for (int i = 0; i < size; i++) {
+			map.put(readString(input), readValue(input));
+		}
+
+		return map;
+	}
+
+	@Nonnull
+	private static AttributeValue readValue(@Nonnull final DataInputStream input) throws IOException {
+		final byte type = input.readByte();
+
+		switch (type) {
+			case STRING:
+				return new AttributeValue().withS(readString(input));
+			case NUMBER:
+				return new AttributeValue().withN(readString(input));
+			case TRUE:
+				return new AttributeValue().withBOOL(true);
+			case FALSE:
+				return new AttributeValue().withBOOL(false);
+			case NULL:
+				return new AttributeValue().withNULL(true);
+			case MAP:
+				return new AttributeValue().withM(readMap(input));
+			case LIST:
+			case STRING_SET:
+			case NUMBER_SET:
+				final int size = input.readInt();
+
+				if (type == LIST) {
+					final List<AttributeValue> elements = new ArrayList<>(size);
+
+					for (int i = 0; i < size; i++) {
+						elements.add(readValue(input));
+					}
+
+					return new AttributeValue().withL(elements);
+				}
+
+				final List<String> elements = new ArrayList<>(size);
+
+				for (int i = 0; i < size; i++) {
+					elements.add(readString(input));
+				}
+
+				return type == STRING_SET ? new AttributeValue().withSS(elements) : new AttributeValue().withNS(elements);
+			case BINARY:
+				final byte[] bytes = new byte[input.readInt()];
+				input.readFully(bytes);
+
+				return new AttributeValue().withB(ByteBuffer.wrap(bytes));
+			default:
+				throw new IOException("Unknown value type " + type + " in compressed info");
+		}
+	}
+
+	@Nonnull
+	private static String readString(@Nonnull final DataInputStream input) throws IOException {
+		final byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
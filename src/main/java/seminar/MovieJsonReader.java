@@ -0,0 +1,239 @@
+package seminar;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Pull-style reader for a JSON array of movies or a sequence of movie objects such as newline-delimited JSON. Records
+ * are parsed one at a time while iterating, so only the current record is held in memory and consumers can start
+ * before the input has been read completely.
+ * <p>
+ * Tokens are converted straight into low-level {@code AttributeValue}s: numbers keep their original text and are
+ * never parsed into {@code Long} or {@code Double}, and no intermediate JSON string or document map is built.
+ * Jackson recycles its parse buffers per thread, so a reader per worker thread allocates little beyond the
+ * resulting attribute values.
+ */
+public class MovieJsonReader implements Iterator<Map<String, AttributeValue>>, Closeable {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final JsonParser parser;
+	/** Whether the movies are elements of a JSON array rather than a sequence of root-level objects. */
+	private final boolean array;
+
+	@CheckForNull
+	private Map<String, AttributeValue> next;
+	private boolean finished;
+	/** Current token of a sequence whose first object has been peeked but not read yet. */
+	@CheckForNull
+	private JsonToken peeked;
+
+	/**
+	 * Creates a reader for the movies in given {@code input}. The stream is closed together with this reader.
+	 * @param input JSON array of movies or movie objects separated by whitespace, i.e. newline-delimited JSON
+	 * @throws IOException If the input neither starts with an array nor an object
+	 */
+	public MovieJsonReader(@Nonnull final InputStream input) throws IOException {
+		this.parser = JSON_FACTORY.createParser(input);
+
+		final JsonToken first = parser.nextToken();
+
+		this.array = first == JsonToken.START_ARRAY;
+		this.peeked = array ? null : first;
+		this.finished = first == null;
+
+		if (!array && first != null && first != JsonToken.START_OBJECT) {
+			parser.close();
+			throw new IOException("Expected a JSON array or a sequence of movie objects but found " + first);
+		}
+	}
+
+	/**
+	 * Opens a reader for the movies file at given {@code path}.
+	 * @param path JSON or newline-delimited JSON file
+	 * @return Movie reader
+	 * @throws IOException If the file cannot be opened or has an unexpected format
+	 */
+	@Nonnull
+	public static MovieJsonReader fromFile(@Nonnull final Path path) throws IOException {
+		return new MovieJsonReader(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+	}
+
+	/**
+	 * Opens a reader for the classpath resource with given {@code resourceName}. Works for resources packaged in a
+	 * jar as well as for plain files.
+	 * @param resourceName Name of the classpath resource
+	 * @return Movie reader
+	 * @throws IOException If the resource does not exist or cannot be read
+	 */
+	@Nonnull
+	public static MovieJsonReader fromClasspath(@Nonnull final String resourceName) throws IOException {
+		final InputStream input = MovieJsonReader.class.getClassLoader().getResourceAsStream(resourceName);
+
+		if (input == null) {
+			throw new FileNotFoundException("Classpath resource " + resourceName + " not found");
+		}
+
+		return new MovieJsonReader(input);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			try {
+				next = readNext();
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			finished = next == null;
+		}
+
+		return next != null;
+	}
+
+	@Override
+	public Map<String, AttributeValue> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		final Map<String, AttributeValue> item = next;
+		next = null;
+
+		return item;
+	}
+
+	/**
+	 * @return Sequential stream over the remaining movies
+	 */
+	@Nonnull
+	public Stream<Map<String, AttributeValue>> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		parser.close();
+	}
+
+	/**
+	 * Parse the next movie object of the array or sequence.
+	 * @return Movie attributes or {@code null} at the end of the input
+	 */
+	@CheckForNull
+	private Map<String, AttributeValue> readNext() throws IOException {
+		final JsonToken token;
+
+		if (!array && peeked != null) {
+			token = peeked;
+			peeked = null;
+		} else {
+			token = parser.nextToken();
+		}
+
+		if (token == null || array && token == JsonToken.END_ARRAY) {
+			return null;
+		}
+
+		if (token != JsonToken.START_OBJECT) {
+			throw new IOException("Expected a movie object but found " + token);
+		}
+
+		final Map<String, AttributeValue> item = readObject();
+		final AttributeValue year = item.get("year");
+		final AttributeValue title = item.get("title");
+
+		if (year == null || year.getN() == null || title == null || title.getS() == null) {
+			throw new IOException("Movie without year or title at " + parser.getCurrentLocation());
+		}
+
+		return item;
+	}
+
+	/**
+	 * Read the fields of an object whose {@code START_OBJECT} token has been consumed.
+	 * @return Attributes by field name
+	 */
+	@Nonnull
+	private Map<String, AttributeValue> readObject() throws IOException {
+		final Map<String, AttributeValue> attributes = new HashMap<>();
+		JsonToken token;
+
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			attributes.put(field, readValue(parser.nextToken()));
+		}
+
+		if (token != JsonToken.END_OBJECT) {
+			throw new JsonParseException("Expected a field or the end of the object but found " + token,
+					parser.getCurrentLocation());
+		}
+
+		return attributes;
+	}
+
+	/**
+	 * Convert the value starting at given {@code token}.
+	 * @param token Current token
+	 * @return Attribute value
+	 */
+	@Nonnull
+	private AttributeValue readValue(@CheckForNull final JsonToken token) throws IOException {
+		if (token == null) {
+			throw new IOException("Unexpected end of input");
+		}
+
+		switch (token) {
+			case VALUE_STRING:
+				return new AttributeValue().withS(parser.getText());
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return new AttributeValue().withN(parser.getText());
+			case VALUE_TRUE:
+				return new AttributeValue().withBOOL(true);
+			case VALUE_FALSE:
+				return new AttributeValue().withBOOL(false);
+			case VALUE_NULL:
+				return new AttributeValue().withNULL(true);
+			case START_OBJECT:
+				return new AttributeValue().withM(readObject());
+			case START_ARRAY:
+				final List<AttributeValue> elements = new ArrayList<>();
+				JsonToken element;
+
+				while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+					elements.add(readValue(element));
+				}
+
+				return new AttributeValue().withL(elements);
+			default:
+				throw new IOException("Unexpected token " + token + " at " + parser.getCurrentLocation());
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Read-through cache in front of the Movies table for lookups by primary key and by year. Entries are evicted by
+ * size and age, writes and deletes through this class invalidate the affected entries. Every entry carries the version
+ * of its key at the time the load started and a write bumps the version after it completed, so a load racing with a
+ * write is discarded on the next lookup instead of serving the old item until it expires. Cached items are shared and
+ * must not be modified by callers.
+ */
+public class MovieLookup {
+
+	private static final Logger logger = Logger.getLogger(MovieLookup.class.getName());
+
+	// Versions are striped by key hash, a collision only causes a needless reload.
+	private static final int VERSION_STRIPES = 1024;
+
+	private final Table table;
+	private final AtomicLongArray movieVersions = new AtomicLongArray(VERSION_STRIPES);
+	private final AtomicLongArray yearVersions = new AtomicLongArray(VERSION_STRIPES);
+	private final LoadingCache<MovieKey, Versioned<Optional<Item>>> movies;
+	private final LoadingCache<Long, Versioned<List<Item>>> moviesByYear;
+
+	/**
+	 * Creates a lookup for given {@code table}.
+	 * @param table Movies table
+	 * @param maximumSize Maximum number of cached movies, per cache
+	 * @param timeToLive Time after which a cached entry is reloaded
+	 */
+	public MovieLookup(@Nonnull final Table table, final long maximumSize, @Nonnull final Duration timeToLive) {
+		this.table = table;
+
+		this.movies = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeToLive)
+				.recordStats()
+				.build(CacheLoader.from(key -> {
+					final long version = movieVersions.get(stripe(key));
+					return new Versioned<>(version, Optional.ofNullable(table.getItem(key.toPrimaryKey())));
+				}));
+
+		// Year partitions are weighed by their number of movies, so a few large years cannot exceed the bound.
+		// Guava splits the weight limit across segments, a single segment keeps large years cacheable.
+		this.moviesByYear = CacheBuilder.newBuilder()
+				.concurrencyLevel(1)
+				.maximumWeight(maximumSize)
+				.<Long, Versioned<List<Item>>>weigher((year, items) -> items.value.size() + 1)
+				.expireAfterWrite(timeToLive)
+				.recordStats()
+				.build(CacheLoader.from(year -> {
+					final long version = yearVersions.get(stripe(year));
+					return new Versioned<>(version, queryYear(year));
+				}));
+	}
+
+	/**
+	 * Get the movie with given {@code year} and {@code title}.
+	 * @param year Release year
+	 * @param title Movie title
+	 * @return Movie item if present
+	 */
+	@Nonnull
+	public Optional<Item> getMovie(final long year, @Nonnull final String title) {
+		return current(movies, movieVersions, new MovieKey(year, title));
+	}
+
+	/**
+	 * Get all movies released in given {@code year}.
+	 * @param year Release year
+	 * @return Movie items ordered by title
+	 */
+	@Nonnull
+	public List<Item> moviesByYear(final long year) {
+		return current(moviesByYear, yearVersions, year);
+	}
+
+	/**
+	 * Put given movie {@code item} to the table and invalidate cached entries for it.
+	 * @param item Movie item with year and title
+	 */
+	public void putMovie(@Nonnull final Item item) {
+		table.putItem(item);
+		invalidate(item.getLong("year"), item.getString("title"));
+	}
+
+	/**
+	 * Delete the movie with given {@code year} and {@code title} from the table and invalidate cached entries for it.
+	 * @param year Release year
+	 * @param title Movie title
+	 */
+	public void deleteMovie(final long year, @Nonnull final String title) {
+		table.deleteItem("year", year, "title", title);
+		invalidate(year, title);
+	}
+
+	/**
+	 * Invalidate cached entries of a movie that was changed without this lookup.
+	 * @param year Release year
+	 * @param title Movie title
+	 */
+	public void invalidate(final long year, @Nonnull final String title) {
+		final MovieKey key = new MovieKey(year, title);
+
+		movieVersions.incrementAndGet(stripe(key));
+		yearVersions.incrementAndGet(stripe(year));
+		movies.invalidate(key);
+		moviesByYear.invalidate(year);
+	}
+
+	/**
+	 * Invalidate all cached entries, i.e. after a bulk load.
+	 */
+	public void invalidateAll() {
+		for (int i = 0; i < VERSION_STRIPES; i++) {
+			movieVersions.incrementAndGet(i);
+			yearVersions.incrementAndGet(i);
+		}
+
+		movies.invalidateAll();
+		moviesByYear.invalidateAll();
+	}
+
+	/**
+	 * @return Hit, miss and eviction counters of single movie lookups
+	 */
+	@Nonnull
+	public CacheStats movieStats() {
+		return movies.stats();
+	}
+
+	/**
+	 * @return Hit, miss and eviction counters of lookups by year
+	 */
+	@Nonnull
+	public CacheStats yearStats() {
+		return moviesByYear.stats();
+	}
+
+	/**
+	 * Log the counters of both caches.
+	 */
+	public void logStats() {
+		logger.log(Level.INFO, "Movie cache: {0}, year cache: {1}", new Object[]{movieStats(), yearStats()});
+	}
+
+	/**
+	 * Get the cached value of given {@code key}, reloading it while it was loaded before the last write of its key.
+	 * @param cache Cache to read
+	 * @param versions Versions of the cache keys
+	 * @param key Key to look up
+	 * @param <K> Key type
+	 * @param <V> Value type
+	 * @return Value loaded after the last write of {@code key}
+	 */
+	@Nonnull
+	private static <K, V> V current(
+			@Nonnull final LoadingCache<K, Versioned<V>> cache,
+			@Nonnull final AtomicLongArray versions,
+			@Nonnull final K key
+	) {
+		while (true) {
+			final Versioned<V> entry = cache.getUnchecked(key);
+
+			if (entry.version == versions.get(stripe(key))) {
+				return entry.value;
+			}
+
+			cache.asMap().remove(key, entry);
+		}
+	}
+
+	private static int stripe(@Nonnull final Object key) {
+		return (key.hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+	}
+
+	@Nonnull
+	private List<Item> queryYear(final long year) {
+		final QuerySpec querySpec = new QuerySpec()
+				.withKeyConditionExpression("#yr = :yyyy")
+				.withNameMap(ImmutableMap.of("#yr", "year"))
+				.withValueMap(ImmutableMap.of(":yyyy", year));
+
+		final ImmutableList.Builder<Item> items = ImmutableList.builder();
+
+		for (final Item item : table.query(querySpec)) {
+			items.add(item);
+		}
+
+		return items.build();
+	}
+
+	private static final class Versioned<V> {
+
+		private final long version;
+		private final V value;
+
+		private Versioned(final long version, @Nonnull final V value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
+
+	private static final class MovieKey {
+
+		private final long year;
+		private final String title;
+
+		private MovieKey(final long year, @Nonnull final String title) {
+			this.year = year;
+			this.title = title;
+		}
+
+		@Nonnull
+		private PrimaryKey toPrimaryKey() {
+			return new PrimaryKey("year", year, "title", title);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+
+			if (!(o instanceof MovieKey)) {
+				return false;
+			}
+
+			final MovieKey other = (MovieKey) o;
+
+			return year == other.year && title.equals(other.title);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(year, title);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package seminar;
+
+import java.math.BigDecimal;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Predicates of a movie lookup, combined with AND. Genre and director match the primary (first listed) genre and
+ * director, the same values the secondary indexes are built on. Further genres and directors are not searchable: a
+ * movie listed as "Biography, Drama" is found by genre "Biography" but not by "Drama".
+ */
+public class MovieQuery {
+
+	@CheckForNull
+	private Long year;
+	@CheckForNull
+	private String title;
+	@CheckForNull
+	private String genre;
+	@CheckForNull
+	private String director;
+	@CheckForNull
+	private String actor;
+	@CheckForNull
+	private BigDecimal minRating;
+	@CheckForNull
+	private BigDecimal maxRating;
+
+	/**
+	 * @param year Release year
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withYear(final long year) {
+		this.year = year;
+		return this;
+	}
+
+	/**
+	 * @param title Exact movie title
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withTitle(@Nonnull final String title) {
+		this.title = title;
+		return this;
+	}
+
+	/**
+	 * @param genre Primary genre, movies with this genre at a later position do not match
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withGenre(@Nonnull final String genre) {
+		this.genre = genre;
+		return this;
+	}
+
+	/**
+	 * @param director Primary director, movies co-directed by this director at a later position do not match
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withDirector(@Nonnull final String director) {
+		this.director = director;
+		return this;
+	}
+
+	/**
+	 * @param actor Actor anywhere in the cast
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withActor(@Nonnull final String actor) {
+		this.actor = actor;
+		return this;
+	}
+
+	/**
+	 * @param minRating Lowest rating, inclusive
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withMinRating(@Nonnull final BigDecimal minRating) {
+		this.minRating = minRating;
+		return this;
+	}
+
+	/**
+	 * @param maxRating Highest rating, inclusive
+	 * @return This query
+	 */
+	@Nonnull
+	public MovieQuery withMaxRating(@Nonnull final BigDecimal maxRating) {
+		this.maxRating = maxRating;
+		return this;
+	}
+
+	/**
+	 * @return Release year, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public Long getYear() {
+		return year;
+	}
+
+	/**
+	 * @return Exact movie title, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * @return Primary genre, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public String getGenre() {
+		return genre;
+	}
+
+	/**
+	 * @return Primary director, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public String getDirector() {
+		return director;
+	}
+
+	/**
+	 * @return Actor anywhere in the cast, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public String getActor() {
+		return actor;
+	}
+
+	/**
+	 * @return Lowest rating, inclusive, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public BigDecimal getMinRating() {
+		return minRating;
+	}
+
+	/**
+	 * @return Highest rating, inclusive, {@code null} if not restricted
+	 */
+	@CheckForNull
+	public BigDecimal getMaxRating() {
+		return maxRating;
+	}
+
+	/**
+	 * @return Whether a minimum or maximum rating is set
+	 */
+	public boolean hasRatingRange() {
+		return minRating != null || maxRating != null;
+	}
+}
@@ -0,0 +1,365 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+/**
+ * Runs a {@code MovieQuery} against the cheapest access path of the Movies table. The most selective predicate that
+ * is the hash key of the table or one of the {@code MovieIndexes} becomes the key condition, in this order:
+ * <ol>
+ *     <li>year and title: the table's primary key</li>
+ *     <li>year and rating range: {@code YearRatingIndex}</li>
+ *     <li>year: the table's hash key</li>
+ *     <li>genre and rating range: {@code GenreRatingIndex}</li>
+ *     <li>director: {@code DirectorIndex}</li>
+ * </ol>
+ * All remaining predicates become a filter expression. A query without year, director and a genre with rating range
+ * falls back to a full table scan. {@code GenreRatingIndex} is sparse on the rating and lacks movies without rating,
+ * so a genre alone is only a filter of the scan; with a rating range those movies cannot match anyway.
+ * <p>
+ * {@link #findAsync(BoundedAsyncDynamoDB, MovieQuery, int)} runs the same plan through an async client, so several
+ * queries overlap their round trips.
+ */
+public class MovieQueryPlanner {
+
+	private static final Logger logger = Logger.getLogger(MovieQueryPlanner.class.getName());
+
+	private final AmazonDynamoDB client;
+	private final String tableName;
+
+	/**
+	 * Creates a planner for the Movies table {@code tableName}, created with the {@code MovieIndexes}.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the Movies table
+	 */
+	public MovieQueryPlanner(@Nonnull final AmazonDynamoDB client, @Nonnull final String tableName) {
+		this.client = client;
+		this.tableName = tableName;
+	}
+
+	/**
+	 * Choose the access path for given {@code query}.
+	 * @param query Movie query
+	 * @return Plan to run the query
+	 */
+	@Nonnull
+	public Plan plan(@Nonnull final MovieQuery query) {
+		final Plan plan = new Plan();
+
+		if (query.getYear() != null) {
+			plan.key(MovieIndexes.YEAR, "=", new AttributeValue().withN(Long.toString(query.getYear())));
+
+			if (query.getTitle() != null) {
+				plan.key(MovieIndexes.TITLE, "=", new AttributeValue(query.getTitle()));
+				plan.filterRating(query);
+			} else if (query.hasRatingRange()) {
+				plan.indexName = MovieIndexes.YEAR_RATING_INDEX;
+				plan.keyRating(query);
+			}
+
+			plan.filter(MovieIndexes.GENRE, query.getGenre());
+			plan.filter(MovieIndexes.DIRECTOR, query.getDirector());
+		} else if (query.getGenre() != null && query.hasRatingRange()) {
+			plan.indexName = MovieIndexes.GENRE_RATING_INDEX;
+			plan.key(MovieIndexes.GENRE, "=", new AttributeValue(query.getGenre()));
+			plan.keyRating(query);
+			plan.filter(MovieIndexes.TITLE, query.getTitle());
+			plan.filter(MovieIndexes.DIRECTOR, query.getDirector());
+		} else if (query.getDirector() != null) {
+			plan.indexName = MovieIndexes.DIRECTOR_INDEX;
+			plan.key(MovieIndexes.DIRECTOR, "=", new AttributeValue(query.getDirector()));
+			plan.filter(MovieIndexes.TITLE, query.getTitle());
+			plan.filter(MovieIndexes.GENRE, query.getGenre());
+			plan.filterRating(query);
+		} else {
+			plan.filter(MovieIndexes.TITLE, query.getTitle());
+			plan.filter(MovieIndexes.GENRE, query.getGenre());
+			plan.filterRating(query);
+		}
+
+		if (query.getActor() != null) {
+			plan.filters.add("contains(" + plan.name(MovieIndexes.INFO) + "." + plan.name("actors") + ", "
+					+ plan.value("actor", new AttributeValue(query.getActor())) + ")");
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Find movies matching given {@code query}.
+	 * @param query Movie query
+	 * @param limit Maximum number of movies
+	 * @return Matching movies, ordered by the key of the chosen access path
+	 */
+	@Nonnull
+	public List<Map<String, AttributeValue>> find(@Nonnull final MovieQuery query, final int limit) {
+		final Plan plan = plan(query);
+		final List<Map<String, AttributeValue>> movies = new ArrayList<>();
+		Map<String, AttributeValue> lastEvaluatedKey = null;
+
+		logger.log(Level.FINE, "Run {0}", plan);
+
+		do {
+			final Integer pageLimit = pageLimit(plan, limit, movies);
+			final List<Map<String, AttributeValue>> items;
+
+			if (plan.isScan()) {
+				final ScanResult result = client.scan(scanRequest(plan, pageLimit, lastEvaluatedKey));
+				items = result.getItems();
+				lastEvaluatedKey = result.getLastEvaluatedKey();
+			} else {
+				final QueryResult result = client.query(queryRequest(plan, pageLimit, lastEvaluatedKey));
+				items = result.getItems();
+				lastEvaluatedKey = result.getLastEvaluatedKey();
+			}
+
+			movies.addAll(items.subList(0, Math.min(items.size(), limit - movies.size())));
+		} while (lastEvaluatedKey != null && movies.size() < limit);
+
+		return movies;
+	}
+
+	/**
+	 * Find movies matching given {@code query} with requests of {@code asyncClient}, fetching one page after the
+	 * other without blocking the caller.
+	 * @param asyncClient Async client of the same table
+	 * @param query Movie query
+	 * @param limit Maximum number of movies
+	 * @return Future of the matching movies, ordered by the key of the chosen access path
+	 */
+	@Nonnull
+	public CompletableFuture<List<Map<String, AttributeValue>>> findAsync(
+			@Nonnull final BoundedAsyncDynamoDB asyncClient,
+			@Nonnull final MovieQuery query,
+			final int limit
+	) {
+		final Plan plan = plan(query);
+
+		logger.log(Level.FINE, "Run {0} asynchronously", plan);
+
+		return findPages(asyncClient, plan, limit, new ArrayList<>(), null);
+	}
+
+	/**
+	 * Fetch the page after {@code lastEvaluatedKey} and the following ones until {@code limit} movies are found.
+	 * Following pages are requested from the common pool, as a completion thread of the async client must not
+	 * block on the in-flight cap.
+	 * @param asyncClient Async client
+	 * @param plan Plan of the query
+	 * @param limit Maximum number of movies
+	 * @param movies Movies found so far
+	 * @param lastEvaluatedKey Key of the previous page or {@code null} for the first page
+	 * @return Future of all movies found
+	 */
+	@Nonnull
+	private CompletableFuture<List<Map<String, AttributeValue>>> findPages(
+			@Nonnull final BoundedAsyncDynamoDB asyncClient,
+			@Nonnull final Plan plan,
+			final int limit,
+			@Nonnull final List<Map<String, AttributeValue>> movies,
+			@CheckForNull final Map<String, AttributeValue> lastEvaluatedKey
+	) {
+		final Integer pageLimit = pageLimit(plan, limit, movies);
+		// Scan pages are carried as query results, both consist of the items and the key to continue after.
+		final CompletableFuture<QueryResult> page = plan.isScan()
+				? asyncClient.scan(scanRequest(plan, pageLimit, lastEvaluatedKey)).thenApply(result -> new QueryResult()
+						.withItems(result.getItems())
+						.withLastEvaluatedKey(result.getLastEvaluatedKey()))
+				: asyncClient.query(queryRequest(plan, pageLimit, lastEvaluatedKey));
+
+		return page.thenComposeAsync(result -> {
+			final List<Map<String, AttributeValue>> items = result.getItems();
+			movies.addAll(items.subList(0, Math.min(items.size(), limit - movies.size())));
+
+			if (result.getLastEvaluatedKey() != null && movies.size() < limit) {
+				return findPages(asyncClient, plan, limit, movies, result.getLastEvaluatedKey());
+			}
+
+			return CompletableFuture.completedFuture(movies);
+		});
+	}
+
+	/**
+	 * Without a filter every evaluated item is returned, so the page size can be bounded by the limit.
+	 * @param plan Plan of the query
+	 * @param limit Maximum number of movies
+	 * @param movies Movies found so far
+	 * @return Page size or {@code null} for the service's default
+	 */
+	@CheckForNull
+	private static Integer pageLimit(
+			@Nonnull final Plan plan,
+			final int limit,
+			@Nonnull final List<Map<String, AttributeValue>> movies
+	) {
+		return plan.filters.isEmpty() ? limit - movies.size() : null;
+	}
+
+	@Nonnull
+	private ScanRequest scanRequest(
+			@Nonnull final Plan plan,
+			@CheckForNull final Integer pageLimit,
+			@CheckForNull final Map<String, AttributeValue> lastEvaluatedKey
+	) {
+		return new ScanRequest(tableName)
+				.withFilterExpression(plan.getFilterExpression())
+				.withExpressionAttributeNames(plan.names.isEmpty() ? null : plan.names)
+				.withExpressionAttributeValues(plan.values.isEmpty() ? null : plan.values)
+				.withLimit(pageLimit)
+				.withExclusiveStartKey(lastEvaluatedKey);
+	}
+
+	@Nonnull
+	private QueryRequest queryRequest(
+			@Nonnull final Plan plan,
+			@CheckForNull final Integer pageLimit,
+			@CheckForNull final Map<String, AttributeValue> lastEvaluatedKey
+	) {
+		return new QueryRequest(tableName)
+				.withIndexName(plan.indexName)
+				.withKeyConditionExpression(plan.getKeyConditionExpression())
+				.withFilterExpression(plan.getFilterExpression())
+				.withExpressionAttributeNames(plan.names)
+				.withExpressionAttributeValues(plan.values)
+				.withLimit(pageLimit)
+				.withExclusiveStartKey(lastEvaluatedKey);
+	}
+
+	/**
+	 * Access path and expressions of a planned query.
+	 */
+	public static final class Plan {
+
+		@CheckForNull
+		private String indexName;
+		private final List<String> keyConditions = new ArrayList<>();
+		private final List<String> filters = new ArrayList<>();
+		private final Map<String, String> names = new HashMap<>();
+		private final Map<String, AttributeValue> values = new HashMap<>();
+
+		private Plan() {
+		}
+
+		/**
+		 * @return Whether the plan scans the whole table
+		 */
+		public boolean isScan() {
+			return keyConditions.isEmpty();
+		}
+
+		/**
+		 * @return Name of the queried index, {@code null} for the table
+		 */
+		@CheckForNull
+		public String getIndexName() {
+			return indexName;
+		}
+
+		/**
+		 * @return Key condition expression, {@code null} for a scan
+		 */
+		@CheckForNull
+		public String getKeyConditionExpression() {
+			return keyConditions.isEmpty() ? null : String.join(" AND ", keyConditions);
+		}
+
+		/**
+		 * @return Filter expression, {@code null} without filter
+		 */
+		@CheckForNull
+		public String getFilterExpression() {
+			return filters.isEmpty() ? null : String.join(" AND ", filters);
+		}
+
+		@Override
+		public String toString() {
+			final StringJoiner joiner = new StringJoiner(" ");
+
+			if (isScan()) {
+				joiner.add("Scan");
+			} else {
+				joiner.add("Query " + (indexName == null ? "table" : indexName) + " on " + getKeyConditionExpression());
+			}
+
+			if (!filters.isEmpty()) {
+				joiner.add("filter " + getFilterExpression());
+			}
+
+			return joiner.toString();
+		}
+
+		private void key(@Nonnull final String attribute, @Nonnull final String operator, @Nonnull final AttributeValue value) {
+			keyConditions.add(name(attribute) + " " + operator + " " + value(attribute, value));
+		}
+
+		private void filter(@Nonnull final String attribute, @CheckForNull final String value) {
+			if (value != null) {
+				filters.add(name(attribute) + " = " + value(attribute, new AttributeValue(value)));
+			}
+		}
+
+		private void keyRating(@Nonnull final MovieQuery query) {
+			final String condition = ratingCondition(query);
+
+			if (condition != null) {
+				keyConditions.add(condition);
+			}
+		}
+
+		private void filterRating(@Nonnull final MovieQuery query) {
+			final String condition = ratingCondition(query);
+
+			if (condition != null) {
+				filters.add(condition);
+			}
+		}
+
+		@CheckForNull
+		private String ratingCondition(@Nonnull final MovieQuery query) {
+			if (!query.hasRatingRange()) {
+				return null;
+			}
+
+			final String rating = name(MovieIndexes.RATING);
+
+			if (query.getMinRating() != null && query.getMaxRating() != null) {
+				return rating + " BETWEEN " + value("minRating", new AttributeValue().withN(query.getMinRating().toPlainString()))
+						+ " AND " + value("maxRating", new AttributeValue().withN(query.getMaxRating().toPlainString()));
+			}
+
+			if (query.getMinRating() != null) {
+				return rating + " >= " + value("minRating", new AttributeValue().withN(query.getMinRating().toPlainString()));
+			}
+
+			return rating + " <= " + value("maxRating", new AttributeValue().withN(query.getMaxRating().toPlainString()));
+		}
+
+		@Nonnull
+		private String name(@Nonnull final String attribute) {
+			names.put("#" + attribute, attribute);
+			return "#" + attribute;
+		}
+
+		@Nonnull
+		private String value(@Nonnull final String name, @Nonnull final AttributeValue value) {
+			values.put(":" + name, value);
+			return ":" + name;
+		}
+	}
+}
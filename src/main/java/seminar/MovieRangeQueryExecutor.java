@@ -0,0 +1,214 @@
+package seminar;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+/**
+ * Answers questions across a range of years, which span one partition of the Movies table each, such as the best
+ * rated movies from 1990 to 2010. One query per year runs concurrently on the {@code YearRatingIndex} in descending
+ * rating order and pages lazily, at most {@code k} items at a time. The results are merged into a bounded heap of
+ * the {@code k} best movies. Once the heap is full, its lowest rating is a threshold: a partition stops paging as
+ * soon as its next movie is rated below it, as no later movie of the partition can enter the result. Latency
+ * therefore follows the slowest partition and most partitions read only their first page.
+ */
+public class MovieRangeQueryExecutor {
+
+	private static final Logger logger = Logger.getLogger(MovieRangeQueryExecutor.class.getName());
+
+	/** Orders movies from lowest to highest rating, ties by year and title, so the heap head is evicted first. */
+	private static final Comparator<Map<String, AttributeValue>> BY_RATING = Comparator
+			.comparing((Map<String, AttributeValue> item) -> rating(item))
+			.thenComparing(item -> -Long.parseLong(item.get(MovieIndexes.YEAR).getN()))
+			.thenComparing(item -> item.get(MovieIndexes.TITLE).getS(), Comparator.reverseOrder());
+
+	private final AmazonDynamoDB client;
+	private final String tableName;
+	private final int parallelism;
+	@CheckForNull
+	private final AdaptiveRateLimiter rateLimiter;
+
+	/**
+	 * Creates an executor for the Movies table {@code tableName}, created with the {@code MovieIndexes}.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the Movies table
+	 * @param parallelism Maximum number of years queried concurrently
+	 * @param rateLimiter Read capacity limiter, {@code null} for unlimited reads
+	 */
+	public MovieRangeQueryExecutor(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final String tableName,
+			final int parallelism,
+			@CheckForNull final AdaptiveRateLimiter rateLimiter
+	) {
+		this.client = client;
+		this.tableName = tableName;
+		this.parallelism = parallelism;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Find the {@code k} best rated movies released from {@code fromYear} to {@code toYear}. Movies without rating
+	 * are not part of the index and never returned.
+	 * @param fromYear First year, inclusive
+	 * @param toYear Last year, inclusive
+	 * @param k Maximum number of movies
+	 * @return Up to {@code k} movies, best rated first
+	 */
+	@Nonnull
+	public List<Map<String, AttributeValue>> topRated(final long fromYear, final long toYear, final int k) {
+		if (k <= 0 || toYear < fromYear) {
+			return Collections.emptyList();
+		}
+
+		final long startNanos = System.nanoTime();
+		final TopK top = new TopK(k);
+		final AtomicLong pages = new AtomicLong();
+		final AtomicInteger threadCount = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool((int) Math.min(parallelism, toYear - fromYear + 1), runnable -> {
+			final Thread thread = new Thread(runnable, "range-query-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			final List<CompletableFuture<Void>> partitions = new ArrayList<>();
+
+			for (long year = fromYear; year <= toYear; year++) {
+				final long queriedYear = year;
+				partitions.add(CompletableFuture.runAsync(() -> queryYear(queriedYear, top, pages), executor));
+			}
+
+			CompletableFuture.allOf(partitions.toArray(new CompletableFuture[0])).join();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final List<Map<String, AttributeValue>> result = top.toList();
+
+		logger.log(Level.INFO, "Top {0} rated movies from {1} to {2}: {3} movies from {4} pages in {5} ms", new Object[]{
+				k,
+				fromYear,
+				toYear,
+				result.size(),
+				pages.get(),
+				(System.nanoTime() - startNanos) / 1_000_000
+		});
+
+		return result;
+	}
+
+	/**
+	 * Page through the movies of {@code year} in descending rating order until the partition cannot improve
+	 * {@code top} any more.
+	 * @param year Year of the partition
+	 * @param top Shared result heap
+	 * @param pages Counter of read pages
+	 */
+	private void queryYear(final long year, @Nonnull final TopK top, @Nonnull final AtomicLong pages) {
+		final Map<String, String> names = new HashMap<>();
+		names.put("#year", MovieIndexes.YEAR);
+
+		final QueryRequest request = new QueryRequest()
+				.withTableName(tableName)
+				.withIndexName(MovieIndexes.YEAR_RATING_INDEX)
+				.withKeyConditionExpression("#year = :year")
+				.withExpressionAttributeNames(names)
+				.withExpressionAttributeValues(
+						Collections.singletonMap(":year", new AttributeValue().withN(Long.toString(year))))
+				.withScanIndexForward(false)
+				.withLimit(top.k)
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+		do {
+			final QueryResult result = AdaptiveRateLimiter.readPage(rateLimiter, () -> client.query(request),
+					QueryResult::getConsumedCapacity);
+			pages.incrementAndGet();
+
+			for (final Map<String, AttributeValue> item : result.getItems()) {
+				if (!top.offer(item)) {
+					return;
+				}
+			}
+
+			request.setExclusiveStartKey(result.getLastEvaluatedKey());
+		} while (request.getExclusiveStartKey() != null);
+	}
+
+	@Nonnull
+	private static BigDecimal rating(@Nonnull final Map<String, AttributeValue> item) {
+		return new BigDecimal(item.get(MovieIndexes.RATING).getN());
+	}
+
+	/**
+	 * Bounded min-heap of the best {@code k} movies offered by all partitions.
+	 */
+	private static final class TopK {
+
+		private final int k;
+		private final PriorityQueue<Map<String, AttributeValue>> heap;
+
+		private TopK(final int k) {
+			this.k = k;
+			this.heap = new PriorityQueue<>(k, BY_RATING);
+		}
+
+		/**
+		 * Offer the next movie of a partition in descending rating order.
+		 * @param item Movie item
+		 * @return Whether later movies of the same partition can still enter the heap
+		 */
+		private synchronized boolean offer(@Nonnull final Map<String, AttributeValue> item) {
+			if (heap.size() < k) {
+				heap.add(item);
+				return true;
+			}
+
+			final Map<String, AttributeValue> lowest = heap.peek();
+			final int byRating = rating(item).compareTo(rating(lowest));
+
+			if (byRating < 0) {
+				return false;
+			}
+
+			if (BY_RATING.compare(item, lowest) > 0) {
+				heap.poll();
+				heap.add(item);
+			}
+
+			return true;
+		}
+
+		/**
+		 * @return Movies of the heap, best rated first
+		 */
+		@Nonnull
+		private synchronized List<Map<String, AttributeValue>> toList() {
+			final List<Map<String, AttributeValue>> items = new ArrayList<>(heap);
+			items.sort(BY_RATING.reversed());
+
+			return items;
+		}
+	}
+}
@@ -0,0 +1,561 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * In-process, column-wise snapshot of the movies for analytic queries without round-trips to DynamoDB. Year,
+ * rating and running time are stored in primitive arrays indexed by row, genres, directors and actors are
+ * dictionary-encoded with a bitmap of rows per term. Like {@link MovieQuery}, genres and directors only index the
+ * primary (first listed) value, actors index all values. Filters, aggregates and group-bys run over chunks of rows on
+ * all cores.
+ * <p>
+ * The snapshot is built and refreshed from movie items, whether parsed from a file or read from the table, also
+ * items encoded by {@link MovieInfoCodec}. A changed movie is appended as a new row and its old row is marked
+ * deleted, unchanged movies are detected by their content hash and cost nothing. Once more than
+ * {@code MAX_DEAD_FRACTION} of the rows are deleted, the live rows are compacted. Queries and refreshes can run
+ * concurrently, a refresh waits for running queries and vice versa.
+ */
+public class MovieSnapshot {
+
+	/** Rows per parallel chunk, a multiple of 64 so that chunks own whole words of a bitmap. */
+	private static final int CHUNK_ROWS = 64 * 64;
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Fraction of deleted rows that triggers a compaction, so each row is copied a constant number of times. */
+	private static final double MAX_DEAD_FRACTION = 0.5;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Integer> rowsByKey = new HashMap<>();
+	private final BitSet live = new BitSet();
+	private final Dictionary genres = new Dictionary(true);
+	private final Dictionary directors = new Dictionary(true);
+	private final Dictionary actors = new Dictionary(false);
+
+	private int rows;
+	private int deadRows;
+	private int[] years = new int[INITIAL_CAPACITY];
+	private String[] titles = new String[INITIAL_CAPACITY];
+	/** {@code NaN} for movies without rating. */
+	private float[] ratings = new float[INITIAL_CAPACITY];
+	/** Negative for movies without running time. */
+	private int[] runningTimes = new int[INITIAL_CAPACITY];
+	private long[] hashes = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Add or replace all given {@code movies}.
+	 * @param movies Movie items
+	 * @return Number of added or changed movies
+	 */
+	public int refresh(@Nonnull final Iterator<Map<String, AttributeValue>> movies) {
+		int changed = 0;
+
+		lock.writeLock().lock();
+
+		try {
+			while (movies.hasNext()) {
+				if (upsertLocked(movies.next())) {
+					changed++;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Add or replace a single movie.
+	 * @param item Movie item
+	 * @return Whether the movie was added or changed
+	 */
+	public boolean upsert(@Nonnull final Map<String, AttributeValue> item) {
+		lock.writeLock().lock();
+
+		try {
+			return upsertLocked(item);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove a movie.
+	 * @param year Year of the movie
+	 * @param title Title of the movie
+	 * @return Whether the movie was part of the snapshot
+	 */
+	public boolean remove(final long year, @Nonnull final String title) {
+		lock.writeLock().lock();
+
+		try {
+			final Integer row = rowsByKey.remove(key(year, title));
+
+			if (row == null) {
+				return false;
+			}
+
+			live.clear(row);
+			deadRows++;
+			compactIfSparse();
+
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Number of movies
+	 */
+	public int size() {
+		lock.readLock().lock();
+
+		try {
+			return live.cardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param query Filter, only year, title, genre, director, actor and rating range are evaluated
+	 * @return Number of matching movies
+	 */
+	public int count(@Nonnull final MovieQuery query) {
+		lock.readLock().lock();
+
+		try {
+			return select(query).cardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param query Filter
+	 * @return Statistics of the ratings of matching movies with rating
+	 */
+	@Nonnull
+	public DoubleSummaryStatistics rating(@Nonnull final MovieQuery query) {
+		lock.readLock().lock();
+
+		try {
+			return summarize(select(query), row -> ratings[row]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param query Filter
+	 * @return Statistics of the running times in seconds of matching movies with running time
+	 */
+	@Nonnull
+	public DoubleSummaryStatistics runningTime(@Nonnull final MovieQuery query) {
+		lock.readLock().lock();
+
+		try {
+			return summarize(select(query), row -> runningTimes[row] < 0 ? Double.NaN : runningTimes[row]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param query Filter
+	 * @return Rating statistics of matching movies by year, ascending
+	 */
+	@Nonnull
+	public Map<Integer, DoubleSummaryStatistics> ratingByYear(@Nonnull final MovieQuery query) {
+		lock.readLock().lock();
+
+		try {
+			final long[] selected = select(query).toLongArray();
+
+			return chunkStream(selected.length)
+					.mapToObj(chunk -> {
+						final Map<Integer, DoubleSummaryStatistics> byYear = new HashMap<>();
+						forEachRow(selected, chunk, row -> {
+							if (!Float.isNaN(ratings[row])) {
+								byYear.computeIfAbsent(years[row], year -> new DoubleSummaryStatistics()).accept(ratings[row]);
+							}
+						});
+						return byYear;
+					})
+					.reduce(new TreeMap<>(), (merged, byYear) -> {
+						final Map<Integer, DoubleSummaryStatistics> result = new TreeMap<>(merged);
+						byYear.forEach((year, statistics) -> result.merge(year, statistics, MovieSnapshot::combine));
+						return result;
+					});
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param query Filter
+	 * @return Rating statistics of matching movies by their primary genre
+	 */
+	@Nonnull
+	public Map<String, DoubleSummaryStatistics> ratingByGenre(@Nonnull final MovieQuery query) {
+		lock.readLock().lock();
+
+		try {
+			final BitSet selected = select(query);
+
+			return parallelIfLarge(IntStream.range(0, genres.size()), rows)
+					.filter(genre -> genres.postings.get(genre).intersects(selected))
+					.boxed()
+					.collect(Collectors.toMap(genres.terms::get, genre -> {
+						final BitSet rowsOfGenre = (BitSet) genres.postings.get(genre).clone();
+						rowsOfGenre.and(selected);
+						return summarize(rowsOfGenre, row -> ratings[row]);
+					}, MovieSnapshot::combine, TreeMap::new));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Evaluate the filter of {@code query}. Term predicates intersect bitmaps, range predicates scan the columns of
+	 * the remaining rows in parallel. Requires the read lock.
+	 * @param query Filter
+	 * @return Matching rows
+	 */
+	@Nonnull
+	private BitSet select(@Nonnull final MovieQuery query) {
+		final BitSet selected;
+
+		if (query.getTitle() != null && query.getYear() != null) {
+			selected = new BitSet();
+			final Integer row = rowsByKey.get(key(query.getYear(), query.getTitle()));
+
+			if (row != null) {
+				selected.set(row);
+			}
+		} else {
+			selected = (BitSet) live.clone();
+		}
+
+		genres.restrict(selected, query.getGenre());
+		directors.restrict(selected, query.getDirector());
+		actors.restrict(selected, query.getActor());
+
+		final Long year = query.getYear();
+		final float minRating = query.getMinRating() == null ? Float.NEGATIVE_INFINITY : query.getMinRating().floatValue();
+		final float maxRating = query.getMaxRating() == null ? Float.POSITIVE_INFINITY : query.getMaxRating().floatValue();
+
+		if (year == null && query.getTitle() == null && !query.hasRatingRange()) {
+			return selected;
+		}
+
+		final long[] words = selected.toLongArray();
+
+		chunkStream(words.length).forEach(chunk -> forEachRow(words, chunk, row -> {
+			final boolean matches = (year == null || years[row] == year)
+					&& (query.getTitle() == null || query.getTitle().equals(titles[row]))
+					&& (!query.hasRatingRange() || ratings[row] >= minRating && ratings[row] <= maxRating);
+
+			if (!matches) {
+				words[row >>> 6] &= ~(1L << row);
+			}
+		}));
+
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * Summarize a column over {@code rows} in parallel, skipping {@code NaN} values.
+	 * @param rows Rows to summarize
+	 * @param column Value of a row
+	 * @return Statistics of the values
+	 */
+	@Nonnull
+	private static DoubleSummaryStatistics summarize(@Nonnull final BitSet rows, @Nonnull final IntToDoubleFunction column) {
+		final long[] words = rows.toLongArray();
+
+		return chunkStream(words.length)
+				.mapToObj(chunk -> {
+					final DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+					forEachRow(words, chunk, row -> {
+						final double value = column.applyAsDouble(row);
+
+						if (!Double.isNaN(value)) {
+							statistics.accept(value);
+						}
+					});
+					return statistics;
+				})
+				.reduce(new DoubleSummaryStatistics(), MovieSnapshot::combine);
+	}
+
+	/**
+	 * @param words Number of bitmap words
+	 * @return Stream of the indexes of the chunks covering {@code words}, parallel if there is more than one
+	 */
+	@Nonnull
+	private static IntStream chunkStream(final int words) {
+		final int chunks = (words * 64 + CHUNK_ROWS - 1) / CHUNK_ROWS;
+
+		return parallelIfLarge(IntStream.range(0, chunks), words * 64);
+	}
+
+	/**
+	 * Small snapshots are answered faster by the calling thread than by forking tasks.
+	 * @param stream Sequential stream
+	 * @param rows Number of rows processed by the stream
+	 * @return {@code stream}, parallel if {@code rows} spans more than one chunk
+	 */
+	@Nonnull
+	private static IntStream parallelIfLarge(@Nonnull final IntStream stream, final int rows) {
+		return rows > CHUNK_ROWS ? stream.parallel() : stream;
+	}
+
+	/**
+	 * Call {@code action} for every set bit of {@code words} within {@code chunk}.
+	 * @param words Bitmap words
+	 * @param chunk Chunk index
+	 * @param action Called with the row
+	 */
+	private static void forEachRow(@Nonnull final long[] words, final int chunk, @Nonnull final IntConsumer action) {
+		final int end = Math.min(words.length, (chunk + 1) * CHUNK_ROWS / 64);
+
+		for (int word = chunk * CHUNK_ROWS / 64; word < end; word++) {
+			long bits = words[word];
+
+			while (bits != 0) {
+				action.accept(word * 64 + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+	}
+
+	@Nonnull
+	private static DoubleSummaryStatistics combine(
+			@Nonnull final DoubleSummaryStatistics first,
+			@Nonnull final DoubleSummaryStatistics second
+	) {
+		final DoubleSummaryStatistics combined = new DoubleSummaryStatistics();
+		combined.combine(first);
+		combined.combine(second);
+
+		return combined;
+	}
+
+	/**
+	 * Add or replace a movie. Requires the write lock.
+	 * @param item Movie item
+	 * @return Whether the movie was added or changed
+	 */
+	private boolean upsertLocked(@Nonnull final Map<String, AttributeValue> item) {
+		final int year = Integer.parseInt(item.get(MovieIndexes.YEAR).getN());
+		final String title = item.get(MovieIndexes.TITLE).getS();
+		final String key = key(year, title);
+		final long hash = ContentHashStore.hash(item);
+		final Integer previous = rowsByKey.get(key);
+
+		if (previous != null) {
+			if (hashes[previous] == hash) {
+				return false;
+			}
+
+			live.clear(previous);
+			deadRows++;
+		}
+
+		final Map<String, AttributeValue> info = MovieInfoCodec.lazyInfo(item).get();
+		final Double rating = number(info.get(MovieIndexes.RATING));
+		final Double runningTime = number(info.get("running_time_secs"));
+		final int row = rows++;
+
+		ensureCapacity(rows);
+
+		years[row] = year;
+		titles[row] = title;
+		ratings[row] = rating == null ? Float.NaN : rating.floatValue();
+		runningTimes[row] = runningTime == null ? -1 : runningTime.intValue();
+		hashes[row] = hash;
+
+		genres.add(info.get("genres"), row);
+		directors.add(info.get("directors"), row);
+		actors.add(info.get("actors"), row);
+
+		rowsByKey.put(key, row);
+		live.set(row);
+		compactIfSparse();
+
+		return true;
+	}
+
+	/**
+	 * Move the live rows to the front of the columns and bitmaps once too many rows are deleted. Rows keep their
+	 * order. Requires the write lock.
+	 */
+	private void compactIfSparse() {
+		if (rows < INITIAL_CAPACITY || deadRows <= rows * MAX_DEAD_FRACTION) {
+			return;
+		}
+
+		final int[] moved = new int[rows];
+		final int capacity = Math.max(INITIAL_CAPACITY, rows - deadRows);
+		final int[] compactYears = new int[capacity];
+		final String[] compactTitles = new String[capacity];
+		final float[] compactRatings = new float[capacity];
+		final int[] compactRunningTimes = new int[capacity];
+		final long[] compactHashes = new long[capacity];
+		int compactRows = 0;
+
+		for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+			compactYears[compactRows] = years[row];
+			compactTitles[compactRows] = titles[row];
+			compactRatings[compactRows] = ratings[row];
+			compactRunningTimes[compactRows] = runningTimes[row];
+			compactHashes[compactRows] = hashes[row];
+			moved[row] = compactRows++;
+		}
+
+		rowsByKey.replaceAll((key, row) -> moved[row]);
+		genres.compact(live, moved);
+		directors.compact(live, moved);
+		actors.compact(live, moved);
+
+		years = compactYears;
+		titles = compactTitles;
+		ratings = compactRatings;
+		runningTimes = compactRunningTimes;
+		hashes = compactHashes;
+		rows = compactRows;
+		deadRows = 0;
+		live.clear();
+		live.set(0, compactRows);
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity <= years.length) {
+			return;
+		}
+
+		final int grown = Math.max(capacity, years.length * 2);
+		years = Arrays.copyOf(years, grown);
+		titles = Arrays.copyOf(titles, grown);
+		ratings = Arrays.copyOf(ratings, grown);
+		runningTimes = Arrays.copyOf(runningTimes, grown);
+		hashes = Arrays.copyOf(hashes, grown);
+	}
+
+	@CheckForNull
+	private static Double number(@CheckForNull final AttributeValue value) {
+		return value == null || value.getN() == null ? null : Double.valueOf(value.getN());
+	}
+
+	@Nonnull
+	private static String key(final long year, @Nonnull final String title) {
+		return year + "/" + title;
+	}
+
+	/**
+	 * Dictionary of the terms of a multi-valued string attribute with a bitmap of rows per term.
+	 */
+	private static final class Dictionary {
+
+		private final boolean primaryOnly;
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final List<String> terms = new ArrayList<>();
+		private final List<BitSet> postings = new ArrayList<>();
+
+		/**
+		 * @param primaryOnly Whether only the first listed value of a row is indexed
+		 */
+		private Dictionary(final boolean primaryOnly) {
+			this.primaryOnly = primaryOnly;
+		}
+
+		/**
+		 * @param values List of string attributes, may be {@code null}
+		 * @param row Row containing the values
+		 */
+		private void add(@CheckForNull final AttributeValue values, final int row) {
+			if (values == null || values.getL() == null) {
+				return;
+			}
+
+			for (final AttributeValue value : values.getL()) {
+				if (value.getS() != null) {
+					final int id = ids.computeIfAbsent(value.getS(), term -> {
+						terms.add(term);
+						postings.add(new BitSet());
+						return terms.size() - 1;
+					});
+
+					postings.get(id).set(row);
+				}
+
+				if (primaryOnly) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Renumber the rows of all postings and drop deleted rows.
+		 * @param live Rows that are kept
+		 * @param moved New row of every kept row
+		 */
+		private void compact(@Nonnull final BitSet live, @Nonnull final int[] moved) {
+			for (int id = 0; id < postings.size(); id++) {
+				final BitSet rows = postings.get(id);
+				final BitSet compacted = new BitSet();
+
+				for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+					if (live.get(row)) {
+						compacted.set(moved[row]);
+					}
+				}
+
+				postings.set(id, compacted);
+			}
+		}
+
+		/**
+		 * Keep only the rows of {@code selected} that contain {@code term}.
+		 * @param selected Selected rows, modified in place
+		 * @param term Required term, {@code null} to keep all rows
+		 */
+		private void restrict(@Nonnull final BitSet selected, @CheckForNull final String term) {
+			if (term == null) {
+				return;
+			}
+
+			final Integer id = ids.get(term);
+
+			if (id == null) {
+				selected.clear();
+			} else {
+				selected.and(postings.get(id));
+			}
+		}
+
+		private int size() {
+			return terms.size();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package seminar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+/**
+ * Exports a table with a parallel scan. The table is split into {@code TotalSegments} segments that are scanned
+ * concurrently, each page is handed to a caller-supplied sink as soon as it arrives.
+ */
+public class ParallelScanExporter {
+
+	private static final Logger logger = Logger.getLogger(ParallelScanExporter.class.getName());
+
+	private final AmazonDynamoDB client;
+	private final String tableName;
+	private final int totalSegments;
+	@CheckForNull
+	private final AdaptiveRateLimiter rateLimiter;
+
+	/**
+	 * Creates an exporter for {@code tableName}.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the table to export
+	 * @param totalSegments Number of segments scanned in parallel
+	 * @param rateLimiter Read capacity limiter, {@code null} for unlimited reads
+	 */
+	public ParallelScanExporter(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final String tableName,
+			final int totalSegments,
+			@CheckForNull final AdaptiveRateLimiter rateLimiter
+	) {
+		this.client = client;
+		this.tableName = tableName;
+		this.totalSegments = totalSegments;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Scan the whole table and pass every item to {@code sink}. The sink is called concurrently from all segment
+	 * workers and must be thread-safe.
+	 * @param projection Attribute paths to export such as {@code info.rating}, {@code null} or empty for all
+	 * @param sink Receives the exported items
+	 * @return Number of exported items
+	 */
+	public long export(
+			@CheckForNull final Collection<String> projection,
+			@Nonnull final Consumer<Map<String, AttributeValue>> sink
+	) {
+		final long startNanos = System.nanoTime();
+		final AtomicLong count = new AtomicLong();
+		final ExecutorService executor = Executors.newFixedThreadPool(totalSegments);
+
+		try {
+			final List<CompletableFuture<Void>> segments = new ArrayList<>(totalSegments);
+
+			for (int segment = 0; segment < totalSegments; segment++) {
+				final ScanRequest request = createScanRequest(projection).withSegment(segment);
+				segments.add(CompletableFuture.runAsync(() -> scanSegment(request, sink, count), executor));
+			}
+
+			CompletableFuture.allOf(segments.toArray(new CompletableFuture[0])).join();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		logger.log(Level.INFO, "Exported {0} items from {1} with {2} segments in {3} ms", new Object[]{
+				count.get(),
+				tableName,
+				totalSegments,
+				(System.nanoTime() - startNanos) / 1_000_000
+		});
+
+		return count.get();
+	}
+
+	/**
+	 * Page through a single segment.
+	 * @param request Scan request of the segment
+	 * @param sink Receives the scanned items
+	 * @param count Counter of exported items
+	 */
+	private void scanSegment(
+			@Nonnull final ScanRequest request,
+			@Nonnull final Consumer<Map<String, AttributeValue>> sink,
+			@Nonnull final AtomicLong count
+	) {
+		do {
+			final ScanResult result = AdaptiveRateLimiter.readPage(rateLimiter, () -> client.scan(request),
+					ScanResult::getConsumedCapacity);
+
+			for (final Map<String, AttributeValue> item : result.getItems()) {
+				sink.accept(item);
+			}
+
+			count.addAndGet(result.getItems().size());
+			request.setExclusiveStartKey(result.getLastEvaluatedKey());
+		} while (request.getExclusiveStartKey() != null);
+	}
+
+	/**
+	 * Create a scan request without segment for given {@code projection}. Every path element is replaced by an
+	 * expression attribute name, so reserved words such as {@code year} can be projected.
+	 * @param projection Attribute paths, {@code null} or empty for all attributes
+	 * @return Scan request
+	 */
+	@Nonnull
+	private ScanRequest createScanRequest(@CheckForNull final Collection<String> projection) {
+		final ScanRequest request = new ScanRequest()
+				.withTableName(tableName)
+				.withTotalSegments(totalSegments)
+				.withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+		if (projection == null || projection.isEmpty()) {
+			return request;
+		}
+
+		final Map<String, String> names = new HashMap<>();
+		final Map<String, String> placeholders = new HashMap<>();
+		final StringJoiner expression = new StringJoiner(", ");
+
+		for (final String path : projection) {
+			final StringJoiner pathExpression = new StringJoiner(".");
+
+			for (final String name : path.split("\\.")) {
+				final String placeholder = placeholders.computeIfAbsent(name, n -> "#p" + placeholders.size());
+				names.put(placeholder, name);
+				pathExpression.add(placeholder);
+			}
+
+			expression.add(pathExpression.toString());
+		}
+
+		return request
+				.withProjectionExpression(expression.toString())
+				.withExpressionAttributeNames(names);
+	}
+}
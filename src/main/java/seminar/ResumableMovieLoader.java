@@ -0,0 +1,207 @@
+package seminar;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+
+/**
+ * Loads movies with batched writes so that an interrupted load can be resumed and repeated loads only write what
+ * changed. Records are numbered in input order and the number of leading records that are committed to the table
+ * is checkpointed periodically. A restarted load skips these records without writing them. Records whose content
+ * hash matches the previous load are skipped as well.
+ * <p>
+ * Batches complete out of order, so the checkpoint is the low watermark of contiguously committed records. Records
+ * after it may already be written and are written again after a restart, which is harmless because puts are
+ * idempotent. Records removed from the input are not deleted from the table.
+ * <p>
+ * Checkpoint and hashes are bound to the {@code TableId} of the target table, so a table that was deleted and
+ * created again is loaded completely. Movies deleted from the table by other means are not noticed; their hashes
+ * still match and they are not written again.
+ */
+public class ResumableMovieLoader {
+
+	private static final Logger logger = Logger.getLogger(ResumableMovieLoader.class.getName());
+
+	private final AmazonDynamoDB client;
+	private final String tableName;
+	private final int workers;
+	@CheckForNull
+	private final AdaptiveRateLimiter rateLimiter;
+	private final IngestionCheckpoint checkpoint;
+	private final ContentHashStore hashes;
+	private final long checkpointIntervalNanos;
+
+	/**
+	 * Creates a loader for {@code tableName}.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the target table
+	 * @param workers Number of batch writer threads
+	 * @param rateLimiter Write capacity limiter, {@code null} for unlimited writes
+	 * @param checkpoint Checkpoint of the load
+	 * @param hashes Content hashes of previous loads
+	 * @param checkpointInterval Minimum time between two checkpoints
+	 */
+	public ResumableMovieLoader(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final String tableName,
+			final int workers,
+			@CheckForNull final AdaptiveRateLimiter rateLimiter,
+			@Nonnull final IngestionCheckpoint checkpoint,
+			@Nonnull final ContentHashStore hashes,
+			@Nonnull final Duration checkpointInterval
+	) {
+		this.client = client;
+		this.tableName = tableName;
+		this.workers = workers;
+		this.rateLimiter = rateLimiter;
+		this.checkpoint = checkpoint;
+		this.hashes = hashes;
+		this.checkpointIntervalNanos = checkpointInterval.toNanos();
+	}
+
+	/**
+	 * Load all {@code movies} of {@code source}, continuing after the last checkpoint of the same source. The
+	 * checkpoint is removed once all records are committed.
+	 * @param source Identity of the input, a changed input must have a different identity
+	 * @param movies Movie items in input order
+	 * @return Number of written movies
+	 * @throws IOException If the checkpoint or the hashes cannot be read or written
+	 */
+	public long load(
+			@Nonnull final String source,
+			@Nonnull final Iterator<Map<String, AttributeValue>> movies
+	) throws IOException {
+		final String tableId = client.describeTable(new DescribeTableRequest(tableName)).getTable().getTableId();
+		final long resumeOffset = checkpoint.load(source, tableId);
+		final CommitWatermark watermark = new CommitWatermark(resumeOffset);
+		long offset = 0;
+		long unchanged = 0;
+		long queued = 0;
+		long lastCheckpointNanos = System.nanoTime();
+
+		if (!hashes.load(tableId)) {
+			logger.log(Level.INFO, "No content hashes of table {0} with id {1}, loading all movies",
+					new Object[]{tableName, tableId});
+		}
+
+		if (resumeOffset > 0) {
+			logger.log(Level.INFO, "Resume loading {0} after {1} committed movies", new Object[]{source, resumeOffset});
+		}
+
+		try (final BatchWriter writer = new BatchWriter(client, tableName, workers, rateLimiter)) {
+			for (; movies.hasNext(); offset++) {
+				final Map<String, AttributeValue> item = movies.next();
+
+				if (offset < resumeOffset) {
+					continue;
+				}
+
+				final String key = item.get(MovieIndexes.YEAR).getN() + "/" + item.get(MovieIndexes.TITLE).getS();
+				final long hash = ContentHashStore.hash(item);
+				final long itemOffset = offset;
+
+				if (hashes.isUnchanged(key, hash)) {
+					watermark.commit(itemOffset);
+					unchanged++;
+				} else {
+					writer.putItem(item, () -> {
+						hashes.put(key, hash);
+						watermark.commit(itemOffset);
+					});
+					queued++;
+				}
+
+				if (System.nanoTime() - lastCheckpointNanos >= checkpointIntervalNanos) {
+					saveCheckpoint(source, tableId, watermark);
+					lastCheckpointNanos = System.nanoTime();
+				}
+			}
+		} catch (final RuntimeException e) {
+			saveCheckpoint(source, tableId, watermark);
+			throw e;
+		}
+
+		if (watermark.get() == offset) {
+			hashes.save();
+			checkpoint.clear();
+		} else {
+			saveCheckpoint(source, tableId, watermark);
+			logger.log(Level.WARNING, "Only {0} of {1} movies committed, run again to resume",
+					new Object[]{watermark.get(), offset});
+		}
+
+		logger.log(Level.INFO, "Loaded {0}: {1} movies written, {2} unchanged, {3} skipped before checkpoint",
+				new Object[]{source, queued, unchanged, Math.min(resumeOffset, offset)});
+
+		return queued;
+	}
+
+	/**
+	 * Save the hashes before the checkpoint, so the hashes of all committed records are saved when the checkpoint is.
+	 * @param source Identity of the input
+	 * @param tableId {@code TableId} of the target table
+	 * @param watermark Committed records
+	 * @throws IOException If the checkpoint or the hashes cannot be written
+	 */
+	private void saveCheckpoint(
+			@Nonnull final String source,
+			@Nonnull final String tableId,
+			@Nonnull final CommitWatermark watermark
+	) throws IOException {
+		final long committed = watermark.get();
+
+		hashes.save();
+		checkpoint.save(source, tableId, committed);
+
+		logger.log(Level.FINE, "Checkpoint of {0} at {1}", new Object[]{source, committed});
+	}
+
+	/**
+	 * Tracks the number of contiguously committed records while records are committed in any order.
+	 */
+	static final class CommitWatermark {
+
+		private long committed;
+		private final BitSet ahead = new BitSet();
+
+		CommitWatermark(final long committed) {
+			this.committed = committed;
+		}
+
+		synchronized void commit(final long offset) {
+			if (offset != committed) {
+				ahead.set(Math.toIntExact(offset - committed));
+				return;
+			}
+
+			final int contiguous = ahead.nextClearBit(1);
+			committed += contiguous;
+			shift(contiguous);
+		}
+
+		synchronized long get() {
+			return committed;
+		}
+
+		/**
+		 * Move the records ahead of the watermark by {@code distance} bits towards the watermark.
+		 * @param distance Number of newly committed records
+		 */
+		private void shift(final int distance) {
+			final BitSet shifted = ahead.get(distance, Math.max(distance, ahead.length()));
+			ahead.clear();
+			ahead.or(shifted);
+		}
+	}
+}
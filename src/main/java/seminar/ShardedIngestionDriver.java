@@ -0,0 +1,230 @@
+package seminar;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/**
+ * Ingests a directory of JSON or newline-delimited JSON shards into one or more tables. Shards are read concurrently
+ * by a pool of reader threads and each record is handed to the {@code BatchWriter} of the shard's table. Every table
+ * has its own writer pool and rate limiter, and a writer blocks readers once too many of its batches are waiting,
+ * so a slow table holds back the readers of its shards instead of buffering an unbounded number of records.
+ */
+public class ShardedIngestionDriver {
+
+	private static final Logger logger = Logger.getLogger(ShardedIngestionDriver.class.getName());
+
+	private final AmazonDynamoDB client;
+	private final Map<PathMatcher, String> tableMapping = new LinkedHashMap<>();
+	private final int readers;
+	private final int writersPerTable;
+	private final long mappedShardBytes;
+	private final UnaryOperator<Map<String, AttributeValue>> transformation;
+
+	/**
+	 * Creates a driver that maps shards to tables by glob patterns of their path relative to the ingested
+	 * directory, i.e. {@code 2013/*.json} or {@code **.ndjson}. The first matching pattern wins, shards without a
+	 * matching pattern are skipped.
+	 * @param client Amazon DynamoDB client
+	 * @param tableMapping Table names by glob pattern, in the order they are tried
+	 * @param readers Number of shards read concurrently
+	 * @param writersPerTable Number of batch writer threads per table
+	 * @param mappedShardBytes Shards of at least this size are memory-mapped and parsed in parallel chunks of this
+	 * size by {@code MappedMovieFileReader}, smaller shards are streamed by a single reader thread
+	 * @param transformation Applied to every record before it is written, i.e. {@code MovieIndexes::denormalize}
+	 */
+	public ShardedIngestionDriver(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final Map<String, String> tableMapping,
+			final int readers,
+			final int writersPerTable,
+			final long mappedShardBytes,
+			@Nonnull final UnaryOperator<Map<String, AttributeValue>> transformation
+	) {
+		this.client = client;
+		this.readers = readers;
+		this.writersPerTable = writersPerTable;
+		this.mappedShardBytes = mappedShardBytes;
+		this.transformation = transformation;
+
+		tableMapping.forEach((glob, table) -> this.tableMapping.put(FileSystems.getDefault().getPathMatcher("glob:" + glob), table));
+	}
+
+	/**
+	 * Ingest all shards in {@code directory} and its subdirectories whose relative path matches {@code glob}.
+	 * @param directory Directory of the shards
+	 * @param glob Glob pattern of the shard paths, i.e. {@code **.{json,ndjson}}
+	 * @return Number of written records by table
+	 * @throws IOException If the directory cannot be listed
+	 */
+	@Nonnull
+	public Map<String, Long> ingest(@Nonnull final Path directory, @Nonnull final String glob) throws IOException {
+		final PathMatcher shardMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		final List<Path> shards;
+
+		try (final Stream<Path> files = Files.walk(directory)) {
+			shards = files
+					.filter(Files::isRegularFile)
+					.filter(path -> shardMatcher.matches(directory.relativize(path)))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+
+		logger.log(Level.INFO, "Ingest {0} shards from {1} with {2} readers", new Object[]{shards.size(), directory, readers});
+
+		final long startNanos = System.nanoTime();
+		final Map<Path, String> shardTables = new LinkedHashMap<>();
+
+		for (final Path shard : shards) {
+			final String table = tableFor(directory.relativize(shard));
+
+			if (table == null) {
+				logger.log(Level.WARNING, "No table mapped for shard {0}, skipping it", shard);
+			} else {
+				shardTables.put(shard, table);
+			}
+		}
+
+		final Map<String, BatchWriter> writers = new LinkedHashMap<>();
+		final AtomicLong records = new AtomicLong();
+		final AtomicInteger failedShards = new AtomicInteger();
+		final ExecutorService executor = newDaemonPool("shard-reader-");
+		// Chunks of all memory-mapped shards share one pool, so large shards read at once cannot multiply the threads.
+		final ExecutorService parsers = newDaemonPool("shard-parser-");
+
+		try {
+			// Writers describe their table, so they are created up front instead of by the first reader of a table.
+			for (final String table : shardTables.values()) {
+				if (!writers.containsKey(table)) {
+					writers.put(table, createWriter(table));
+				}
+			}
+
+			final List<CompletableFuture<Void>> reads = new ArrayList<>(shardTables.size());
+
+			shardTables.forEach((shard, table) -> reads.add(CompletableFuture.runAsync(() -> {
+				try {
+					records.addAndGet(readShard(shard, writers.get(table), parsers));
+				} catch (final IOException | RuntimeException e) {
+					failedShards.incrementAndGet();
+					logger.log(Level.SEVERE, "Could not ingest shard " + shard, e);
+				}
+			}, executor)));
+
+			CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).join();
+		} finally {
+			executor.shutdown();
+			parsers.shutdown();
+			writers.values().forEach(BatchWriter::close);
+		}
+
+		final Map<String, Long> written = new LinkedHashMap<>();
+		long failedRecords = 0;
+
+		for (final Map.Entry<String, BatchWriter> entry : writers.entrySet()) {
+			written.put(entry.getKey(), entry.getValue().getWrittenCount());
+			failedRecords += entry.getValue().getFailedCount();
+		}
+
+		logger.log(Level.INFO, "Ingested {0} records from {1} shards in {2} ms: {3} written, {4} failed, {5} shards failed",
+				new Object[]{
+						records.get(),
+						shards.size(),
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+						written,
+						failedRecords,
+						failedShards.get()
+				});
+
+		return written;
+	}
+
+	/**
+	 * @param shard Shard path relative to the ingested directory
+	 * @return Name of the shard's table, {@code null} if no pattern matches
+	 */
+	@CheckForNull
+	private String tableFor(@Nonnull final Path shard) {
+		for (final Map.Entry<PathMatcher, String> entry : tableMapping.entrySet()) {
+			if (entry.getKey().matches(shard)) {
+				return entry.getValue();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Read all records of {@code shard} and queue them in {@code writer}.
+	 * @param shard Shard file
+	 * @param writer Batch writer of the shard's table
+	 * @param parsers Pool parsing the chunks of memory-mapped shards
+	 * @return Number of records read
+	 * @throws IOException If the shard cannot be read
+	 */
+	private long readShard(
+			@Nonnull final Path shard,
+			@Nonnull final BatchWriter writer,
+			@Nonnull final ExecutorService parsers
+	) throws IOException {
+		if (Files.size(shard) >= mappedShardBytes) {
+			final MappedMovieFileReader reader = new MappedMovieFileReader(shard, readers, mappedShardBytes);
+
+			return reader.read(item -> writer.putItem(transformation.apply(item)), parsers);
+		}
+
+		long count = 0;
+
+		try (final MovieJsonReader reader = MovieJsonReader.fromFile(shard)) {
+			while (reader.hasNext()) {
+				writer.putItem(transformation.apply(reader.next()));
+				count++;
+			}
+		}
+
+		logger.log(Level.FINE, "Read {0} records from {1}", new Object[]{count, shard});
+
+		return count;
+	}
+
+	@Nonnull
+	private ExecutorService newDaemonPool(@Nonnull final String namePrefix) {
+		final AtomicInteger threadCount = new AtomicInteger();
+
+		return Executors.newFixedThreadPool(readers, runnable -> {
+			final Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Nonnull
+	private BatchWriter createWriter(@Nonnull final String table) {
+		final AdaptiveRateLimiter rateLimiter = AdaptiveRateLimiter.forWriteCapacity(client.describeTable(table).getTable());
+
+		return new BatchWriter(client, table, writersPerTable, rateLimiter);
+	}
+}
@@ -0,0 +1,338 @@
+package seminar;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Write-behind writer for the Movies table. Puts and deletes are buffered by primary key and only the latest
+ * mutation of a key is written, so a hot movie that changes many times between two flushes costs a single write.
+ * A flush starts as soon as a full batch of {@code BatchWriter.MAX_BATCH_SIZE} keys is buffered and otherwise after
+ * the flush interval, so no mutation waits longer than that.
+ * <p>
+ * The buffer is bounded: once {@code maxBuffered} keys are buffered or being written, further mutations of new keys
+ * block until a batch has been written. Batches are written concurrently, but a key is never part of two batches
+ * at the same time, so the mutations of a key reach the table in order.
+ * <p>
+ * The mutations of a batch that could not be written are buffered again unless a newer mutation of the key is
+ * buffered meanwhile. A mutation is given up after {@code MAX_REQUEUES} failed batches and counted as failed.
+ */
+public class WriteBehindMovieWriter implements AutoCloseable {
+
+	private static final Logger logger = Logger.getLogger(WriteBehindMovieWriter.class.getName());
+
+	// Every batch is already re-sent by the batch writer, so a mutation is only buffered again a few times.
+	private static final int MAX_REQUEUES = 3;
+
+	private final BatchWriter writer;
+	private final String tableName;
+	private final ConcurrentMap<String, WriteRequest> buffer = new ConcurrentHashMap<>();
+	private final Set<String> writing = ConcurrentHashMap.newKeySet();
+	private final ConcurrentMap<String, Integer> requeues = new ConcurrentHashMap<>();
+	private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+	private final Semaphore capacity;
+	private final ExecutorService flushers;
+	private final ScheduledExecutorService timer;
+	private final AtomicBoolean flushPending = new AtomicBoolean();
+
+	private final AtomicLong mutations = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+	/**
+	 * Creates a writer for {@code tableName}.
+	 * @param client Amazon DynamoDB client
+	 * @param tableName Name of the Movies table
+	 * @param maxBuffered Maximum number of keys buffered or being written
+	 * @param flushInterval Maximum time a mutation is buffered
+	 * @param workers Number of batches written concurrently
+	 * @param rateLimiter Write capacity limiter, {@code null} for unlimited writes
+	 */
+	public WriteBehindMovieWriter(
+			@Nonnull final AmazonDynamoDB client,
+			@Nonnull final String tableName,
+			final int maxBuffered,
+			@Nonnull final Duration flushInterval,
+			final int workers,
+			@CheckForNull final AdaptiveRateLimiter rateLimiter
+	) {
+		this.writer = new BatchWriter(client, tableName, 1, rateLimiter);
+		this.tableName = tableName;
+		this.capacity = new Semaphore(Math.max(maxBuffered, BatchWriter.MAX_BATCH_SIZE));
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.flushers = Executors.newFixedThreadPool(workers, runnable -> {
+			final Thread thread = new Thread(runnable, "write-behind-" + tableName + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "write-behind-timer-" + tableName);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		final long intervalNanos = flushInterval.toNanos();
+		timer.scheduleWithFixedDelay(() -> drain(false), intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Buffer a put of given {@code item}, replacing any buffered mutation of the same movie. Blocks while the
+	 * buffer is full.
+	 * @param item Movie item with year and title
+	 */
+	public void putItem(@Nonnull final Map<String, AttributeValue> item) {
+		enqueue(key(item.get(MovieIndexes.YEAR).getN(), item.get(MovieIndexes.TITLE).getS()),
+				new WriteRequest().withPutRequest(new PutRequest().withItem(item)));
+	}
+
+	/**
+	 * Buffer a delete of a movie, replacing any buffered mutation of the same movie. Blocks while the buffer is full.
+	 * @param year Year of the movie
+	 * @param title Title of the movie
+	 */
+	public void deleteItem(final long year, @Nonnull final String title) {
+		final Map<String, AttributeValue> key = new HashMap<>(2);
+		key.put(MovieIndexes.YEAR, new AttributeValue().withN(Long.toString(year)));
+		key.put(MovieIndexes.TITLE, new AttributeValue(title));
+
+		enqueue(key(Long.toString(year), title), new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(key)));
+	}
+
+	/**
+	 * Write all buffered mutations and wait until they are written or given up.
+	 */
+	public void flush() {
+		do {
+			drain(false);
+			CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+		} while (!buffer.isEmpty());
+	}
+
+	/**
+	 * @return Number of buffered mutations that were replaced by a later mutation of the same key
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return Number of mutations that were given up because their batches could not be written
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * @return Number of items written so far
+	 */
+	public long getWrittenCount() {
+		return writer.getWrittenCount();
+	}
+
+	/**
+	 * @return Time to write a batch, from taking it out of the buffer until it is written
+	 */
+	@Nonnull
+	public LatencyHistogram getFlushLatency() {
+		return flushLatency;
+	}
+
+	/**
+	 * Stop the timer, write all buffered mutations and report statistics.
+	 */
+	@Override
+	public void close() {
+		timer.shutdownNow();
+		flush();
+		flushers.shutdown();
+
+		try {
+			flushers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		writer.close();
+
+		logger.log(Level.INFO, "Write-behind to {0}: {1} mutations, {2} coalesced, {3} batches, {4} failed, flush latency p50 {5} ms, p99 {6} ms, max {7} ms",
+				new Object[]{
+						tableName,
+						mutations.get(),
+						coalesced.get(),
+						batches.get(),
+						failed.get(),
+						flushLatency.getPercentileMillis(50),
+						flushLatency.getPercentileMillis(99),
+						flushLatency.getMaxMillis()
+				});
+	}
+
+	/**
+	 * Buffer {@code request} under {@code key}. A new key takes a permit of the buffer capacity, which is returned
+	 * once its batch is written; a replaced mutation keeps the permit of the key.
+	 * @param key Primary key of the movie
+	 * @param request Latest mutation of the movie
+	 */
+	private void enqueue(@Nonnull final String key, @Nonnull final WriteRequest request) {
+		mutations.incrementAndGet();
+
+		if (buffer.computeIfPresent(key, (k, previous) -> request) != null) {
+			coalesced.incrementAndGet();
+			return;
+		}
+
+		capacity.acquireUninterruptibly();
+
+		if (buffer.put(key, request) != null) {
+			capacity.release();
+			coalesced.incrementAndGet();
+		}
+
+		if (buffer.size() >= BatchWriter.MAX_BATCH_SIZE && flushPending.compareAndSet(false, true)) {
+			flushers.execute(() -> {
+				flushPending.set(false);
+				drain(true);
+			});
+		}
+	}
+
+	/**
+	 * Take batches of keys that are not being written out of the buffer and write them on the flush threads.
+	 * @param fullBatchesOnly Whether to leave a final partial batch in the buffer to coalesce further mutations
+	 */
+	private synchronized void drain(final boolean fullBatchesOnly) {
+		List<String> keys = new ArrayList<>(BatchWriter.MAX_BATCH_SIZE);
+		List<WriteRequest> batch = new ArrayList<>(BatchWriter.MAX_BATCH_SIZE);
+
+		for (final String key : buffer.keySet()) {
+			if (!writing.add(key)) {
+				continue;
+			}
+
+			final WriteRequest request = buffer.remove(key);
+
+			if (request == null) {
+				writing.remove(key);
+				continue;
+			}
+
+			keys.add(key);
+			batch.add(request);
+
+			if (batch.size() == BatchWriter.MAX_BATCH_SIZE) {
+				write(keys, batch);
+				keys = new ArrayList<>(BatchWriter.MAX_BATCH_SIZE);
+				batch = new ArrayList<>(BatchWriter.MAX_BATCH_SIZE);
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			if (fullBatchesOnly) {
+				for (int i = 0; i < keys.size(); i++) {
+					// A newer mutation that arrived meanwhile took its own permit and replaces the one taken out.
+					if (buffer.putIfAbsent(keys.get(i), batch.get(i)) != null) {
+						capacity.release();
+					}
+
+					writing.remove(keys.get(i));
+				}
+			} else {
+				write(keys, batch);
+			}
+		}
+	}
+
+	/**
+	 * Write {@code batch} on a flush thread and release its keys afterwards, whether written or not.
+	 * @param keys Keys of the batch
+	 * @param batch Write requests of the batch
+	 */
+	private void write(@Nonnull final List<String> keys, @Nonnull final List<WriteRequest> batch) {
+		final long startNanos = System.nanoTime();
+		final CompletableFuture<Void> completion = CompletableFuture.runAsync(() -> {
+			boolean written = false;
+
+			try {
+				written = writer.writeBatch(batch);
+			} catch (final RuntimeException e) {
+				logger.log(Level.SEVERE, "Write-behind batch to " + tableName + " failed", e);
+			} finally {
+				flushLatency.record(System.nanoTime() - startNanos);
+				batches.incrementAndGet();
+
+				if (written) {
+					requeues.keySet().removeAll(keys);
+					writing.removeAll(keys);
+					capacity.release(keys.size());
+				} else {
+					requeue(keys, batch);
+				}
+			}
+		}, flushers);
+
+		inFlight.add(completion);
+		completion.whenComplete((result, error) -> inFlight.remove(completion));
+	}
+
+	/**
+	 * Buffer the mutations of a failed batch again. A key keeps its permit while its mutation is buffered again, the
+	 * permit is returned if a newer mutation of the key took its own permit or the mutation is given up.
+	 * @param keys Keys of the failed batch
+	 * @param batch Write requests of the failed batch
+	 */
+	private void requeue(@Nonnull final List<String> keys, @Nonnull final List<WriteRequest> batch) {
+		int dropped = 0;
+
+		for (int i = 0; i < keys.size(); i++) {
+			final String key = keys.get(i);
+
+			if (requeues.merge(key, 1, Integer::sum) > MAX_REQUEUES) {
+				requeues.remove(key);
+				failed.incrementAndGet();
+				capacity.release();
+				dropped++;
+			} else if (buffer.putIfAbsent(key, batch.get(i)) != null) {
+				requeues.remove(key);
+				capacity.release();
+			}
+
+			writing.remove(key);
+		}
+
+		logger.log(Level.WARNING, "Write-behind batch to {0} failed, {1} mutations kept, {2} given up",
+				new Object[]{tableName, keys.size() - dropped, dropped});
+	}
+
+	@Nonnull
+	private static String key(@Nonnull final String year, @Nonnull final String title) {
+		return year + "/" + title;
+	}
+}
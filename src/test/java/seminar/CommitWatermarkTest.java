@@ -0,0 +1,94 @@
+package seminar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import seminar.ResumableMovieLoader.CommitWatermark;
+
+public class CommitWatermarkTest {
+
+	@Test
+	public void advancesWithCommitsInOrder() {
+		final CommitWatermark watermark = new CommitWatermark(0);
+
+		for (int offset = 0; offset < 100; offset++) {
+			watermark.commit(offset);
+			assertEquals(offset + 1, watermark.get());
+		}
+	}
+
+	@Test
+	public void waitsForGapsBeforeAdvancing() {
+		final CommitWatermark watermark = new CommitWatermark(0);
+
+		watermark.commit(2);
+		watermark.commit(1);
+		watermark.commit(4);
+		assertEquals(0, watermark.get());
+
+		watermark.commit(0);
+		assertEquals(3, watermark.get());
+
+		watermark.commit(3);
+		assertEquals(5, watermark.get());
+	}
+
+	@Test
+	public void resumesFromOffset() {
+		final CommitWatermark watermark = new CommitWatermark(1_000);
+
+		watermark.commit(1_001);
+		assertEquals(1_000, watermark.get());
+
+		watermark.commit(1_000);
+		assertEquals(1_002, watermark.get());
+	}
+
+	@Test
+	public void tracksLowestUncommittedOffsetInAnyOrder() {
+		final List<Integer> offsets = shuffledOffsets(10_000, new Random(15));
+		final CommitWatermark watermark = new CommitWatermark(0);
+		final BitSet committed = new BitSet();
+
+		for (final int offset : offsets) {
+			watermark.commit(offset);
+			committed.set(offset);
+			assertEquals(committed.nextClearBit(0), watermark.get());
+		}
+	}
+
+	@Test
+	public void reachesEndWithConcurrentCommits() throws InterruptedException {
+		final List<Integer> offsets = shuffledOffsets(100_000, new Random(15));
+		final CommitWatermark watermark = new CommitWatermark(0);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		offsets.forEach(offset -> executor.execute(() -> watermark.commit(offset)));
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		assertEquals(offsets.size(), watermark.get());
+	}
+
+	private static List<Integer> shuffledOffsets(final int count, final Random random) {
+		final List<Integer> offsets = new ArrayList<>(count);
+
+		for (int offset = 0; offset < count; offset++) {
+			offsets.add(offset);
+		}
+
+		Collections.shuffle(offsets, random);
+
+		return offsets;
+	}
+}
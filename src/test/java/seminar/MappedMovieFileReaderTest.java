@@ -0,0 +1,135 @@
+package seminar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class MappedMovieFileReaderTest {
+
+	private static final List<String> MOVIES = new ArrayList<>();
+
+	static {
+		MOVIES.add("{\"year\": 2013, \"title\": \"Rush\", \"info\": {\"rating\": 8.3, \"genres\": [\"Action\", \"Biography\"]}}");
+		MOVIES.add("{\"year\": 2001, \"title\": \"Quote \\\" and } brace\", \"info\": {\"plot\": \"{ [ \\\" ] }\"}}");
+		MOVIES.add("{\"year\": 1999, \"title\": \"Backslash \\\\\", \"info\": {\"plot\": \"ends with \\\\\\\"}\"}}");
+		MOVIES.add("{\"year\": 2005, \"title\": \"Brackets ]}[{ , \\n\", \"info\": {}}");
+		MOVIES.add("{\"year\": 2010, \"title\": \"Ünïcödé 映画\", \"info\": {\"actors\": [\"A\", \"B\"], \"rank\": 7}}");
+		MOVIES.add("{\"year\": 1970, \"title\": \"Nested\", \"info\": {\"a\": [[{\"b\": [1, 2, {\"c\": \"}\"}]}]]}}");
+
+		for (int i = 0; i < 40; i++) {
+			MOVIES.add("{\"year\": " + (1950 + i) + ", \"title\": \"Movie " + i + "\", \"info\": {\"rating\": " + i % 10 + "}}");
+		}
+	}
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsArrayLikeStreamingReader() throws IOException {
+		final String json = "[\n  " + String.join(",\n  ", MOVIES) + "\n]\n";
+
+		assertReadsAllChunkings(json);
+	}
+
+	@Test
+	public void readsNewlineDelimitedLikeStreamingReader() throws IOException {
+		final String json = String.join("\n", MOVIES) + "\n";
+
+		assertReadsAllChunkings(json);
+	}
+
+	@Test
+	public void readsCompactArrayAndConcatenatedObjects() throws IOException {
+		assertReadsAllChunkings("[" + String.join(",", MOVIES) + "]");
+		assertReadsAllChunkings(String.join("", MOVIES));
+	}
+
+	@Test
+	public void readsEmptyArray() throws IOException {
+		assertEquals(0, new MappedMovieFileReader(write("[ ]"), 2, 1).read(item -> {
+		}));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedRecord() throws IOException {
+		new MappedMovieFileReader(write("[" + MOVIES.get(0) + ", {\"year\": 2000, \"title\": \"cut"), 2, 1).read(item -> {
+		});
+	}
+
+	@Test
+	public void parsesChunksOnSharedExecutor() throws IOException {
+		final Path file = write(String.join("\n", MOVIES));
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		try {
+			final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+
+			new MappedMovieFileReader(file, 4, 64).read(item -> items.put(title(item), item), executor);
+			new MappedMovieFileReader(file, 4, 128).read(item -> items.put(title(item), item), executor);
+
+			assertEquals(streamingRead(String.join("\n", MOVIES)), items);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Read {@code json} with chunk and scan window sizes from a single byte to the whole file, so that every record
+	 * starts and ends once at a chunk edge and once at a window edge.
+	 * @param json Movies
+	 */
+	private void assertReadsAllChunkings(final String json) throws IOException {
+		final Path file = write(json);
+		final Map<String, Map<String, AttributeValue>> expected = streamingRead(json);
+		final int size = json.getBytes(StandardCharsets.UTF_8).length;
+
+		for (final long chunkBytes : new long[]{1, 2, 7, 31, 100, 257, size}) {
+			for (long windowBytes = 1; windowBytes <= size; windowBytes = windowBytes < 16 ? windowBytes + 1 : windowBytes * 3) {
+				final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+				final long count = new MappedMovieFileReader(file, 3, chunkBytes, windowBytes).read(item -> items.put(title(item), item));
+
+				assertEquals("chunk " + chunkBytes + ", window " + windowBytes, expected.size(), count);
+				assertEquals("chunk " + chunkBytes + ", window " + windowBytes, expected, items);
+			}
+		}
+	}
+
+	private Path write(final String json) throws IOException {
+		final Path file = folder.newFile().toPath();
+		Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+
+		return file;
+	}
+
+	private static Map<String, Map<String, AttributeValue>> streamingRead(final String json) throws IOException {
+		final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+
+		try (final MovieJsonReader reader = new MovieJsonReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+			reader.forEachRemaining(item -> items.put(title(item), item));
+		}
+
+		assertEquals(MOVIES.size(), items.size());
+
+		return items;
+	}
+
+	private static String title(final Map<String, AttributeValue> item) {
+		return item.get(MovieIndexes.TITLE).getS();
+	}
+}
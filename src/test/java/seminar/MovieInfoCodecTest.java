@@ -0,0 +1,117 @@
+package seminar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class MovieInfoCodecTest {
+
+	@Test
+	public void roundTripsSampleMovies() throws IOException {
+		int encoded = 0;
+
+		try (final MovieJsonReader reader = MovieJsonReader.fromClasspath("moviedata.json")) {
+			while (reader.hasNext()) {
+				final Map<String, AttributeValue> original = MovieIndexes.denormalize(reader.next());
+				final Map<String, AttributeValue> item = MovieInfoCodec.encode(new HashMap<>(original));
+
+				if (item.containsKey(MovieInfoCodec.INFO_DEFLATED)) {
+					encoded++;
+				}
+
+				assertEquals(original.get(MovieIndexes.INFO).getM(), MovieInfoCodec.lazyInfo(item).get());
+				assertEquals(original, MovieInfoCodec.decode(item));
+			}
+		}
+
+		assertTrue(encoded > 0);
+	}
+
+	@Test
+	public void roundTripsAllValueTypes() {
+		final Map<String, AttributeValue> nested = new HashMap<>();
+		nested.put("s", new AttributeValue("映画 \"quoted\""));
+		nested.put("empty", new AttributeValue(""));
+		nested.put("list", new AttributeValue().withL(new AttributeValue().withN("1"), new AttributeValue().withNULL(true)));
+
+		final Map<String, AttributeValue> info = new HashMap<>();
+		info.put(MovieIndexes.RATING, new AttributeValue().withN("7.5"));
+		info.put("actors", new AttributeValue().withL(new AttributeValue("A"), new AttributeValue("B")));
+		info.put("plot", new AttributeValue("A plot."));
+		info.put("rank", new AttributeValue().withN("-12345678901234567890.5"));
+		info.put("released", new AttributeValue().withBOOL(true));
+		info.put("remake", new AttributeValue().withBOOL(false));
+		info.put("tags", new AttributeValue().withSS("b", "a"));
+		info.put("scores", new AttributeValue().withNS("3", "1.5"));
+		info.put("poster", new AttributeValue().withB(ByteBuffer.wrap(new byte[]{0, 1, -1, 127})));
+		info.put("nested", new AttributeValue().withM(nested));
+
+		final Map<String, AttributeValue> original = movie(info);
+		final Map<String, AttributeValue> item = MovieInfoCodec.encode(new HashMap<>(original));
+
+		assertNotNull(item.get(MovieInfoCodec.INFO_DEFLATED));
+		assertEquals(2, item.get(MovieIndexes.INFO).getM().size());
+		assertFalse(item.get(MovieIndexes.INFO).getM().containsKey("plot"));
+		assertEquals(original, MovieInfoCodec.decode(item));
+	}
+
+	@Test
+	public void keepsItemsWithoutCompressibleFields() {
+		final Map<String, AttributeValue> info = new HashMap<>();
+		info.put(MovieIndexes.RATING, new AttributeValue().withN("7.5"));
+
+		final Map<String, AttributeValue> original = movie(info);
+
+		assertEquals(original, MovieInfoCodec.encode(new HashMap<>(original)));
+
+		original.remove(MovieIndexes.INFO);
+
+		assertEquals(original, MovieInfoCodec.encode(new HashMap<>(original)));
+		assertEquals(original, MovieInfoCodec.decode(new HashMap<>(original)));
+	}
+
+	@Test
+	public void encodesEqualDocumentsToEqualBytes() {
+		final Map<String, AttributeValue> hashed = new HashMap<>();
+		final Map<String, AttributeValue> sorted = new TreeMap<>();
+		final Map<String, AttributeValue> reversed = new LinkedHashMap<>();
+
+		for (final String field : Arrays.asList("plot", "directors", "image_url", "release_date", "rank")) {
+			hashed.put(field, new AttributeValue(field + " value"));
+			sorted.put(field, new AttributeValue(field + " value"));
+		}
+
+		for (final String field : Arrays.asList("rank", "release_date", "image_url", "directors", "plot")) {
+			reversed.put(field, new AttributeValue(field + " value"));
+		}
+
+		final byte[] expected = MovieInfoCodec.compress(hashed);
+
+		assertArrayEquals(expected, MovieInfoCodec.compress(sorted));
+		assertArrayEquals(expected, MovieInfoCodec.compress(reversed));
+		assertEquals(hashed, MovieInfoCodec.decompress(ByteBuffer.wrap(expected)));
+	}
+
+	private static Map<String, AttributeValue> movie(final Map<String, AttributeValue> info) {
+		final Map<String, AttributeValue> item = new HashMap<>();
+		item.put(MovieIndexes.YEAR, new AttributeValue().withN("2013"));
+		item.put(MovieIndexes.TITLE, new AttributeValue("Rush"));
+		item.put(MovieIndexes.INFO, new AttributeValue().withM(info));
+
+		return item;
+	}
+}